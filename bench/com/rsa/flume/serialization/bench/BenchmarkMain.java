@@ -0,0 +1,28 @@
+package com.rsa.flume.serialization.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, which reports gc.alloc.rate.norm (bytes per operation).
+ *
+ * The argument is a regular expression for the benchmarks to run, e.g. "Interceptor", default all.
+ */
+public final class BenchmarkMain {
+
+	private BenchmarkMain()
+	{
+	}
+
+	public static void main(String[] args) throws RunnerException
+	{
+		Options options = new OptionsBuilder()
+				.include(args.length > 0 ? args[0] : BenchmarkMain.class.getPackage().getName())
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}
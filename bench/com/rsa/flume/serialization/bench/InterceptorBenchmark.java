@@ -0,0 +1,72 @@
+package com.rsa.flume.serialization.bench;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.interceptor.Interceptor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.rsa.flume.serialization.FlumeRFC1918Interceptor;
+
+/**
+ * Filtering of a batch of events by the FlumeRFC1918Interceptor, with different shares of internal traffic.
+ * Results are per event.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InterceptorBenchmark {
+
+	private static final int BATCH = 1000;
+
+	@Param({ "200" })
+	public int fields;
+
+	@Param({ "0.0", "0.5", "0.9" })
+	public double privateRatio;
+
+	@Param({ "true", "false" })
+	public boolean projectedDecode;
+
+	private Interceptor interceptor;
+	private List<Event> batch;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		WarehouseData.installConfig();
+		batch = new WarehouseData(fields, 42).events(BATCH, privateRatio);
+
+		Context context = new Context();
+		context.put(FlumeRFC1918Interceptor.PROJECTED_DECODE, Boolean.toString(projectedDecode));
+		Interceptor.Builder builder = new FlumeRFC1918Interceptor.FlumeRFC1918InterceptorBuilder();
+		builder.configure(context);
+		interceptor = builder.build();
+		interceptor.initialize();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public List<Event> interceptBatch()
+	{
+		// The batch is not modified, the remaining events are returned as a new list
+		return interceptor.intercept(batch);
+	}
+}
@@ -0,0 +1,109 @@
+package com.rsa.flume.serialization.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.rsa.flume.serialization.EventHeaders;
+import com.rsa.flume.serialization.SchemaCache;
+
+/**
+ * Schema lookup by the event headers: cached literal, hash and fingerprint, and literals,
+ * which are not cached and need to be parsed.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchemaCacheBenchmark {
+
+	// More distinct schemas than the cache keeps, so that every lookup is a miss
+	private static final int MISSES = 1024;
+
+	@Param({ "50", "400" })
+	public int fields;
+
+	private Map<String, String> literalHeaders;
+	private Map<String, String> hashHeaders;
+	private Map<String, String> fingerprintHeaders;
+	private List<Map<String, String>> missHeaders;
+	private int next = 0;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		WarehouseData data = new WarehouseData(fields, 42);
+		Schema schema = data.Schema();
+
+		literalHeaders = Collections.singletonMap(SchemaCache.SCHEMA_LITERAL_HEADER, schema.toString());
+
+		File file = File.createTempFile("sessions-warehouseconnector-bench-", ".avro");
+		file.deleteOnExit();
+		try (DataFileWriter<GenericRecord> writer = new DataFileWriter<GenericRecord>(new GenericDatumWriter<GenericRecord>(schema)))
+		{
+			writer.create(schema, file);
+			writer.append(data.record(0.0));
+		}
+		hashHeaders = new HashMap<String, String>();
+		hashHeaders.put(SchemaCache.SCHEMA_HASH_HEADER, "bench-" + fields);
+		hashHeaders.put(SchemaCache.FILE_HEADER, file.getPath());
+
+		Schema cached = SchemaCache.getinstance().getSchema(literalHeaders);
+		fingerprintHeaders = Collections.singletonMap(EventHeaders.SCHEMA_FINGERPRINT,
+				Long.toString(SchemaCache.getinstance().getFingerprint(cached)));
+
+		missHeaders = new ArrayList<Map<String, String>>();
+		for (int i = 0; i < MISSES; i++)
+		{
+			missHeaders.add(Collections.singletonMap(SchemaCache.SCHEMA_LITERAL_HEADER,
+					WarehouseData.schema(fields, "session" + i).toString()));
+		}
+	}
+
+	@Benchmark
+	public Schema literalHit()
+	{
+		return SchemaCache.getinstance().getSchema(literalHeaders);
+	}
+
+	@Benchmark
+	public Schema hashHit()
+	{
+		return SchemaCache.getinstance().getSchema(hashHeaders);
+	}
+
+	@Benchmark
+	public Schema fingerprintHit()
+	{
+		return SchemaCache.getinstance().getSchema(fingerprintHeaders);
+	}
+
+	@Benchmark
+	public Schema literalMiss()
+	{
+		return SchemaCache.getinstance().getSchema(missHeaders.get(next++ & (MISSES - 1)));
+	}
+}
@@ -0,0 +1,64 @@
+package com.rsa.flume.serialization.bench;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.rsa.flume.serialization.FlumeAvroEventDeserializer;
+
+/**
+ * Full serialization of an event by the FlumeAvroEventDeserializer, as done by the ElasticSearch sink
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializerBenchmark {
+
+	private static final int EVENTS = 1024;
+
+	@Param({ "50", "200", "400" })
+	public int fields;
+
+	@Param({ FlumeAvroEventDeserializer.ENCODER_GENERIC, FlumeAvroEventDeserializer.ENCODER_STREAMING })
+	public String encoder;
+
+	private FlumeAvroEventDeserializer serializer;
+	private List<Event> events;
+	private int next = 0;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		WarehouseData.installConfig();
+		events = new WarehouseData(fields, 42).events(EVENTS, 0.0);
+
+		serializer = new FlumeAvroEventDeserializer();
+		Context context = new Context();
+		context.put(FlumeAvroEventDeserializer.ENCODER, encoder);
+		serializer.configure(context);
+	}
+
+	@Benchmark
+	public XContentBuilder serialize() throws IOException
+	{
+		return serializer.getContentBuilder(events.get(next++ & (EVENTS - 1)));
+	}
+}
@@ -0,0 +1,50 @@
+package com.rsa.flume.serialization.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.rsa.flume.serialization.TimestampFormatter;
+
+/**
+ * Formatting of @timestamp: repeated second, consecutive seconds and spread out timestamps
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TimestampBenchmark {
+
+	private long second = 1500000000000L;
+	private long spread = 1500000000000L;
+
+	@Benchmark
+	public String sameSecond()
+	{
+		return TimestampFormatter.format(1500000000000L);
+	}
+
+	@Benchmark
+	public String nextSecond()
+	{
+		second += 1000L;
+		return TimestampFormatter.format(second);
+	}
+
+	@Benchmark
+	public String spreadOut()
+	{
+		spread += 7919L * 1000L + 13L;
+		return TimestampFormatter.format(spread);
+	}
+}
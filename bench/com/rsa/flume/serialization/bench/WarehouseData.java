@@ -0,0 +1,291 @@
+package com.rsa.flume.serialization.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+
+import com.rsa.flume.serialization.Config;
+import com.rsa.flume.serialization.SchemaCache;
+
+/**
+ * Generates synthetic events shaped like the ones of the Warehouse Connector.
+ *
+ * The schema has the meta fields the serializer and the interceptor look at (time, ng_source,
+ * device_type, ip, geo, country, severity, ...) and is filled up with optional meta fields of
+ * mixed types up to the requested number of fields. Most string values repeat, as on a
+ * real Decoder, some are unique per session. The events are spread over several Decoders.
+ */
+public final class WarehouseData {
+
+	public static final String[] DECODERS = { "eb-rng-aptdec1", "eb-rng-logdec1", "eb-fra-pktdec2", "eb-nyc-logdec3" };
+
+	private static final String[][] CORE_FIELDS = {
+		{ "time", "long" }, { "event_time", "long" }, { "ng_source", "string" }, { "device_type", "string" },
+		{ "medium", "int" }, { "ip_src", "string" }, { "ip_dst", "string" },
+		{ "latdec_src", "double" }, { "longdec_src", "double" }, { "latdec_dst", "double" }, { "longdec_dst", "double" },
+		{ "country_src", "string" }, { "country_dst", "string" }, { "severity", "string" }, { "service", "int" },
+		{ "direction", "string" }, { "size", "long" }, { "packets", "long" }, { "sessionid", "long" }
+	};
+
+	// Types of the additional meta fields, used in turn
+	private static final String[] FILLER_TYPES = { "string", "long", "string", "int", "string", "boolean", "string", "long" };
+
+	private static final String[] DEVICE_TYPES = { "ciscoasa", "checkpointfw1", "winevent_nic", "rhlinux", "bluecoatproxy", "paloaltonetworks" };
+	private static final String[] COUNTRIES = { "United States", "Germany", "France", "United Kingdom", "Netherlands", "Japan", "Brazil" };
+	private static final String[] SEVERITIES = { "1", "3", "5", "high", "medium", "low", "" };
+	private static final String[] DIRECTIONS = { "inbound", "outbound", "lateral" };
+	private static final String[] VOCABULARY = { "tcp", "udp", "http", "https", "dns", "smtp", "ssh", "allow", "deny", "accept", "drop", "admin", "guest" };
+
+	private final int fields;
+	private final Schema schema;
+	private final String literal;
+	private final Random random;
+
+	/**
+	 * @param fields number of fields of the schema, at least the core fields
+	 * @param seed
+	 */
+	public WarehouseData(int fields, long seed)
+	{
+		this.fields = Math.max(fields, CORE_FIELDS.length);
+		this.schema = schema(this.fields, "session");
+		this.literal = schema.toString();
+		this.random = new Random(seed);
+	}
+
+	public Schema Schema()
+	{
+		return schema;
+	}
+
+	/**
+	 * @param fields
+	 * @param name of the record, different names give different schemas
+	 * @return a record schema with optional fields
+	 */
+	public static Schema schema(int fields, String name)
+	{
+		StringBuilder json = new StringBuilder("{\"type\":\"record\",\"name\":\"").append(name)
+				.append("\",\"namespace\":\"com.rsa.netwitness\",\"fields\":[");
+		for (int i = 0; i < fields; i++)
+		{
+			String field, type;
+			if (i < CORE_FIELDS.length)
+			{
+				field = CORE_FIELDS[i][0];
+				type = CORE_FIELDS[i][1];
+			}
+			else
+			{
+				type = FILLER_TYPES[i % FILLER_TYPES.length];
+				field = "meta_" + i + "_" + type;
+			}
+			if (i > 0)
+			{
+				json.append(',');
+			}
+			json.append("{\"name\":\"").append(field).append("\",\"type\":[\"null\",\"").append(type).append("\"],\"default\":null}");
+		}
+		return new Schema.Parser().parse(json.append("]}").toString());
+	}
+
+	/**
+	 * @param privateRatio share of sessions with a private source or destination address
+	 * @return
+	 */
+	public GenericRecord record(double privateRatio)
+	{
+		GenericData.Record record = new GenericData.Record(schema);
+		long time = 1500000000L + random.nextInt(86400);
+		record.put("time", time);
+		record.put("event_time", random.nextInt(4) == 0 ? null : time - random.nextInt(60));
+		record.put("ng_source", random.nextInt(10) == 0 ? null : pick(DECODERS));
+		record.put("device_type", pick(DEVICE_TYPES));
+		record.put("medium", random.nextInt(20) == 0 ? 32 : 1);
+
+		boolean internal = random.nextDouble() < privateRatio;
+		String ip = publicAddress();
+		String otherIp = internal ? privateAddress() : publicAddress();
+		if (random.nextBoolean())
+		{
+			record.put("ip_src", ip);
+			record.put("ip_dst", otherIp);
+		}
+		else
+		{
+			record.put("ip_src", otherIp);
+			record.put("ip_dst", ip);
+		}
+
+		if (random.nextInt(3) != 0)
+		{
+			record.put("latdec_src", random.nextDouble() * 180 - 90);
+			record.put("longdec_src", random.nextDouble() * 360 - 180);
+			record.put("country_src", pick(COUNTRIES));
+		}
+		if (random.nextInt(3) != 0)
+		{
+			record.put("latdec_dst", random.nextDouble() * 180 - 90);
+			record.put("longdec_dst", random.nextDouble() * 360 - 180);
+			record.put("country_dst", pick(COUNTRIES));
+		}
+		record.put("severity", pick(SEVERITIES));
+		record.put("service", random.nextBoolean() ? 80 : random.nextInt(1024));
+		record.put("direction", pick(DIRECTIONS));
+		record.put("size", (long)random.nextInt(1000000));
+		record.put("packets", (long)random.nextInt(1000));
+		record.put("sessionid", random.nextLong() & Long.MAX_VALUE);
+
+		for (int i = CORE_FIELDS.length; i < fields; i++)
+		{
+			// About half of the optional meta is present on a session
+			if (random.nextBoolean())
+			{
+				continue;
+			}
+			String type = FILLER_TYPES[i % FILLER_TYPES.length];
+			Object value;
+			if (type.equals("long"))
+			{
+				value = (long)random.nextInt(100000);
+			}
+			else if (type.equals("int"))
+			{
+				value = random.nextInt(65536);
+			}
+			else if (type.equals("boolean"))
+			{
+				value = random.nextBoolean();
+			}
+			else if (i % 5 == 0)
+			{
+				// Unique per session, e.g. user names or URLs
+				value = "value-" + Long.toHexString(random.nextLong());
+			}
+			else
+			{
+				value = pick(VOCABULARY);
+			}
+			record.put(i, value);
+		}
+		return record;
+	}
+
+	/**
+	 * @param privateRatio
+	 * @return an event with the schema as literal header, as sent by the Spooling Directory source
+	 * @throws IOException
+	 */
+	public Event event(double privateRatio) throws IOException
+	{
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put(SchemaCache.SCHEMA_LITERAL_HEADER, literal);
+		headers.put(SchemaCache.FILE_HEADER, "/data/sessions-warehouseconnector-" + pick(DECODERS) + "-es-34835-1425401857360-TS2017-7-14-8-23TE.avro");
+		return EventBuilder.withBody(encode(schema, record(privateRatio)), headers);
+	}
+
+	public List<Event> events(int count, double privateRatio) throws IOException
+	{
+		List<Event> events = new ArrayList<Event>(count);
+		for (int i = 0; i < count; i++)
+		{
+			events.add(event(privateRatio));
+		}
+		return events;
+	}
+
+	public static byte[] encode(Schema schema, GenericRecord record) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+		new GenericDatumWriter<GenericRecord>(schema).write(record, encoder);
+		encoder.flush();
+		return out.toByteArray();
+	}
+
+	/**
+	 * Writes a configuration, which includes all fields and ignores private addresses,
+	 * and points the Config to it. Must be called before the Config is used.
+	 *
+	 * @return the configuration directory
+	 * @throws IOException
+	 */
+	public static synchronized File installConfig() throws IOException
+	{
+		String existing = System.getProperty(Config.CONFIG_DIRECTORY_PROPERTY);
+		if (existing != null)
+		{
+			return new File(existing);
+		}
+
+		File directory = new File(System.getProperty("java.io.tmpdir"), "flumeavro-bench-" + System.nanoTime());
+		if (!directory.mkdirs())
+		{
+			throw new IOException("Can't create " + directory);
+		}
+
+		try (PrintWriter xml = new PrintWriter(new File(directory, Config.CONFIG_FILE), "UTF-8"))
+		{
+			xml.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+			xml.println("<configuration>");
+			xml.println("  <Include Decoder=\"*\" IncludeAllFields=\"1\"/>");
+			xml.println("  <Exclude Decoder=\"*\"><Field>sessionid</Field></Exclude>");
+			xml.println("  <TimeCorrection><Device name=\"ciscoasa\" correction=\"-2\"/></TimeCorrection>");
+			xml.println("  <Truncate><Field name=\"country_dst\" length=\"16\"/></Truncate>");
+			xml.println("  <IgnoreRFC1918>All</IgnoreRFC1918>");
+			xml.println("  <KibanaVersion>5</KibanaVersion>");
+			xml.println("</configuration>");
+		}
+		try (PrintWriter csv = new PrintWriter(new File(directory, Config.COUNTRY_MAP_FILE), "UTF-8"))
+		{
+			csv.println("United States;USA");
+			csv.println("Germany;DE");
+			csv.println("United Kingdom;UK");
+		}
+
+		System.setProperty(Config.CONFIG_DIRECTORY_PROPERTY, directory.getPath());
+		return directory;
+	}
+
+	private String pick(String[] values)
+	{
+		return values[random.nextInt(values.length)];
+	}
+
+	private String publicAddress()
+	{
+		if (random.nextInt(10) == 0)
+		{
+			return "2001:db8:" + Integer.toHexString(random.nextInt(65536)) + "::" + Integer.toHexString(random.nextInt(65536));
+		}
+		return (1 + random.nextInt(9)) + "." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256);
+	}
+
+	private String privateAddress()
+	{
+		switch (random.nextInt(3))
+		{
+		case 0:
+			return "10." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256);
+		case 1:
+			return "172." + (16 + random.nextInt(16)) + "." + random.nextInt(256) + "." + random.nextInt(256);
+		default:
+			return "192.168." + random.nextInt(256) + "." + random.nextInt(256);
+		}
+	}
+}
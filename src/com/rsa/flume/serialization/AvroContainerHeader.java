@@ -0,0 +1,253 @@
+package com.rsa.flume.serialization;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+
+/**
+ * Header of an Avro container file: magic, metadata (schema, codec) and sync marker.
+ *
+ * Only the header is read, none of the data blocks, so that the schema of a large file
+ * can be taken without reading the file. The header is parsed from a single read of the
+ * start of the file, larger headers are read from the channel.
+ */
+public final class AvroContainerHeader {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// Size of the first read, enough for the headers of the Warehouse Connector files
+	private static final int PREFIX_SIZE = 16 * 1024;
+
+	private final Schema schema;
+	private final String schemaText;
+	private final String codec;
+	private final byte[] sync;
+	private final long length;
+	private final Map<String, byte[]> metadata;
+
+	private AvroContainerHeader(String schemaText, String codec, byte[] sync, long length, Map<String, byte[]> metadata)
+	{
+		this.schemaText = schemaText;
+		this.schema = new Schema.Parser().parse(schemaText);
+		this.codec = codec;
+		this.sync = sync;
+		this.length = length;
+		this.metadata = Collections.unmodifiableMap(metadata);
+	}
+
+	public Schema Schema()
+	{
+		return schema;
+	}
+
+	/**
+	 * @return the schema as stored in the file
+	 */
+	public String SchemaText()
+	{
+		return schemaText;
+	}
+
+	/**
+	 * @return the codec of the data blocks, "null" if they are not compressed
+	 */
+	public String Codec()
+	{
+		return codec;
+	}
+
+	public byte[] Sync()
+	{
+		return sync;
+	}
+
+	/**
+	 * @return the size of the header, which is the offset of the first data block
+	 */
+	public long Length()
+	{
+		return length;
+	}
+
+	public Map<String, byte[]> Metadata()
+	{
+		return metadata;
+	}
+
+	/**
+	 * Reads the header of a container file
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException if the file is not an Avro container file
+	 */
+	public static AvroContainerHeader read(File file) throws IOException
+	{
+		try (FileInputStream in = new FileInputStream(file))
+		{
+			return read(in.getChannel());
+		}
+	}
+
+	/**
+	 * Reads the header from the start of the channel. The position of the channel is not changed.
+	 *
+	 * @param channel
+	 * @return
+	 * @throws IOException if the file is not an Avro container file
+	 */
+	public static AvroContainerHeader read(FileChannel channel) throws IOException
+	{
+		ByteBuffer prefix = ByteBuffer.allocate(PREFIX_SIZE);
+		int n;
+		do
+		{
+			n = channel.read(prefix, prefix.position());
+		} while (n > 0 && prefix.hasRemaining());
+		try
+		{
+			return read(new ByteArrayInputStream(prefix.array(), 0, prefix.position()));
+		} catch (EOFException e) {
+			if (prefix.hasRemaining())
+			{
+				// The file is shorter than the header
+				throw e;
+			}
+		}
+		return read(Channels.newInputStream(new PositionalChannel(channel)));
+	}
+
+	private static AvroContainerHeader read(InputStream stream) throws IOException
+	{
+		CountingInputStream in = new CountingInputStream(stream);
+		BinaryDecoder decoder = DecoderFactory.get().directBinaryDecoder(in, null);
+
+		byte[] magic = new byte[DataFileConstants.MAGIC.length];
+		decoder.readFixed(magic);
+		if (!Arrays.equals(magic, DataFileConstants.MAGIC))
+		{
+			throw new IOException("Not an Avro data file");
+		}
+
+		Map<String, byte[]> metadata = new HashMap<String, byte[]>();
+		for (long count = decoder.readMapStart(); count != 0; count = decoder.mapNext())
+		{
+			for (long i = 0; i < count; i++)
+			{
+				String key = decoder.readString(null).toString();
+				ByteBuffer value = decoder.readBytes(null);
+				byte[] bytes = new byte[value.remaining()];
+				value.get(bytes);
+				metadata.put(key, bytes);
+			}
+		}
+
+		byte[] sync = new byte[DataFileConstants.SYNC_SIZE];
+		decoder.readFixed(sync);
+
+		byte[] schema = metadata.get(DataFileConstants.SCHEMA);
+		if (schema == null)
+		{
+			throw new IOException("Avro data file without schema");
+		}
+		byte[] codec = metadata.get(DataFileConstants.CODEC);
+		return new AvroContainerHeader(new String(schema, UTF8),
+				codec == null ? DataFileConstants.NULL_CODEC : new String(codec, UTF8),
+				sync, in.count, metadata);
+	}
+
+	/**
+	 * Counts the bytes read, to know where the first block starts
+	 */
+	private static final class CountingInputStream extends InputStream {
+		private final InputStream in;
+		long count = 0;
+
+		CountingInputStream(InputStream in)
+		{
+			this.in = in;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = in.read();
+			if (b >= 0)
+			{
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int n = in.read(b, off, len);
+			if (n > 0)
+			{
+				count += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException
+		{
+			long skipped = in.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+
+	/**
+	 * Reads a FileChannel from position 0 without moving the position of the channel
+	 */
+	private static final class PositionalChannel implements java.nio.channels.ReadableByteChannel {
+		private final FileChannel channel;
+		private long position = 0;
+
+		PositionalChannel(FileChannel channel)
+		{
+			this.channel = channel;
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException
+		{
+			int n = channel.read(dst, position);
+			if (n > 0)
+			{
+				position += n;
+			}
+			return n;
+		}
+
+		@Override
+		public boolean isOpen()
+		{
+			return channel.isOpen();
+		}
+
+		@Override
+		public void close()
+		{
+			// The channel is owned by the caller
+		}
+	}
+}
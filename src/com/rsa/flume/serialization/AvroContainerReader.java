@@ -0,0 +1,300 @@
+package com.rsa.flume.serialization;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.flume.Event;
+import org.apache.flume.event.SimpleEvent;
+import org.xerial.snappy.Snappy;
+
+/**
+ * Reads a large Avro container file block by block, with the blocks decoded in parallel.
+ *
+ * The block boundaries are found by walking the block headers (record count and size) and
+ * checking the sync marker after each block. The blocks are read with positional reads of the
+ * channel, decompressed (null, deflate or snappy) and split into records on the ParallelBatch pool. The records are
+ * handed to the Handler as Flume events, one list per block and in the order of the file.
+ * The events look like the ones of the Spooling Directory source: the schema literal and
+ * the file name are set as headers and the body is the binary record.
+ */
+public final class AvroContainerReader implements Closeable {
+
+	/**
+	 * Receives the events of a block
+	 */
+	public interface Handler {
+		void handle(List<Event> events) throws IOException;
+	}
+
+	/**
+	 * Position of a data block in the file
+	 */
+	private static final class Block {
+		final long records;
+		final long offset;
+		final int length;
+
+		Block(long records, long offset, int length)
+		{
+			this.records = records;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	private final File file;
+	private final RandomAccessFile input;
+	private final FileChannel channel;
+	private final AvroContainerHeader header;
+	private final Map<String, String> headers = new HashMap<String, String>();
+
+	public AvroContainerReader(File file) throws IOException
+	{
+		this.file = file;
+		this.input = new RandomAccessFile(file, "r");
+		this.channel = input.getChannel();
+		try
+		{
+			this.header = AvroContainerHeader.read(channel);
+		} catch (IOException | RuntimeException e) {
+			input.close();
+			throw e;
+		}
+
+		String codec = header.Codec();
+		if (!codec.equals(DataFileConstants.NULL_CODEC) && !codec.equals(DataFileConstants.DEFLATE_CODEC)
+				&& !codec.equals(DataFileConstants.SNAPPY_CODEC))
+		{
+			input.close();
+			throw new IOException("Unsupported codec " + codec + " in " + file);
+		}
+
+		headers.put(SchemaCache.SCHEMA_LITERAL_HEADER, header.SchemaText());
+		headers.put(SchemaCache.FILE_HEADER, file.getPath());
+	}
+
+	public AvroContainerHeader getHeader()
+	{
+		return header;
+	}
+
+	/**
+	 * Reads all blocks of the file. At most 2 blocks per processor are decoded ahead of the Handler.
+	 *
+	 * @param handler
+	 * @return the number of events
+	 * @throws IOException
+	 */
+	public long read(Handler handler) throws IOException
+	{
+		int window = 2 * Runtime.getRuntime().availableProcessors();
+		ArrayDeque<Future<List<Event>>> pending = new ArrayDeque<Future<List<Event>>>();
+		long events = 0;
+
+		long position = header.Length();
+		long size = channel.size();
+		while (position < size || !pending.isEmpty())
+		{
+			if (position < size && pending.size() < window)
+			{
+				final Block block = nextBlock(position);
+				position = block.offset + block.length + DataFileConstants.SYNC_SIZE;
+				pending.add(ParallelBatch.submit(new Callable<List<Event>>() {
+					@Override
+					public List<Event> call() throws IOException {
+						return decode(block);
+					}
+				}));
+				continue;
+			}
+
+			List<Event> blockEvents = take(pending.poll());
+			events += blockEvents.size();
+			handler.handle(blockEvents);
+		}
+		return events;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		input.close();
+	}
+
+	/**
+	 * Reads the header of the block at the position and checks the sync marker at its end
+	 */
+	private Block nextBlock(long position) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(20);
+		channel.read(buffer, position);
+		buffer.flip();
+
+		long records = readLong(buffer);
+		long length = readLong(buffer);
+		long offset = position + buffer.position();
+		if (records < 0 || length < 0 || length > Integer.MAX_VALUE || offset + length + DataFileConstants.SYNC_SIZE > channel.size())
+		{
+			throw new IOException("Invalid block at " + position + " in " + file);
+		}
+
+		ByteBuffer sync = ByteBuffer.allocate(DataFileConstants.SYNC_SIZE);
+		channel.read(sync, offset + length);
+		if (!Arrays.equals(sync.array(), header.Sync()))
+		{
+			throw new IOException("Invalid sync marker at " + (offset + length) + " in " + file);
+		}
+		return new Block(records, offset, (int)length);
+	}
+
+	/**
+	 * Decompresses the block and splits it into the records
+	 */
+	private List<Event> decode(Block block) throws IOException
+	{
+		// Positional reads don't move the position of the channel, so that the blocks can be read in parallel
+		ByteBuffer buffer = ByteBuffer.allocate(block.length);
+		while (buffer.hasRemaining())
+		{
+			if (channel.read(buffer, block.offset + buffer.position()) < 0)
+			{
+				throw new IOException("Truncated block at " + block.offset + " in " + file);
+			}
+		}
+		byte[] data = decompress(buffer.array());
+
+		Schema schema = header.Schema();
+		ByteArrayInputStream in = new ByteArrayInputStream(data);
+		BinaryDecoder decoder = DecoderFactory.get().directBinaryDecoder(in, null);
+		List<Event> events = new ArrayList<Event>((int)block.records);
+		for (long i = 0; i < block.records; i++)
+		{
+			int start = data.length - in.available();
+			GenericDatumReader.skip(schema, decoder);
+			int end = data.length - in.available();
+
+			Event event = new SimpleEvent();
+			event.setHeaders(new HashMap<String, String>(headers));
+			event.setBody(Arrays.copyOfRange(data, start, end));
+			events.add(event);
+		}
+		return events;
+	}
+
+	private byte[] decompress(byte[] data) throws IOException
+	{
+		String codec = header.Codec();
+		if (codec.equals(DataFileConstants.DEFLATE_CODEC))
+		{
+			Inflater inflater = new Inflater(true);
+			try
+			{
+				inflater.setInput(data);
+				byte[] out = new byte[Math.max(1024, data.length * 4)];
+				int length = 0;
+				while (!inflater.finished())
+				{
+					if (length == out.length)
+					{
+						out = Arrays.copyOf(out, out.length * 2);
+					}
+					int n = inflater.inflate(out, length, out.length - length);
+					if (n == 0 && inflater.needsDictionary())
+					{
+						throw new IOException("Deflate block with preset dictionary in " + file);
+					}
+					if (n == 0 && inflater.needsInput())
+					{
+						// All data has been read, but the end of the deflate stream is missing
+						throw new IOException("Truncated deflate block in " + file);
+					}
+					length += n;
+				}
+				return Arrays.copyOf(out, length);
+			} catch (DataFormatException e) {
+				throw new IOException("Invalid deflate block in " + file, e);
+			} finally {
+				inflater.end();
+			}
+		}
+		else if (codec.equals(DataFileConstants.SNAPPY_CODEC))
+		{
+			// The block ends with the CRC32 of the uncompressed data
+			int length = data.length - 4;
+			byte[] out = new byte[Snappy.uncompressedLength(data, 0, length)];
+			Snappy.uncompress(data, 0, length, out, 0);
+
+			CRC32 crc = new CRC32();
+			crc.update(out, 0, out.length);
+			int expected = ((data[length] & 0xff) << 24) | ((data[length + 1] & 0xff) << 16)
+					| ((data[length + 2] & 0xff) << 8) | (data[length + 3] & 0xff);
+			if ((int)crc.getValue() != expected)
+			{
+				throw new IOException("Checksum failure of snappy block in " + file);
+			}
+			return out;
+		}
+		return data;
+	}
+
+	private List<Event> take(Future<List<Event>> future) throws IOException
+	{
+		try
+		{
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+			{
+				throw (IOException)e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Reads a zig-zag encoded variable length long
+	 */
+	private static long readLong(ByteBuffer buffer) throws IOException
+	{
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7)
+		{
+			if (!buffer.hasRemaining())
+			{
+				throw new IOException("Truncated block header");
+			}
+			int b = buffer.get() & 0xff;
+			value |= (long)(b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+			{
+				return (value >>> 1) ^ -(value & 1);
+			}
+		}
+		throw new IOException("Invalid block header");
+	}
+}
@@ -0,0 +1,442 @@
+package com.rsa.flume.serialization;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.commons.lang.time.FastDateFormat;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.event.SimpleEvent;
+import org.apache.flume.sink.elasticsearch.ElasticSearchEventSerializer;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Command line tool to replay Warehouse Connector Avro files into ElasticSearch bulk files.
+ *
+ * The files are read directly, without Flume, and processed in parallel, one file per thread.
+ * Each event is serialized by the FlumeAvroEventDeserializer, as the ElasticSearch sink would do,
+ * so the configuration, include / exclude, Geo-IP and time correction apply the same way.
+ * The decoder name is taken from the file name, if the event has no ng_source.
+ *
+ * For every Avro file a file with the same name and the extension .ndjson (or .ndjson.gz) is written.
+ * The file is written to a hidden temporary file first and renamed, once the Avro file has been processed,
+ * so a file, which couldn't be processed, leaves no partial bulk file.
+ * It holds an index action and the document for every event and can be loaded with the _bulk API:
+ *
+ * <pre>
+ * java -cp ... com.rsa.flume.serialization.Backfill -o /tmp/bulk -c ./conf -i flume -gzip /data/avro
+ * curl -H 'Content-Type: application/x-ndjson' --data-binary @sessions-warehouseconnector-1.avro.ndjson http://localhost:9200/_bulk
+ * </pre>
+ *
+ * The index name is built from the prefix and the day of the corrected event time, as with stampHeaders.
+ *
+ * With -blocks, large files are read with the AvroContainerReader, which decodes the blocks of a file
+ * in parallel. The events of a block are then serialized in parallel as well. The streaming encoder
+ * encodes the binary records, as they are stored in the blocks, so with it the files are always read this way.
+ */
+public final class Backfill {
+
+	private static final Logger logger = LoggerFactory.getLogger
+		      (Backfill.class);
+
+	private static final FastDateFormat indexDate = FastDateFormat.getInstance("yyyy-MM-dd", TimeZone.getTimeZone("Etc/UTC"));
+
+	private static final byte[] NEWLINE = { '\n' };
+
+	private final File outputDirectory;
+	private final String indexPrefix;
+	private final String indexType;
+	private final boolean gzip;
+	private final boolean streaming;
+	private boolean blocks = false;
+	private final FlumeAvroEventDeserializer serializer = new FlumeAvroEventDeserializer();
+
+	// Fields needed to get the event time, if the events are read as blocks
+	private static final Projection timeProjection = new Projection("ng_source", "time", "event_time", "device_type");
+
+	/**
+	 * Result of a single file
+	 */
+	public static final class Result {
+		public final File file;
+		public final long events;
+		public final long failed;
+
+		Result(File file, long events, long failed)
+		{
+			this.file = file;
+			this.events = events;
+			this.failed = failed;
+		}
+	}
+
+	/**
+	 * @param outputDirectory
+	 * @param indexPrefix
+	 * @param indexType
+	 * @param gzip compress the bulk files
+	 * @param encoder "generic" or "streaming"
+	 */
+	public Backfill(File outputDirectory, String indexPrefix, String indexType, boolean gzip, String encoder)
+	{
+		this.outputDirectory = outputDirectory;
+		this.indexPrefix = indexPrefix;
+		this.indexType = indexType;
+		this.gzip = gzip;
+		this.streaming = FlumeAvroEventDeserializer.ENCODER_STREAMING.equalsIgnoreCase(encoder);
+
+		Context context = new Context();
+		context.put(FlumeAvroEventDeserializer.ENCODER, encoder);
+		serializer.configure(context);
+	}
+
+	/**
+	 * Read the files with the AvroContainerReader, block by block. Always done with the streaming encoder
+	 * 
+	 * @param blocks
+	 */
+	public void setBlocks(boolean blocks)
+	{
+		this.blocks = blocks;
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		File output = new File(".");
+		String index = "flume";
+		String type = "logs";
+		String encoder = FlumeAvroEventDeserializer.ENCODER_GENERIC;
+		boolean gzip = false;
+		boolean blocks = false;
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<File> inputs = new ArrayList<File>();
+
+		for (int i = 0; i < args.length; i++)
+		{
+			String arg = args[i];
+			if (arg.equals("-o") && i + 1 < args.length) {
+				output = new File(args[++i]);
+			} else if (arg.equals("-c") && i + 1 < args.length) {
+				System.setProperty(Config.CONFIG_DIRECTORY_PROPERTY, args[++i]);
+			} else if (arg.equals("-i") && i + 1 < args.length) {
+				index = args[++i];
+			} else if (arg.equals("-t") && i + 1 < args.length) {
+				type = args[++i];
+			} else if (arg.equals("-e") && i + 1 < args.length) {
+				encoder = args[++i];
+			} else if (arg.equals("-threads") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (arg.equals("-gzip")) {
+				gzip = true;
+			} else if (arg.equals("-blocks")) {
+				blocks = true;
+			} else if (arg.startsWith("-")) {
+				usage();
+				return;
+			} else {
+				inputs.add(new File(arg));
+			}
+		}
+
+		List<File> files = findFiles(inputs);
+		if (files.isEmpty())
+		{
+			usage();
+			return;
+		}
+		if (!output.isDirectory() && !output.mkdirs())
+		{
+			System.err.println("Can't create output directory " + output);
+			System.exit(1);
+		}
+
+		Backfill backfill = new Backfill(output, index, type, gzip, encoder);
+		backfill.setBlocks(blocks);
+		long events = 0, failed = 0;
+		int failedFiles = 0;
+		for (Result result : backfill.run(files, threads))
+		{
+			if (result == null)
+			{
+				failedFiles++;
+				continue;
+			}
+			events += result.events;
+			failed += result.failed;
+		}
+		System.out.println("Files: " + files.size() + ", failed files: " + failedFiles
+				+ ", events: " + events + ", failed events: " + failed);
+		System.exit(failedFiles > 0 ? 1 : 0);
+	}
+
+	private static void usage()
+	{
+		System.err.println("Usage: Backfill [-o outputDir] [-c configDir] [-i indexPrefix] [-t indexType]"
+				+ " [-e generic|streaming] [-threads n] [-gzip] [-blocks] file|directory ...");
+	}
+
+	/**
+	 * @param inputs files and directories
+	 * @return the Avro files, directories are searched for *.avro and *.avro.COMPLETED files
+	 */
+	static List<File> findFiles(List<File> inputs)
+	{
+		List<File> files = new ArrayList<File>();
+		for (File input : inputs)
+		{
+			if (input.isDirectory())
+			{
+				File[] children = input.listFiles();
+				if (children == null)
+				{
+					continue;
+				}
+				Arrays.sort(children);
+				for (File child : children)
+				{
+					if (child.isFile() && (child.getName().endsWith(".avro") || child.getName().endsWith(".avro.COMPLETED")))
+					{
+						files.add(child);
+					}
+				}
+			}
+			else if (input.isFile())
+			{
+				files.add(input);
+			}
+			else
+			{
+				logger.warn("Skipping " + input + ". No such file or directory");
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Processes the files in parallel
+	 *
+	 * @param files
+	 * @param threads
+	 * @return the Results in the order of the files, null for files, which couldn't be processed
+	 * @throws InterruptedException
+	 */
+	public List<Result> run(List<File> files, int threads) throws InterruptedException
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+		try
+		{
+			List<Future<Result>> futures = new ArrayList<Future<Result>>();
+			for (final File file : files)
+			{
+				futures.add(executor.submit(new Callable<Result>() {
+					@Override
+					public Result call() throws IOException {
+						return process(file);
+					}
+				}));
+			}
+
+			List<Result> results = new ArrayList<Result>();
+			for (int i = 0; i < futures.size(); i++)
+			{
+				try
+				{
+					results.add(futures.get(i).get());
+				} catch (ExecutionException e) {
+					logger.error("Error processing " + files.get(i) + ": " + e.getCause());
+					results.add(null);
+				}
+			}
+			return results;
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Writes the bulk file for a single Avro file
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public Result process(File file) throws IOException
+	{
+		String name = file.getName() + (gzip ? ".ndjson.gz" : ".ndjson");
+		File target = new File(outputDirectory, name);
+		File temp = new File(outputDirectory, "." + name + ".tmp");
+		
+		Result result;
+		try
+		{
+			try (OutputStream out = open(temp))
+			{
+				// The streaming encoder needs the binary records of the blocks
+				result = blocks || streaming ? processBlocks(file, out) : processRecords(file, out);
+			}
+			Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally
+		{
+			// Nothing is left behind, if the file couldn't be processed
+			Files.deleteIfExists(temp.toPath());
+		}
+
+		logger.info("Wrote " + (result.events - result.failed) + " of " + result.events + " events of " + file + " to " + target);
+		return result;
+	}
+
+	private Result processRecords(File file, OutputStream out) throws IOException
+	{
+		long events = 0, failed = 0;
+
+		try (DataFileReader<GenericRecord> reader = new DataFileReader<GenericRecord>(file, new GenericDatumReader<GenericRecord>()))
+		{
+			Schema schema = reader.getSchema();
+			Config config = Config.getinstance();
+
+			// The events look like the ones of the Spooling Directory source. The records are serialized
+			// as decoded by the reader, the events only carry the headers.
+			Map<String, String> headers = new HashMap<String, String>();
+			headers.put(SchemaCache.SCHEMA_LITERAL_HEADER, schema.toString());
+			headers.put(SchemaCache.FILE_HEADER, file.getPath());
+
+			GenericRecord record = null;
+			while (reader.hasNext())
+			{
+				record = reader.next(record);
+				events++;
+
+				Event event = new SimpleEvent();
+				event.setHeaders(new HashMap<String, String>(headers));
+
+				try
+				{
+					byte[] document = encode(event, record, serializer.getDocument(event, record, config), config);
+					if (document == null)
+					{
+						logger.debug("Skipping event " + events + " of " + file + ". It couldn't be serialized");
+						failed++;
+						continue;
+					}
+					out.write(document);
+				} catch (RuntimeException | IOException e) {
+					logger.debug("Skipping event " + events + " of " + file + ": " + e.toString());
+					failed++;
+				}
+			}
+		}
+		return new Result(file, events, failed);
+	}
+
+	private Result processBlocks(final File file, final OutputStream out) throws IOException
+	{
+		final long[] failed = { 0 };
+		final Config config = Config.getinstance();
+
+		long events;
+		try (AvroContainerReader reader = new AvroContainerReader(file))
+		{
+			final Schema schema = reader.getHeader().Schema();
+			events = reader.read(new AvroContainerReader.Handler() {
+				@Override
+				public void handle(List<Event> events) throws IOException {
+					List<byte[]> documents;
+					try {
+						documents = ParallelBatch.map(events, new ParallelBatch.Task<Event, byte[]>() {
+							@Override
+							public byte[] apply(Event event) {
+								try
+								{
+									return encode(event, timeProjection.read(schema, event.getBody()), serializer.getDocument(event, config), config);
+								} catch (RuntimeException | IOException e) {
+									logger.debug("Skipping event of " + file + ": " + e.toString());
+									return null;
+								}
+							}
+						});
+					} catch (Exception e) {
+						throw new IOException(e);
+					}
+					
+					for (byte[] document : documents)
+					{
+						if (document == null)
+						{
+							failed[0]++;
+							continue;
+						}
+						out.write(document);
+					}
+				}
+			});
+		}
+		return new Result(file, events, failed[0]);
+	}
+
+	/**
+	 * @param event
+	 * @param record holding at least the fields needed for the TimeStamp
+	 * @param source the serialized event, null if it couldn't be serialized
+	 * @param config
+	 * @return the index action and the document, null if there is no document
+	 * @throws IOException
+	 */
+	private byte[] encode(Event event, GenericRecord record, XContentBuilder source, Config config) throws IOException
+	{
+		if (source == null)
+		{
+			return null;
+		}
+		long timestamp = CapturedFields.fromRecord(record, event, config).timestamp(config);
+
+		ByteArrayOutputStream document = new ByteArrayOutputStream(1024);
+		document.write(indexAction(timestamp));
+		source.bytes().writeTo(document);
+		document.write(NEWLINE);
+		return document.toByteArray();
+	}
+
+	private OutputStream open(File target) throws IOException
+	{
+		OutputStream out = new FileOutputStream(target);
+		if (gzip)
+		{
+			out = new GZIPOutputStream(out, 65536);
+		}
+		return new BufferedOutputStream(out, 65536);
+	}
+
+	private byte[] indexAction(long timestamp)
+	{
+		String action = "{\"index\":{\"_index\":\"" + indexPrefix + "-" + indexDate.format(timestamp)
+				+ "\",\"_type\":\"" + indexType + "\"}}\n";
+		return action.getBytes(ElasticSearchEventSerializer.charset);
+	}
+}
@@ -0,0 +1,118 @@
+package com.rsa.flume.serialization;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.flume.Channel;
+import org.apache.flume.ChannelException;
+import org.apache.flume.Event;
+import org.apache.flume.Transaction;
+import org.apache.flume.lifecycle.LifecycleState;
+import org.apache.flume.sink.elasticsearch.ElasticSearchSink;
+
+/**
+ * ElasticSearch sink, which serializes each transaction as a batch.
+ *
+ * The sink is configured as the ElasticSearch sink. With the BatchIndexRequestBuilderFactory as serializer,
+ * the events of a transaction are read from the channel at once and announced to the factory, which
+ * serializes them in parallel on the first request and hands out the requests in the order of the events.
+ * Transactions, bulk requests and counters are those of the ElasticSearch sink.
+ *
+ * The batch is announced on the thread, which calls take(). The ElasticSearch sink takes the events and
+ * asks the serializer for their requests in process() on the same thread.
+ */
+public class BatchElasticSearchSink extends ElasticSearchSink {
+
+	private BatchChannel batchChannel;
+
+	@Override
+	public synchronized Channel getChannel()
+	{
+		Channel channel = super.getChannel();
+		if (batchChannel == null || batchChannel.channel != channel)
+		{
+			batchChannel = new BatchChannel(channel, (int)getBatchSize());
+		}
+		return batchChannel;
+	}
+
+	/**
+	 * Channel, whose take() returns the events of a transaction read ahead from the actual channel
+	 */
+	private static final class BatchChannel implements Channel {
+
+		private final Channel channel;
+		private final int batchSize;
+
+		private List<Event> events;
+		private int next;
+
+		BatchChannel(Channel channel, int batchSize)
+		{
+			this.channel = channel;
+			this.batchSize = batchSize;
+		}
+
+		@Override
+		public Transaction getTransaction()
+		{
+			// The sink takes the events of a new transaction
+			events = null;
+			return channel.getTransaction();
+		}
+
+		@Override
+		public Event take() throws ChannelException
+		{
+			if (events == null)
+			{
+				events = new ArrayList<Event>(batchSize);
+				next = 0;
+				Event event;
+				while (events.size() < batchSize && (event = channel.take()) != null)
+				{
+					events.add(event);
+				}
+				// The sink asks the factory for the requests of these events on this thread
+				BatchIndexRequestBuilderFactory.startBatch(events);
+			}
+			return next < events.size() ? events.get(next++) : null;
+		}
+
+		@Override
+		public void put(Event event) throws ChannelException
+		{
+			channel.put(event);
+		}
+
+		@Override
+		public void start()
+		{
+			channel.start();
+		}
+
+		@Override
+		public void stop()
+		{
+			channel.stop();
+		}
+
+		@Override
+		public LifecycleState getLifecycleState()
+		{
+			return channel.getLifecycleState();
+		}
+
+		@Override
+		public void setName(String name)
+		{
+			channel.setName(name);
+		}
+
+		@Override
+		public String getName()
+		{
+			return channel.getName();
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package com.rsa.flume.serialization;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.apache.commons.lang.time.FastDateFormat;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.conf.ComponentConfiguration;
+import org.apache.flume.sink.elasticsearch.AbstractElasticSearchIndexRequestBuilderFactory;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Index Request Builder Factory, which uses the FlumeAvroEventDeserializer.
+ *
+ * Used as "serializer" of the ElasticSearch sink, it creates the index requests one event at a time,
+ * the same way the sink does with the deserializer. Used as serializer of the BatchElasticSearchSink, which reads
+ * the whole transaction before the sink asks for the first request, the events of the transaction are serialized
+ * in parallel on the first request and the requests are returned from that batch, in the order of the events.
+ *
+ * The batch is handed over in a ThreadLocal: startBatch() is called by the BatchChannel within the sink's
+ * getChannel().take(), and the sink asks for the requests of the taken events on the same thread. This is
+ * the only way a batch gets to the factory. An event, which isn't the next one of the batch of its thread,
+ * is serialized on its own.
+ *
+ * The serializer properties (e.g. encoder) are passed on to the deserializer.
+ */
+public class BatchIndexRequestBuilderFactory extends AbstractElasticSearchIndexRequestBuilderFactory {
+
+	private final FlumeAvroEventDeserializer serializer = new FlumeAvroEventDeserializer();
+
+	// The transaction read by the BatchElasticSearchSink on this thread, see startBatch()
+	private static final ThreadLocal<Batch> batches = new ThreadLocal<Batch>();
+
+	/**
+	 * Events of a transaction and their content builders, once serialized
+	 */
+	private static final class Batch {
+		final List<Event> events;
+		List<XContentBuilder> sources;
+		int next;
+
+		Batch(List<Event> events)
+		{
+			this.events = events;
+		}
+	}
+
+	public BatchIndexRequestBuilderFactory()
+	{
+		super(FastDateFormat.getInstance("yyyy-MM-dd", TimeZone.getTimeZone("Etc/UTC")));
+	}
+
+	@Override
+	public void configure(Context context) {
+		serializer.configure(context);
+	}
+
+	@Override
+	public void configure(ComponentConfiguration conf) {
+		serializer.configure(conf);
+	}
+
+	@Override
+	protected void prepareIndexRequest(IndexRequestBuilder indexRequest, String indexName, String indexType, Event event)
+			throws IOException {
+		indexRequest.setIndex(indexName)
+			.setType(indexType)
+			.setSource(getSource(event));
+	}
+
+	/**
+	 * Announces the events of a transaction, before they are passed to the sink one at a time on the same thread.
+	 * The first request for the batch serializes all its events in parallel. Called by the BatchElasticSearchSink only.
+	 *
+	 * @param events in the order, in which the requests will be created
+	 */
+	static void startBatch(List<Event> events)
+	{
+		if (events.isEmpty())
+		{
+			batches.remove();
+		}
+		else
+		{
+			batches.set(new Batch(events));
+		}
+	}
+
+	/**
+	 * @return the content builder of the announced batch, if the event is the next one of it.
+	 * Otherwise the event is serialized on its own.
+	 */
+	XContentBuilder getSource(Event event) throws IOException
+	{
+		Batch batch = batches.get();
+		if (batch == null || batch.events.get(batch.next) != event)
+		{
+			return serializer.getContentBuilder(event);
+		}
+		if (batch.sources == null)
+		{
+			batch.sources = serializer.getContentBuilders(batch.events);
+		}
+		XContentBuilder source = batch.sources.get(batch.next++);
+		if (batch.next == batch.events.size())
+		{
+			batches.remove();
+		}
+		return source;
+	}
+}
@@ -0,0 +1,98 @@
+package com.rsa.flume.serialization;
+
+import org.apache.avro.generic.GenericRecord;
+import org.apache.flume.Event;
+
+/**
+ * Values, which are captured while the fields of an event are written
+ * and which are needed afterwards for the locations, the TimeStamp and the Source.
+ */
+public final class CapturedFields {
+
+	public String decoderName = null;
+
+	// The plan used to write the fields
+	public FieldPlan plan = null;
+
+	// Geo-IP coordinates, NaN if not present
+	public double latSrc = Double.NaN;
+	public double latDst = Double.NaN;
+	public double longSrc = Double.NaN;
+	public double longDst = Double.NaN;
+
+	// Used for the event_time correction
+	public String deviceType = "";
+
+	public long time = 0L;
+	public long eventTime = 0L;
+
+	// Value of the "time" field, even if it is not included
+	public Object rawTime = null;
+
+	// Why the event couldn't be decoded, for the counters
+	public Exception decodeError = null;
+
+	/**
+	 * Captures the fields from a (projected) record, the same way as the FieldPlan of the Decoder does.
+	 * Only the fields needed for the decoder name and the TimeStamp are captured.
+	 * 
+	 * @param datum
+	 * @param event
+	 * @param config
+	 * @return
+	 */
+	public static CapturedFields fromRecord(GenericRecord datum, Event event, Config config)
+	{
+		CapturedFields captured = new CapturedFields();
+		captured.decoderName = FlumeAvroEventDeserializer.getDecoderName(datum.get("ng_source"), event);
+		captured.rawTime = datum.get("time");
+		
+		// Time fields and device_type are only taken into account, if they are included for the Decoder
+		Config.FieldFilter filter = config.FieldFilter(captured.decoderName);
+		Object value = datum.get("time");
+		if (value != null && filter.accept("time"))
+		{
+			captured.time = Long.parseLong(value.toString());
+		}
+		value = datum.get("event_time");
+		if (value != null && filter.accept("event_time"))
+		{
+			captured.eventTime = Long.parseLong(value.toString());
+		}
+		value = datum.get("device_type");
+		if (value != null && filter.accept("device_type"))
+		{
+			captured.deviceType = value.toString();
+		}
+		return captured;
+	}
+	
+	/**
+	 * Now let's get the TimeStamp
+	 * First we use event_time, if present, to get the "real" time, when the event occured
+	 * Then we use the Time, which was present in the event
+	 * If not, we use the Time of the Flume event
+	 * 
+	 * @param config
+	 * @return the TimeStamp in milliseconds
+	 */
+	public long timestamp(Config config)
+	{
+        Long timestamp = 0L;
+        if (eventTime > 0L) {
+        	int correction = 0;
+        	if (config.TimeCorrection().containsKey(deviceType))
+        	{
+        		correction = (int)config.TimeCorrection().get(deviceType);
+        	}       	
+        	timestamp = eventTime + ((long)correction * 3600L); // The Real Event Time and adjust by adding the time correction (negative time correction to be denoted in the xml)
+        } else if (time > 0L) {
+        	timestamp = time;      // The Capture time of the event
+        } else {
+        	timestamp = (Long)rawTime;
+        }
+        
+        // Convert to milliseconds
+        return timestamp * 1000L;
+	}
+}
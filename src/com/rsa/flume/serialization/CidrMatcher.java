@@ -0,0 +1,613 @@
+package com.rsa.flume.serialization;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.avro.util.Utf8;
+
+/**
+ * Checks, if an IPv4 or IPv6 address literal is part of a set of networks.
+ *
+ * The literals are parsed by hand, so that a check never touches the resolver
+ * (InetAddress.getByName falls back to DNS for anything, which is not a literal).
+ * The networks are kept as sorted, merged ranges, so that a check is a binary search
+ * on a few integers. IPv4-mapped IPv6 addresses (::ffff:a.b.c.d) are checked as IPv4.
+ *
+ * Networks are given in CIDR notation (e.g. 100.64.0.0/10) or by one of the names:
+ * RFC1918, SiteLocal, CGNAT, LinkLocal, ULA
+ */
+public final class CidrMatcher {
+
+	// What InetAddress.isSiteLocalAddress() treated as private
+	public static final String[] DEFAULT_NETWORKS = { "RFC1918", "SiteLocal" };
+
+	private static final long NO_ADDRESS = -1L;
+
+	// IPv4 ranges, sorted and merged
+	private final long[] v4Start;
+	private final long[] v4End;
+
+	// IPv6 ranges, sorted and merged. Each address consists of a high and a low part
+	private final long[] v6StartHi;
+	private final long[] v6StartLo;
+	private final long[] v6EndHi;
+	private final long[] v6EndLo;
+
+	private static final ThreadLocal<Parser> parsers = new ThreadLocal<Parser>() {
+		@Override
+		protected Parser initialValue() {
+			return new Parser();
+		}
+	};
+
+	private CidrMatcher(List<long[]> v4, List<long[]> v6)
+	{
+		v4 = merge(v4, false);
+		v4Start = new long[v4.size()];
+		v4End = new long[v4.size()];
+		for (int i = 0; i < v4.size(); i++)
+		{
+			v4Start[i] = v4.get(i)[0];
+			v4End[i] = v4.get(i)[1];
+		}
+
+		v6 = merge(v6, true);
+		v6StartHi = new long[v6.size()];
+		v6StartLo = new long[v6.size()];
+		v6EndHi = new long[v6.size()];
+		v6EndLo = new long[v6.size()];
+		for (int i = 0; i < v6.size(); i++)
+		{
+			v6StartHi[i] = v6.get(i)[0];
+			v6StartLo[i] = v6.get(i)[1];
+			v6EndHi[i] = v6.get(i)[2];
+			v6EndLo[i] = v6.get(i)[3];
+		}
+	}
+
+	/**
+	 * @return the matcher for the default private networks
+	 */
+	public static CidrMatcher defaults()
+	{
+		return compile(Arrays.asList(DEFAULT_NETWORKS));
+	}
+
+	/**
+	 * Compiles the networks.
+	 *
+	 * @param networks in CIDR notation or one of the network names
+	 * @return
+	 * @throws IllegalArgumentException for an invalid network
+	 */
+	public static CidrMatcher compile(List<String> networks)
+	{
+		List<long[]> v4 = new ArrayList<long[]>();
+		List<long[]> v6 = new ArrayList<long[]>();
+		for (String network : networks)
+		{
+			for (String cidr : expand(network.trim()))
+			{
+				addNetwork(cidr, v4, v6);
+			}
+		}
+		return new CidrMatcher(v4, v6);
+	}
+
+	private static String[] expand(String network)
+	{
+		if (network.equalsIgnoreCase("RFC1918"))
+		{
+			return new String[] { "10.0.0.0/8", "172.16.0.0/12", "192.168.0.0/16" };
+		}
+		else if (network.equalsIgnoreCase("SiteLocal"))
+		{
+			return new String[] { "fec0::/10" };
+		}
+		else if (network.equalsIgnoreCase("CGNAT"))
+		{
+			return new String[] { "100.64.0.0/10" };
+		}
+		else if (network.equalsIgnoreCase("LinkLocal"))
+		{
+			return new String[] { "169.254.0.0/16", "fe80::/10" };
+		}
+		else if (network.equalsIgnoreCase("ULA"))
+		{
+			return new String[] { "fc00::/7" };
+		}
+		return new String[] { network };
+	}
+
+	private static void addNetwork(String cidr, List<long[]> v4, List<long[]> v6)
+	{
+		int slash = cidr.indexOf('/');
+		String address = slash < 0 ? cidr : cidr.substring(0, slash);
+
+		Parser parser = new Parser();
+		int version = parser.parse(address);
+		if (version == 0)
+		{
+			throw new IllegalArgumentException("Invalid network: " + cidr);
+		}
+
+		int bits = version == 4 ? 32 : 128;
+		int prefix = bits;
+		if (slash >= 0)
+		{
+			try {
+				prefix = Integer.parseInt(cidr.substring(slash + 1).trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid network: " + cidr);
+			}
+			if (prefix < 0 || prefix > bits)
+			{
+				throw new IllegalArgumentException("Invalid network: " + cidr);
+			}
+		}
+
+		if (version == 4)
+		{
+			long hostMask = (1L << (32 - prefix)) - 1;
+			long start = parser.v4 & ~hostMask;
+			v4.add(new long[] { start, start | hostMask });
+		}
+		else
+		{
+			long hiMask = prefix >= 64 ? 0L : (prefix == 0 ? -1L : -1L >>> prefix);
+			long loMask = prefix <= 64 ? -1L : (prefix == 128 ? 0L : -1L >>> (prefix - 64));
+			v6.add(new long[] { parser.hi & ~hiMask, parser.lo & ~loMask, parser.hi | hiMask, parser.lo | loMask });
+		}
+	}
+
+	private static List<long[]> merge(List<long[]> ranges, final boolean v6)
+	{
+		List<long[]> sorted = new ArrayList<long[]>(ranges);
+		Collections.sort(sorted, new Comparator<long[]>() {
+			@Override
+			public int compare(long[] a, long[] b) {
+				if (v6 && a[0] != b[0])
+				{
+					return unsignedLess(a[0], b[0]) ? -1 : 1;
+				}
+				int index = v6 ? 1 : 0;
+				if (a[index] == b[index])
+				{
+					return 0;
+				}
+				return unsignedLess(a[index], b[index]) ? -1 : 1;
+			}
+		});
+
+		List<long[]> merged = new ArrayList<long[]>();
+		for (long[] range : sorted)
+		{
+			long[] previous = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+			if (previous != null && !v6 && range[0] <= previous[1] + 1)
+			{
+				previous[1] = Math.max(previous[1], range[1]);
+			}
+			else if (previous != null && v6 && !less128(previous[2], previous[3], range[0], range[1]))
+			{
+				// Overlapping CIDR blocks are always nested
+				if (less128(previous[2], previous[3], range[2], range[3]))
+				{
+					previous[2] = range[2];
+					previous[3] = range[3];
+				}
+			}
+			else
+			{
+				merged.add(range.clone());
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * Checks an address, as found in the Avro record (String or Utf8).
+	 *
+	 * @param address
+	 * @return true, if the address is a valid literal and part of one of the networks
+	 */
+	public boolean contains(Object address)
+	{
+		if (address == null)
+		{
+			return false;
+		}
+
+		Parser parser = parsers.get();
+		int version;
+		if (address instanceof Utf8)
+		{
+			Utf8 utf8 = (Utf8)address;
+			version = parser.parse(utf8.getBytes(), utf8.getByteLength());
+		}
+		else
+		{
+			version = parser.parse(address.toString());
+		}
+
+		if (version == 4)
+		{
+			return containsV4(parser.v4);
+		}
+		else if (version == 6)
+		{
+			return containsV6(parser.hi, parser.lo);
+		}
+		return false;
+	}
+
+	private boolean containsV4(long address)
+	{
+		int low = 0;
+		int high = v4Start.length - 1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			if (address < v4Start[mid])
+			{
+				high = mid - 1;
+			}
+			else if (address > v4End[mid])
+			{
+				low = mid + 1;
+			}
+			else
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean containsV6(long hi, long lo)
+	{
+		int low = 0;
+		int high = v6StartHi.length - 1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			if (less128(hi, lo, v6StartHi[mid], v6StartLo[mid]))
+			{
+				high = mid - 1;
+			}
+			else if (less128(v6EndHi[mid], v6EndLo[mid], hi, lo))
+			{
+				low = mid + 1;
+			}
+			else
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean unsignedLess(long a, long b)
+	{
+		return (a + Long.MIN_VALUE) < (b + Long.MIN_VALUE);
+	}
+
+	private static boolean less128(long aHi, long aLo, long bHi, long bLo)
+	{
+		if (aHi != bHi)
+		{
+			return unsignedLess(aHi, bHi);
+		}
+		return unsignedLess(aLo, bLo);
+	}
+
+	/**
+	 * The characters of an address literal, taken from a String or from ASCII bytes,
+	 * so that Utf8 values can be parsed without creating a String.
+	 */
+	private static final class Literal {
+		private String text;
+		private byte[] bytes;
+		private int length;
+
+		Literal reset(String text)
+		{
+			this.text = text;
+			this.bytes = null;
+			this.length = text.length();
+			return this;
+		}
+
+		Literal reset(byte[] bytes, int length)
+		{
+			this.text = null;
+			this.bytes = bytes;
+			this.length = length;
+			return this;
+		}
+
+		int length()
+		{
+			return length;
+		}
+
+		char charAt(int index)
+		{
+			if (text != null)
+			{
+				return text.charAt(index);
+			}
+			// Non ASCII characters are never part of an address literal
+			byte b = bytes[index];
+			return b < 0 ? '?' : (char)b;
+		}
+	}
+
+	/**
+	 * Parser for IPv4 and IPv6 address literals. The result is kept in the fields.
+	 */
+	private static final class Parser {
+		private final Literal literal = new Literal();
+		long v4;
+		long hi;
+		long lo;
+
+		/**
+		 * @return 4 or 6 for a valid literal of the version, 0 otherwise
+		 */
+		int parse(String address)
+		{
+			return parse(literal.reset(address));
+		}
+
+		/**
+		 * @return 4 or 6 for a valid literal of the version, 0 otherwise
+		 */
+		int parse(byte[] address, int length)
+		{
+			return parse(literal.reset(address, length));
+		}
+
+		private int parse(Literal s)
+		{
+			int start = 0;
+			int end = s.length();
+
+			// Brackets and zone index, as allowed by InetAddress
+			if (end >= 2 && s.charAt(0) == '[' && s.charAt(end - 1) == ']')
+			{
+				start++;
+				end--;
+			}
+			for (int i = start; i < end; i++)
+			{
+				if (s.charAt(i) == '%')
+				{
+					end = i;
+					break;
+				}
+			}
+
+			if (end - start < 2)
+			{
+				return 0;
+			}
+
+			for (int i = start; i < end; i++)
+			{
+				if (s.charAt(i) == ':')
+				{
+					return parseV6(s, start, end);
+				}
+			}
+
+			v4 = parseV4(s, start, end);
+			return v4 == NO_ADDRESS ? 0 : 4;
+		}
+
+		private static long parseV4(Literal s, int start, int end)
+		{
+			long address = 0;
+			int parts = 0;
+			int i = start;
+			while (i < end)
+			{
+				int value = 0;
+				int digits = 0;
+				while (i < end && s.charAt(i) >= '0' && s.charAt(i) <= '9')
+				{
+					value = value * 10 + (s.charAt(i) - '0');
+					digits++;
+					i++;
+					if (digits > 3)
+					{
+						return NO_ADDRESS;
+					}
+				}
+				if (digits == 0 || value > 255)
+				{
+					return NO_ADDRESS;
+				}
+				address = (address << 8) | value;
+				parts++;
+
+				if (i < end)
+				{
+					if (s.charAt(i) != '.' || parts == 4 || i == end - 1)
+					{
+						return NO_ADDRESS;
+					}
+					i++;
+				}
+			}
+			return parts == 4 ? address : NO_ADDRESS;
+		}
+
+		private int parseV6(Literal s, int start, int end)
+		{
+			// Groups before and after "::"
+			long headHi = 0, headLo = 0;
+			long tailHi = 0, tailLo = 0;
+			int headGroups = 0;
+			int tailGroups = 0;
+			boolean compressed = false;
+
+			int i = start;
+			if (s.charAt(i) == ':')
+			{
+				if (s.charAt(i + 1) != ':')
+				{
+					return 0;
+				}
+				compressed = true;
+				i += 2;
+			}
+
+			while (i < end)
+			{
+				// Embedded IPv4 address in the last 32 bits
+				int groupEnd = i;
+				boolean dotted = false;
+				while (groupEnd < end && s.charAt(groupEnd) != ':')
+				{
+					if (s.charAt(groupEnd) == '.')
+					{
+						dotted = true;
+					}
+					groupEnd++;
+				}
+
+				if (dotted)
+				{
+					if (groupEnd != end)
+					{
+						return 0;
+					}
+					long v4 = parseV4(s, i, end);
+					if (v4 == NO_ADDRESS)
+					{
+						return 0;
+					}
+					for (int g = 0; g < 2; g++)
+					{
+						int group = (int)((v4 >>> (16 - g * 16)) & 0xffff);
+						if (compressed)
+						{
+							tailHi = (tailHi << 16) | (tailLo >>> 48);
+							tailLo = (tailLo << 16) | group;
+							tailGroups++;
+						}
+						else
+						{
+							headHi = (headHi << 16) | (headLo >>> 48);
+							headLo = (headLo << 16) | group;
+							headGroups++;
+						}
+					}
+					i = end;
+					break;
+				}
+
+				int digits = groupEnd - i;
+				if (digits == 0 || digits > 4)
+				{
+					return 0;
+				}
+				int group = 0;
+				for (int k = i; k < groupEnd; k++)
+				{
+					int digit = Character.digit(s.charAt(k), 16);
+					if (digit < 0)
+					{
+						return 0;
+					}
+					group = (group << 4) | digit;
+				}
+
+				if (compressed)
+				{
+					tailHi = (tailHi << 16) | (tailLo >>> 48);
+					tailLo = (tailLo << 16) | group;
+					tailGroups++;
+				}
+				else
+				{
+					headHi = (headHi << 16) | (headLo >>> 48);
+					headLo = (headLo << 16) | group;
+					headGroups++;
+				}
+
+				i = groupEnd;
+				if (i < end)
+				{
+					// Skip the separator, "::" starts the compressed part
+					i++;
+					if (i < end && s.charAt(i) == ':')
+					{
+						if (compressed)
+						{
+							return 0;
+						}
+						compressed = true;
+						i++;
+					}
+					else if (i == end)
+					{
+						return 0;
+					}
+				}
+
+				if (headGroups + tailGroups > 8)
+				{
+					return 0;
+				}
+			}
+
+			int groups = headGroups + tailGroups;
+			if ((compressed && groups > 7) || (!compressed && groups != 8))
+			{
+				return 0;
+			}
+
+			// Shift the head groups to the top, the tail groups stay at the bottom
+			int shift = (8 - headGroups) * 16;
+			long shiftedHi, shiftedLo;
+			if (shift >= 128)
+			{
+				shiftedHi = 0;
+				shiftedLo = 0;
+			}
+			else if (shift >= 64)
+			{
+				shiftedHi = headLo << (shift - 64);
+				shiftedLo = 0;
+			}
+			else if (shift == 0)
+			{
+				shiftedHi = headHi;
+				shiftedLo = headLo;
+			}
+			else
+			{
+				shiftedHi = (headHi << shift) | (headLo >>> (64 - shift));
+				shiftedLo = headLo << shift;
+			}
+
+			long addressHi = shiftedHi | tailHi;
+			long addressLo = shiftedLo | tailLo;
+
+			// IPv4-mapped addresses are treated as IPv4, as InetAddress does
+			if (addressHi == 0 && (addressLo >>> 32) == 0xffffL)
+			{
+				v4 = addressLo & 0xffffffffL;
+				return 4;
+			}
+
+			hi = addressHi;
+			lo = addressLo;
+			return 6;
+		}
+	}
+}
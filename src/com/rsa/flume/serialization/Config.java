@@ -2,12 +2,19 @@ package com.rsa.flume.serialization;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -15,6 +22,7 @@ import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathFactory;
 
+import org.apache.avro.Schema;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
@@ -22,66 +30,193 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Configuration of the serializer and the interceptors, read from FlumeAvroEventDeserializer.xml
+ * and CountryMapping.csv in /opt/flume/conf, unless another directory is set as system property.
+ *
+ * A Config instance is an immutable snapshot. getinstance() returns the current snapshot without locking.
+ * When one of the files changes, the ConfigWatcher reads a new snapshot, compiles the Field Plans
+ * of the current snapshot again and then replaces it. Callers should get the snapshot once per
+ * event or batch and use it for all decisions about that event or batch.
+ */
 public final class Config {
 	
-	private final Logger logger = LoggerFactory.getLogger
+	private static final Logger logger = LoggerFactory.getLogger
 		      (Config.class);
 	
-	private static Config singleton = null;
+	// System property to use another configuration directory than /opt/flume/conf, e.g. for the Backfill tool
+	public static final String CONFIG_DIRECTORY_PROPERTY = "com.rsa.flume.serialization.conf";
+	
+	public static final String CONFIG_DIRECTORY = System.getProperty(CONFIG_DIRECTORY_PROPERTY, "/opt/flume/conf");
+	public static final String CONFIG_FILE = "FlumeAvroEventDeserializer.xml";
+	public static final String COUNTRY_MAP_FILE = "CountryMapping.csv";
+	
+	// The current snapshot
+	private static final AtomicReference<Config> current = new AtomicReference<Config>();
+	
 	private Boolean initialised = false;
 	private Boolean ignoreRFC1918 = false;
-	private String configFile = "/opt/flume/conf/FlumeAvroEventDeserializer.xml";
+	private final File directory;
 	private int kibanaVersion = 3;
+	
+	// Write numbers and booleans as JSON numbers and booleans instead of strings
+	private boolean typedValues = false;
+	
+	// Number of characters of the geohash written next to the locations, 0 for none
+	private int geoHashPrecision = 0;
 
-	// HashMap with Time Correction Information for Device Types
-	private static HashMap<String, Object> timeCorrection = new HashMap<String, Object>();
+	// Time Correction Information for Device Types
+	private Map<String, Object> timeCorrection = ImmutableMap.of();
 	
-	// HashMap with Meta fields, whose length need to be truncated
-	private static HashMap<String, Integer> truncateLength = new HashMap<String, Integer>();
+	// Meta fields, whose length need to be truncated
+	private Map<String, Integer> truncateLength = ImmutableMap.of();
 	
 	// Fields, which shall not be sent to elasticSearch
-	private static HashMap<String, List<String>> excludedFields = new HashMap<String, List<String>>();
+	private Map<String, Set<String>> excludedFields = ImmutableMap.of();
 
 	// Fields, which shall be sent to elasticSearch
-	private static HashMap<String, List<String>> includedFields = new HashMap<String, List<String>>();
+	private Map<String, Set<String>> includedFields = ImmutableMap.of();
+
+	// Include / Exclude rules resolved per Decoder
+	private final ConcurrentMap<String, FieldFilter> fieldFilters = new ConcurrentHashMap<String, FieldFilter>();
 
 	// Used to store Country Mapping between Netwitness and Kibana
-	private static HashMap<String, String> countryMap = new HashMap<String, String>();
+	private Map<String, String> countryMap = ImmutableMap.of();
+
+	// Fields with few distinct values, whose encoded values are cached
+	private Set<String> cachedFields = ImmutableSet.of("device_type", "country_src", "country_dst", "service", "direction");
+	private int valueCacheSize = ValueCache.DEFAULT_SIZE;
+	
+	// Value Caches per field
+	private final ConcurrentMap<String, ValueCache> valueCaches = new ConcurrentHashMap<String, ValueCache>();
+
+	// Networks, which are dropped, when RFC 1918 addresses shall be ignored
+	private CidrMatcher privateNetworks = CidrMatcher.defaults();
 	
-	private Config()
+	// Expressions of the sessions, which are dropped by the FlumeFilterInterceptor, null if there are none
+	private EventFilter eventFilter = null;
+	
+	// Compiled Field Plans per Schema and Decoder. Schemas are compared by identity
+	private final Cache<Schema, ConcurrentMap<String, FieldPlan>> fieldPlans = CacheBuilder.newBuilder()
+			.weakKeys()
+			.build();
+	
+	private Config(File directory)
 	{
-		if (!initialised)
+		this.directory = directory;
+		logger.info("Reading Configuration");
+		ReadConfig();
+		logger.info("Finished Reading Configuration");
+	}
+	
+	/**
+	 * The first snapshot is published, even if the files couldn't be read, with the defaults
+	 * for the settings, which haven't been read.
+	 * 
+	 * @return the current snapshot of the configuration
+	 */
+	public static Config getinstance()
+	{
+		Config config = current.get();
+		if (config == null)
 		{
-			logger.info("Reading Configuration");
-			ReadConfig();
-			logger.info("Finished Reading Configuration");
+			synchronized (Config.class)
+			{
+				config = current.get();
+				if (config == null)
+				{
+					config = new Config(new File(CONFIG_DIRECTORY));
+					if (!config.initialised)
+					{
+						// There is no snapshot to keep, unlike in reload()
+						logger.error("Couldn't read the Configuration in " + CONFIG_DIRECTORY
+								+ ". Using the defaults for the settings, which haven't been read, until the files are changed");
+					}
+					current.set(config);
+					ConfigWatcher.start(new File(CONFIG_DIRECTORY), CONFIG_FILE, COUNTRY_MAP_FILE);
+				}
+			}
 		}
+		return config;
 	}
 	
-	public static Config getinstance()
+	/**
+	 * Reads the configuration files again and replaces the current snapshot.
+	 * The Field Plans known to the current snapshot are compiled for the new one before it is published.
+	 * If the configuration can't be read, the current snapshot is kept.
+	 * 
+	 * @return true, if the snapshot has been replaced
+	 */
+	public static boolean reload()
 	{
-		if (singleton == null)
+		Config config = new Config(new File(CONFIG_DIRECTORY));
+		if (!config.initialised)
 		{
-			singleton = new Config();
+			logger.error("Keeping the current Configuration");
+			return false;
 		}
-		return singleton;
+		
+		Config previous = current.get();
+		if (previous != null)
+		{
+			int plans = 0;
+			for (Map.Entry<Schema, ConcurrentMap<String, FieldPlan>> entry : previous.fieldPlans.asMap().entrySet())
+			{
+				for (String decoderName : entry.getValue().keySet())
+				{
+					config.FieldPlan(entry.getKey(), decoderName);
+					plans++;
+				}
+			}
+			logger.info("Compiled " + plans + " Field Plans for the new Configuration");
+		}
+		
+		current.set(config);
+		return true;
+	}
+	
+	/**
+	 * Reads a snapshot from another directory, without publishing it. Used by the tests
+	 * 
+	 * @param directory containing FlumeAvroEventDeserializer.xml and CountryMapping.csv
+	 * @return the snapshot, as far as it could be read
+	 */
+	static Config read(File directory)
+	{
+		return new Config(directory);
 	}
 	
 	public Boolean IgnoreRFC1918() {
 		return ignoreRFC1918;
 	}
 
-	public HashMap<String, Object> TimeCorrection()
+	public CidrMatcher PrivateNetworks() {
+		return privateNetworks;
+	}
+
+	/**
+	 * @return the compiled Filter expressions or null, if no sessions shall be dropped
+	 */
+	public EventFilter EventFilter() {
+		return eventFilter;
+	}
+
+	public Map<String, Object> TimeCorrection()
 	{
 		return timeCorrection;
 	}
 	
-	public HashMap<String, Integer> TruncateLength()
+	public Map<String, Integer> TruncateLength()
 	{
 		return truncateLength;
 	}
 	
-	public List<String> ExcludedFields(String decoderName)
+	public Set<String> ExcludedFields(String decoderName)
 	{
 		// If we don't find the decoderName in the list, we might have a condition for all decoders
 		if (!excludedFields.containsKey(decoderName))
@@ -89,11 +224,11 @@ public final class Config {
 			decoderName = "*";
 		}
 		
-		ArrayList<String> fields = (ArrayList<String>)excludedFields.get(decoderName);
-		return fields;
+		Set<String> fields = excludedFields.get(decoderName);
+		return fields == null ? ImmutableSet.<String>of() : fields;
 	}
 
-	public List<String> IncludedFields(String decoderName)
+	public Set<String> IncludedFields(String decoderName)
 	{
 		// If we don't find the decoderName in the list, we might have a condition for all decoders
 		if (!includedFields.containsKey(decoderName))
@@ -101,25 +236,129 @@ public final class Config {
 			decoderName = "*";
 		}
 		
-		ArrayList<String> fields = (ArrayList<String>)includedFields.get(decoderName);
-		return fields;
+		Set<String> fields = includedFields.get(decoderName);
+		return fields == null ? ImmutableSet.<String>of() : fields;
+	}
+	
+	/**
+	 * Returns the Include / Exclude rules for the Decoder.
+	 * The fallback to the rules for all decoders ("*") is only resolved once per Decoder.
+	 * 
+	 * @param decoderName
+	 * @return
+	 */
+	public FieldFilter FieldFilter(String decoderName)
+	{
+		FieldFilter filter = fieldFilters.get(decoderName);
+		if (filter == null)
+		{
+			filter = new FieldFilter(ExcludedFields(decoderName), IncludedFields(decoderName));
+			FieldFilter existing = fieldFilters.putIfAbsent(decoderName, filter);
+			if (existing != null)
+			{
+				filter = existing;
+			}
+		}
+		return filter;
 	}
 
+	/**
+	 * Returns the Value Cache of a field. The cache belongs to this snapshot,
+	 * as the cached values depend on the Country Mapping and truncation.
+	 * 
+	 * @param field
+	 * @return the cache or null, if the values of the field are not cached
+	 */
+	public ValueCache ValueCache(String field)
+	{
+		if (!cachedFields.contains(field))
+		{
+			return null;
+		}
+		
+		ValueCache cache = valueCaches.get(field);
+		if (cache == null)
+		{
+			cache = new ValueCache(field, valueCacheSize);
+			ValueCache existing = valueCaches.putIfAbsent(field, cache);
+			if (existing != null)
+			{
+				cache = existing;
+			}
+		}
+		return cache;
+	}
+	
 	public int KibanaVersion()
 	{
 		return kibanaVersion;
 	}
 	
-	public HashMap<String, String> CountryMap()
+	/**
+	 * @return true, if numeric and boolean fields are written as JSON numbers and booleans
+	 */
+	public boolean TypedValues()
+	{
+		return typedValues;
+	}
+	
+	/**
+	 * @return the precision of the geohash of the locations, 0 if no geohash shall be written
+	 */
+	public int GeoHashPrecision()
+	{
+		return geoHashPrecision;
+	}
+	
+	public Map<String, String> CountryMap()
 	{
 		return countryMap;
 	}
 	
+	/**
+	 * Returns the compiled Field Plan for the Schema and Decoder.
+	 * The plan is compiled on first use and then reused for all events of the pair.
+	 * 
+	 * @param schema
+	 * @param decoderName
+	 * @return
+	 */
+	public FieldPlan FieldPlan(Schema schema, String decoderName)
+	{
+		ConcurrentMap<String, FieldPlan> plans;
+		try {
+			plans = fieldPlans.get(schema, new Callable<ConcurrentMap<String, FieldPlan>>() {
+				@Override
+				public ConcurrentMap<String, FieldPlan> call() {
+					return new ConcurrentHashMap<String, FieldPlan>();
+				}
+			});
+		} catch (ExecutionException e) {
+			return FieldPlan.compile(schema, decoderName, this);
+		}
+		
+		FieldPlan plan = plans.get(decoderName);
+		if (plan == null)
+		{
+			plan = FieldPlan.compile(schema, decoderName, this);
+			FieldPlan existing = plans.putIfAbsent(decoderName, plan);
+			if (existing != null)
+			{
+				plan = existing;
+			}
+		}
+		return plan;
+	}
+	
 	private void ReadConfig()
 	  {
+		  Map<String, Set<String>> excludedFields = new HashMap<String, Set<String>>();
+		  Map<String, Set<String>> includedFields = new HashMap<String, Set<String>>();
+		  Map<String, Object> timeCorrection = new HashMap<String, Object>();
+		  Map<String, Integer> truncateLength = new HashMap<String, Integer>();
 		  try {
 
-				File fields = new File(configFile);
+				File fields = new File(directory, CONFIG_FILE);
 				DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
 				DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
 				Document doc = dBuilder.parse(fields);
@@ -135,21 +374,17 @@ public final class Config {
 					Element node = (Element) nodes.item(i);
 					String[] decoderNames = node.getAttribute("Decoder").split(",");
 					
-					for (int k = 0; k < decoderNames.length; k++)
-					{
-						excludedFields.put(decoderNames[k], new ArrayList<String>());
-					}
-								
+					Set<String> fieldList = new HashSet<String>();
 					NodeList fieldNodes = node.getElementsByTagName("Field");
 					for (int j = 0; j < fieldNodes.getLength(); j++)
 					{
-						for (int k = 0; k < decoderNames.length; k++)
-						{
-							Element childNode = (Element)fieldNodes.item(j);
-							ArrayList<String> fieldList = (ArrayList<String>)excludedFields.get(decoderNames[k]);
-							fieldList.add(childNode.getFirstChild().getNodeValue().toString());
-							excludedFields.put(decoderNames[k], fieldList);
-						}
+						Element childNode = (Element)fieldNodes.item(j);
+						fieldList.add(childNode.getFirstChild().getNodeValue().toString());
+					}
+					
+					for (int k = 0; k < decoderNames.length; k++)
+					{
+						excludedFields.put(decoderNames[k], ImmutableSet.copyOf(fieldList));
 					}
 				}
 
@@ -163,34 +398,26 @@ public final class Config {
 					String[] decoderNames = node.getAttribute("Decoder").split(",");
 					String includeAllFields = node.getAttribute("IncludeAllFields");
 					
-					// Decoder Names can be specified as pairs separated by commas
-					for (int k = 0; k < decoderNames.length; k++)
-					{
-						includedFields.put(decoderNames[k], new ArrayList<String>());
-						if (includeAllFields.equals("1"))
-						{
-							ArrayList<String> fieldList = (ArrayList<String>)includedFields.get(decoderNames[k]);
-							fieldList.add("*");
-							includedFields.put(decoderNames[k], fieldList);
-						}
-					}
-					
+					Set<String> fieldList = new HashSet<String>();
 					if (includeAllFields.equals("1"))
 					{
-						continue;
+						fieldList.add("*");
 					}
-					
-					NodeList fieldNodes = node.getElementsByTagName("Field");
-					for (int j = 0; j < fieldNodes.getLength(); j++)
+					else
 					{
-						for (int k = 0; k < decoderNames.length; k++)
+						NodeList fieldNodes = node.getElementsByTagName("Field");
+						for (int j = 0; j < fieldNodes.getLength(); j++)
 						{
 							Element childNode = (Element)fieldNodes.item(j);
-							ArrayList<String> fieldList = (ArrayList<String>)includedFields.get(decoderNames[k]);
 							fieldList.add(childNode.getFirstChild().getNodeValue().toString());
-							includedFields.put(decoderNames[k], fieldList);
 						}
 					}
+					
+					// Decoder Names can be specified as pairs separated by commas
+					for (int k = 0; k < decoderNames.length; k++)
+					{
+						includedFields.put(decoderNames[k], ImmutableSet.copyOf(fieldList));
+					}
 				}			
 				
 				// Get the list of devices, for which time correction shall be applied
@@ -232,6 +459,77 @@ public final class Config {
 					ignoreRFC1918 = true;
 				}
 				
+				// Get the networks, which are treated as private. Defaults to RFC 1918
+				nodes = (NodeList)xPath.evaluate("/configuration/PrivateNetworks/Network",
+				        doc.getDocumentElement(), XPathConstants.NODESET);
+				
+				if (nodes.getLength() > 0)
+				{
+					List<String> networks = new ArrayList<String>();
+					for (int i = 0; i < nodes.getLength(); i++) 
+					{
+						networks.add(nodes.item(i).getTextContent());
+					}
+					privateNetworks = CidrMatcher.compile(networks);
+					logger.info("Private networks: " + networks);
+				}
+				
+				// Get the expressions of the sessions, which shall be dropped
+				nodes = (NodeList)xPath.evaluate("/configuration/Filter",
+				        doc.getDocumentElement(), XPathConstants.NODESET);
+				
+				if (nodes.getLength() > 0)
+				{
+					List<Element> filters = new ArrayList<Element>();
+					for (int i = 0; i < nodes.getLength(); i++) 
+					{
+						filters.add((Element)nodes.item(i));
+					}
+					eventFilter = EventFilter.compile(filters);
+					logger.info("Dropping sessions matching " + eventFilter);
+				}
+				
+				// Get the fields, whose values are cached. Defaults to device_type, the countries, service and direction
+				Element valueCache = (Element)xPath.evaluate("/configuration/ValueCache",
+				        doc.getDocumentElement(), XPathConstants.NODE);
+				
+				if (valueCache != null)
+				{
+					if (!valueCache.getAttribute("size").isEmpty())
+					{
+						valueCacheSize = Integer.parseInt(valueCache.getAttribute("size"));
+					}
+					Set<String> fieldList = new HashSet<String>();
+					NodeList fieldNodes = valueCache.getElementsByTagName("Field");
+					for (int j = 0; j < fieldNodes.getLength(); j++)
+					{
+						fieldList.add(fieldNodes.item(j).getTextContent());
+					}
+					cachedFields = ImmutableSet.copyOf(fieldList);
+					logger.info("Caching values of " + cachedFields);
+				}
+				
+				// Get the encoding of the values: "text" (default) or "typed"
+				if (xPath.evaluate("/configuration/ValueEncoding/text()", doc.getDocumentElement()).trim().equalsIgnoreCase("typed"))
+				{
+					logger.info("Writing numeric and boolean fields typed");
+					typedValues = true;
+				}
+				
+				// Get the precision of the geohash written next to the locations
+				Element geoHash = (Element)xPath.evaluate("/configuration/GeoHash",
+				        doc.getDocumentElement(), XPathConstants.NODE);
+				
+				if (geoHash != null)
+				{
+					geoHashPrecision = GeoHash.DEFAULT_PRECISION;
+					if (!geoHash.getAttribute("precision").isEmpty())
+					{
+						geoHashPrecision = Math.max(0, Math.min(Integer.parseInt(geoHash.getAttribute("precision")), GeoHash.MAX_PRECISION));
+					}
+					logger.info("Adding geohash with precision " + geoHashPrecision + " to the locations");
+				}
+				
 				kibanaVersion = Integer.parseInt(xPath.evaluate("/configuration/KibanaVersion/text()", doc.getDocumentElement())); 
 				
 				ReadCountryMap();
@@ -239,49 +537,93 @@ public final class Config {
 				initialised = true;
 				
 			} catch (Exception ex) {
-				logger.error("Error reading Config: " + ex.getMessage());
+				logger.error("Error reading Config: " + ex.getMessage(), ex);
+			} finally {
+				// Whatever has been read so far is used
+				this.excludedFields = ImmutableMap.copyOf(excludedFields);
+				this.includedFields = ImmutableMap.copyOf(includedFields);
+				this.timeCorrection = ImmutableMap.copyOf(timeCorrection);
+				this.truncateLength = ImmutableMap.copyOf(truncateLength);
 			}
 	  }
 	
-	private void ReadCountryMap()
+	/**
+	 * Reads the Netwitness to Kibana country names, one "netwitness;kibana" pair per line.
+	 * Without the file no countries are mapped.
+	 * 
+	 * @throws IOException if the file can't be read or a line is malformed, so that the snapshot isn't used
+	 */
+	private void ReadCountryMap() throws IOException
 	{
-		String countryMapFile = "/opt/flume/conf/CountryMapping.csv";
-		BufferedReader br = null;
-		String line = "";
+		File countryMapFile = new File(directory, COUNTRY_MAP_FILE);
+		Map<String, String> countryMap = new HashMap<String, String>();
 		String cvsSplitBy = ";";
 		int i = 0;
 
-		try
+		if (!countryMapFile.exists())
+		{
+			logger.warn("No Country Mapping file " + countryMapFile + ". Countries are not mapped");
+			this.countryMap = ImmutableMap.of();
+			return;
+		}
+
+		try (BufferedReader br = new BufferedReader(new FileReader(countryMapFile)))
 		{
-			br = new BufferedReader(new FileReader(countryMapFile));
 			logger.info("Reading Netwitness to Kibana Country Mapping file.");
+			String line;
+			int lineNumber = 0;
 			while ((line = br.readLine()) != null)
 			{
-				i++;
+				lineNumber++;
+				if (line.trim().isEmpty())
+				{
+					continue;
+				}
 				String[] countries = line.split(cvsSplitBy);
+				if (countries.length < 2)
+				{
+					throw new IOException("Malformed line " + lineNumber + " in " + countryMapFile + ": " + line);
+				}
 				countryMap.put(countries[0], countries[1]);
+				i++;
 			}
+			logger.info("Found " + i + " mapped countries.");
 		}
-		catch (FileNotFoundException e) {
-		} 
-		catch (IOException e) {
-			e.printStackTrace();
-		}
-		catch (Exception e)
+		this.countryMap = ImmutableMap.copyOf(countryMap);
+	}
+	
+	/**
+	 * Compiled Include / Exclude rules of a Decoder
+	 */
+	public static final class FieldFilter
+	{
+		private final Set<String> excluded;
+		private final Set<String> included;
+		private final boolean includeAll;
+		
+		FieldFilter(Set<String> excluded, Set<String> included)
 		{
-			e.printStackTrace();
+			this.excluded = excluded;
+			this.included = included;
+			this.includeAll = included.contains("*");
 		}
-		finally {
-			if (br != null) {
-				try 
-				{
-					br.close();
-					logger.info("Found " + i + " mapped countries.");
-				}
-				catch (IOException e) {
-					e.printStackTrace();
-				}
+		
+		/**
+		 * Shall the field be sent to elasticSearch?
+		 * 
+		 * @param field
+		 * @return
+		 */
+		public boolean accept(String field)
+		{
+			// Do we need to ignore the field?
+			if (excluded.contains(field))
+			{
+				return false;
 			}
+			
+			// Do we need to include the field?
+			return includeAll || included.contains(field);
 		}
 	}
 }
@@ -0,0 +1,183 @@
+package com.rsa.flume.serialization;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the configuration directory and reloads the Config, when one of the configuration files changes.
+ *
+ * Editors and deployment tools often write a file in several steps. Changes are therefore collected
+ * until the directory has been quiet for a moment, before the Config is read again.
+ * The reload runs on the watcher thread, never on a thread processing events.
+ */
+public final class ConfigWatcher implements Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger
+		      (ConfigWatcher.class);
+
+	// Time without further changes, before the configuration is read again
+	private static final long QUIET_MILLIS = 500L;
+
+	// How often the directory is registered again, after it has been removed, before the watcher stops
+	private static final int REGISTER_ATTEMPTS = 20;
+
+	private static Thread thread = null;
+
+	private final WatchService watchService;
+	private final Path directory;
+	private final Set<Path> files;
+
+	// false, once the directory can't be watched anymore
+	private boolean watching = true;
+
+	private ConfigWatcher(WatchService watchService, Path directory, Set<Path> files)
+	{
+		this.watchService = watchService;
+		this.directory = directory;
+		this.files = files;
+	}
+
+	/**
+	 * Starts watching the files in the directory, unless the watcher is running already.
+	 *
+	 * @param directory
+	 * @param fileNames
+	 */
+	public static synchronized void start(File directory, String... fileNames)
+	{
+		if (thread != null)
+		{
+			return;
+		}
+		if (!directory.isDirectory())
+		{
+			logger.warn("Configuration directory " + directory + " doesn't exist. Configuration changes are not picked up");
+			return;
+		}
+
+		Set<Path> files = new HashSet<Path>();
+		for (String fileName : Arrays.asList(fileNames))
+		{
+			files.add(FileSystems.getDefault().getPath(fileName));
+		}
+
+		try
+		{
+			WatchService watchService = FileSystems.getDefault().newWatchService();
+			register(watchService, directory.toPath());
+
+			thread = new Thread(new ConfigWatcher(watchService, directory.toPath(), files), "FlumeAvro-ConfigWatcher");
+			thread.setDaemon(true);
+			thread.start();
+			logger.info("Watching " + directory + " for configuration changes");
+		} catch (IOException e) {
+			logger.error("Couldn't watch the configuration directory: " + e.getMessage());
+		}
+	}
+
+	@Override
+	public void run()
+	{
+		try
+		{
+			while (watching)
+			{
+				WatchKey key = watchService.take();
+				boolean changed = collect(key);
+
+				// Wait until the files have been written completely
+				while (changed && (key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null)
+				{
+					collect(key);
+				}
+
+				if (changed)
+				{
+					logger.info("Configuration changed. Reloading");
+					Config.reload();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException e) {
+		}
+
+		try
+		{
+			watchService.close();
+		} catch (IOException e) {
+			logger.warn("Couldn't close the watch service: " + e.getMessage());
+		}
+	}
+
+	private static void register(WatchService watchService, Path directory) throws IOException
+	{
+		directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+	}
+
+	/**
+	 * Registers the directory again, after its key has become invalid, e.g. because the directory
+	 * has been removed and is created again by a deployment tool. Stops watching, if it doesn't come back.
+	 *
+	 * @return true, if the directory is watched again
+	 */
+	private boolean registerAgain() throws InterruptedException
+	{
+		logger.warn("Configuration directory " + directory + " is no longer watched. Registering it again");
+		for (int attempt = 1; attempt <= REGISTER_ATTEMPTS; attempt++)
+		{
+			try
+			{
+				register(watchService, directory);
+				logger.info("Watching " + directory + " for configuration changes again");
+				return true;
+			} catch (IOException e) {
+				if (attempt == REGISTER_ATTEMPTS)
+				{
+					logger.error("Couldn't watch the configuration directory again: " + e.getMessage()
+							+ ". Configuration changes are not picked up");
+				}
+			}
+			Thread.sleep(QUIET_MILLIS);
+		}
+		watching = false;
+		return false;
+	}
+
+	/**
+	 * @param key
+	 * @return true, if one of the configuration files has changed
+	 */
+	private boolean collect(WatchKey key) throws InterruptedException
+	{
+		boolean changed = false;
+		for (WatchEvent<?> event : key.pollEvents())
+		{
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW || files.contains(event.context()))
+			{
+				changed = true;
+			}
+		}
+		if (!key.reset())
+		{
+			// The files of a directory created again are read, as they may have changed meanwhile
+			changed = registerAgain();
+		}
+		return changed;
+	}
+}
@@ -0,0 +1,11 @@
+package com.rsa.flume.serialization;
+
+/**
+ * JMX attributes, which every Flume counter group has
+ */
+public interface CounterGroupMBean {
+
+	long getStartTime();
+	long getStopTime();
+	String getType();
+}
@@ -0,0 +1,75 @@
+package com.rsa.flume.serialization;
+
+import org.apache.flume.instrumentation.MonitoredCounterGroup;
+
+/**
+ * Counters of the FlumeDedupInterceptor, published as Flume counter group
+ * "org.apache.flume.interceptor:type=name".
+ * Unkeyed events miss one of the key fields or couldn't be decoded and are passed on.
+ * Redelivered events have been part of the last batch, which is delivered again, and are passed on.
+ */
+public class DedupCounter extends EventCounter implements DedupCounterMBean {
+
+	private static final String COUNTER_SUPPRESSED = "dedup.suppressed";
+	private static final String COUNTER_UNKEYED = "dedup.unkeyed";
+	private static final String COUNTER_REDELIVERED = "dedup.redelivered";
+
+	private final RotatingBloomFilter filter;
+
+	public DedupCounter(String name, RotatingBloomFilter filter)
+	{
+		super(MonitoredCounterGroup.Type.INTERCEPTOR, name, "dedup", COUNTER_SUPPRESSED, COUNTER_UNKEYED, COUNTER_REDELIVERED);
+		this.filter = filter;
+	}
+
+	public long incrementSuppressed()
+	{
+		return increment(COUNTER_SUPPRESSED);
+	}
+
+	public long incrementUnkeyed()
+	{
+		return increment(COUNTER_UNKEYED);
+	}
+
+	public long incrementRedelivered()
+	{
+		return increment(COUNTER_REDELIVERED);
+	}
+
+	@Override
+	public long getSuppressed()
+	{
+		return get(COUNTER_SUPPRESSED);
+	}
+
+	@Override
+	public long getUnkeyed()
+	{
+		return get(COUNTER_UNKEYED);
+	}
+
+	@Override
+	public long getRedelivered()
+	{
+		return get(COUNTER_REDELIVERED);
+	}
+
+	@Override
+	public long getRotations()
+	{
+		return filter.Rotations();
+	}
+
+	@Override
+	public double getFalsePositiveRate()
+	{
+		return filter.FalsePositiveRate();
+	}
+
+	@Override
+	public double getCurrentFalsePositiveRate()
+	{
+		return filter.CurrentFalsePositiveRate();
+	}
+}
@@ -0,0 +1,15 @@
+package com.rsa.flume.serialization;
+
+/**
+ * JMX attributes of the FlumeDedupInterceptor
+ */
+public interface DedupCounterMBean extends EventCounterMBean {
+
+	long getSuppressed();
+	long getUnkeyed();
+	long getRedelivered();
+	long getRotations();
+
+	double getFalsePositiveRate();
+	double getCurrentFalsePositiveRate();
+}
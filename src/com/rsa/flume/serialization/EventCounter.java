@@ -0,0 +1,88 @@
+package com.rsa.flume.serialization;
+
+import org.apache.flume.instrumentation.MonitoredCounterGroup;
+
+/**
+ * Counter group of the serializer and the interceptors.
+ *
+ * Every group counts the events in and out, the events without schema and the events, which
+ * couldn't be decoded. The keys of these counters start with the prefix of the group,
+ * e.g. "dedup.events.in". Subclasses add their own counters.
+ */
+public abstract class EventCounter extends MonitoredCounterGroup implements EventCounterMBean {
+
+	private final String eventsIn;
+	private final String eventsOut;
+	private final String schemaFailures;
+	private final String decodeErrors;
+
+	/**
+	 * @param type
+	 * @param name of the group, e.g. "FlumeDedupInterceptor-1"
+	 * @param prefix of the counter keys
+	 * @param attributes the keys of the counters of the subclass
+	 */
+	protected EventCounter(MonitoredCounterGroup.Type type, String name, String prefix, String... attributes)
+	{
+		super(type, name, keys(prefix, attributes));
+		this.eventsIn = prefix + ".events.in";
+		this.eventsOut = prefix + ".events.out";
+		this.schemaFailures = prefix + ".schema.failures";
+		this.decodeErrors = prefix + ".decode.errors";
+	}
+
+	private static String[] keys(String prefix, String[] attributes)
+	{
+		String[] keys = new String[attributes.length + 4];
+		keys[0] = prefix + ".events.in";
+		keys[1] = prefix + ".events.out";
+		keys[2] = prefix + ".schema.failures";
+		keys[3] = prefix + ".decode.errors";
+		System.arraycopy(attributes, 0, keys, 4, attributes.length);
+		return keys;
+	}
+
+	public long addToEventsIn(long delta)
+	{
+		return addAndGet(eventsIn, delta);
+	}
+
+	public long addToEventsOut(long delta)
+	{
+		return addAndGet(eventsOut, delta);
+	}
+
+	public long incrementSchemaFailures()
+	{
+		return increment(schemaFailures);
+	}
+
+	public long incrementDecodeErrors()
+	{
+		return increment(decodeErrors);
+	}
+
+	@Override
+	public long getEventsIn()
+	{
+		return get(eventsIn);
+	}
+
+	@Override
+	public long getEventsOut()
+	{
+		return get(eventsOut);
+	}
+
+	@Override
+	public long getSchemaFailures()
+	{
+		return get(schemaFailures);
+	}
+
+	@Override
+	public long getDecodeErrors()
+	{
+		return get(decodeErrors);
+	}
+}
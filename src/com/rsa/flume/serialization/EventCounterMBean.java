@@ -0,0 +1,12 @@
+package com.rsa.flume.serialization;
+
+/**
+ * JMX attributes of the serializer and the interceptors
+ */
+public interface EventCounterMBean extends CounterGroupMBean {
+
+	long getEventsIn();
+	long getEventsOut();
+	long getSchemaFailures();
+	long getDecodeErrors();
+}
@@ -0,0 +1,710 @@
+package com.rsa.flume.serialization;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.util.Utf8;
+import org.apache.commons.lang.StringUtils;
+import org.apache.flume.sink.elasticsearch.ElasticSearchEventSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Decides, which sessions are dropped, by the expressions of the Filter elements in FlumeAvroEventDeserializer.xml:
+ * <pre>
+ *  &lt;Filter&gt;
+ *    &lt;And&gt;
+ *      &lt;Equals field="device_type"&gt;ciscoasa&lt;/Equals&gt;
+ *      &lt;Not&gt;&lt;Cidr field="ip_dst"&gt;&lt;Network&gt;RFC1918&lt;/Network&gt;&lt;/Cidr&gt;&lt;/Not&gt;
+ *    &lt;/And&gt;
+ *    &lt;In field="service"&gt;&lt;Value&gt;53&lt;/Value&gt;&lt;Value&gt;123&lt;/Value&gt;&lt;/In&gt;
+ *    &lt;Prefix field="alias_host"&gt;ads.&lt;/Prefix&gt;
+ *    &lt;Range field="size" min="0" max="64"/&gt;
+ *  &lt;/Filter&gt;
+ * </pre>
+ * A session is dropped, if one of the expressions matches. Values are compared as text, Range compares numbers
+ * and the bounds are inclusive. A condition on a field, which is not set, is unknown, and so is its negation:
+ * And is false, if one operand is false, Or is true, if one operand is true, otherwise unknown operands make
+ * the result unknown. A session is only dropped, if an expression is true for it.
+ *
+ * The expressions are compiled once per configuration into a tree of predicates on field names. For each Schema
+ * the tree is bound to the positions of the fields in the projected record. Conditions on fields, which are not
+ * part of the Schema, are folded to constants, so a Schema may not need to be decoded at all. If the expressions
+ * fold to true, every session of the Schema is dropped, which is logged as warning.
+ */
+public final class EventFilter {
+
+	private static final Logger logger = LoggerFactory.getLogger
+		      (EventFilter.class);
+
+	private final Predicate root;
+	private final Projection projection;
+
+	// Predicate trees bound per writer Schema. Schemas are compared by identity
+	private final Cache<Schema, Predicate> bound = CacheBuilder.newBuilder()
+			.weakKeys()
+			.build();
+
+	private EventFilter(Predicate root)
+	{
+		this.root = root;
+		Set<String> fields = new LinkedHashSet<String>();
+		root.fields(fields);
+		this.projection = new Projection(new ArrayList<String>(fields));
+	}
+
+	/**
+	 * Compiles the expressions of the Filter elements
+	 *
+	 * @param filters
+	 * @return
+	 * @throws IllegalArgumentException for an invalid expression
+	 */
+	public static EventFilter compile(List<Element> filters)
+	{
+		List<Predicate> expressions = new ArrayList<Predicate>();
+		for (Element filter : filters)
+		{
+			for (Element child : children(filter))
+			{
+				expressions.add(parse(child));
+			}
+		}
+		return new EventFilter(new Or(expressions));
+	}
+
+	/**
+	 * @return the projection of the fields, which are referenced by the expressions
+	 */
+	public Projection Projection()
+	{
+		return projection;
+	}
+
+	/**
+	 * Decodes the referenced fields of the body, if needed, and evaluates the expressions
+	 *
+	 * @param writer Schema of the event
+	 * @param body
+	 * @return true, if the session shall be dropped
+	 * @throws IOException
+	 */
+	public boolean matches(Schema writer, byte[] body) throws IOException
+	{
+		Predicate predicate = bind(writer);
+		if (predicate instanceof Constant)
+		{
+			return ((Constant)predicate).value == Truth.TRUE;
+		}
+		return predicate.evaluate(projection.read(writer, body)) == Truth.TRUE;
+	}
+
+	/**
+	 * @param writer
+	 * @return the expressions bound to the fields of the projected record of the Schema
+	 */
+	private Predicate bind(final Schema writer) throws IOException
+	{
+		final Schema reader = projection.readerSchema(writer);
+		try {
+			return bound.get(writer, new Callable<Predicate>() {
+				@Override
+				public Predicate call() {
+					Predicate predicate = root.bind(reader);
+					if (predicate == Constant.TRUE)
+					{
+						logger.warn("Filter " + root + " is true for every session of Schema " + writer.getFullName()
+								+ ". All of them are dropped");
+					}
+					return predicate;
+				}
+			});
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return root.toString();
+	}
+
+	private static Predicate parse(Element element)
+	{
+		String name = element.getTagName();
+		List<Element> children = children(element);
+		if (name.equals("And") || name.equals("Or"))
+		{
+			List<Predicate> operands = new ArrayList<Predicate>();
+			for (Element child : children)
+			{
+				operands.add(parse(child));
+			}
+			return name.equals("And") ? new And(operands) : new Or(operands);
+		}
+		else if (name.equals("Not"))
+		{
+			if (children.size() != 1)
+			{
+				throw new IllegalArgumentException("Not needs exactly one expression");
+			}
+			return new Not(parse(children.get(0)));
+		}
+
+		String field = element.getAttribute("field").trim();
+		if (field.isEmpty())
+		{
+			throw new IllegalArgumentException(name + " needs a field attribute");
+		}
+
+		if (name.equals("Equals"))
+		{
+			return new Condition(field, new InSet(Collections.singletonList(element.getTextContent().trim())));
+		}
+		else if (name.equals("In"))
+		{
+			return new Condition(field, new InSet(texts(children, "Value")));
+		}
+		else if (name.equals("Prefix"))
+		{
+			return new Condition(field, new StartsWith(element.getTextContent().trim()));
+		}
+		else if (name.equals("Cidr"))
+		{
+			List<String> networks = children.isEmpty() ? Collections.singletonList(element.getTextContent()) : texts(children, "Network");
+			return new Condition(field, new InNetworks(networks));
+		}
+		else if (name.equals("Range"))
+		{
+			String min = element.getAttribute("min").trim();
+			String max = element.getAttribute("max").trim();
+			if (min.isEmpty() && max.isEmpty())
+			{
+				throw new IllegalArgumentException("Range on " + field + " needs a min or max attribute");
+			}
+			return new Condition(field, new InRange(min.isEmpty() ? Double.NEGATIVE_INFINITY : Double.parseDouble(min),
+					max.isEmpty() ? Double.POSITIVE_INFINITY : Double.parseDouble(max)));
+		}
+		throw new IllegalArgumentException("Unknown filter expression: " + name);
+	}
+
+	private static List<Element> children(Element element)
+	{
+		List<Element> children = new ArrayList<Element>();
+		NodeList nodes = element.getChildNodes();
+		for (int i = 0; i < nodes.getLength(); i++)
+		{
+			if (nodes.item(i).getNodeType() == Node.ELEMENT_NODE)
+			{
+				children.add((Element)nodes.item(i));
+			}
+		}
+		return children;
+	}
+
+	private static List<String> texts(List<Element> elements, String name)
+	{
+		List<String> texts = new ArrayList<String>();
+		for (Element element : elements)
+		{
+			if (!element.getTagName().equals(name))
+			{
+				throw new IllegalArgumentException("Unexpected element " + element.getTagName() + ", expected " + name);
+			}
+			texts.add(element.getTextContent().trim());
+		}
+		return texts;
+	}
+
+	/**
+	 * Result of a predicate. A condition on a field, which is not set, is unknown
+	 */
+	private enum Truth
+	{
+		TRUE, FALSE, UNKNOWN;
+
+		Truth not()
+		{
+			switch (this)
+			{
+			case TRUE:
+				return FALSE;
+			case FALSE:
+				return TRUE;
+			default:
+				return UNKNOWN;
+			}
+		}
+	}
+
+	private abstract static class Predicate
+	{
+		abstract Truth evaluate(IndexedRecord datum);
+
+		/**
+		 * @return the predicate with the field names replaced by the positions in the reader Schema
+		 */
+		abstract Predicate bind(Schema reader);
+
+		/**
+		 * Adds the referenced fields
+		 */
+		abstract void fields(Set<String> fields);
+	}
+
+	private static final class Constant extends Predicate
+	{
+		static final Constant TRUE = new Constant(Truth.TRUE);
+		static final Constant FALSE = new Constant(Truth.FALSE);
+		static final Constant UNKNOWN = new Constant(Truth.UNKNOWN);
+
+		final Truth value;
+
+		private Constant(Truth value)
+		{
+			this.value = value;
+		}
+
+		static Constant of(Truth value)
+		{
+			switch (value)
+			{
+			case TRUE:
+				return TRUE;
+			case FALSE:
+				return FALSE;
+			default:
+				return UNKNOWN;
+			}
+		}
+
+		@Override
+		Truth evaluate(IndexedRecord datum)
+		{
+			return value;
+		}
+
+		@Override
+		Predicate bind(Schema reader)
+		{
+			return this;
+		}
+
+		@Override
+		void fields(Set<String> fields)
+		{
+		}
+
+		@Override
+		public String toString()
+		{
+			return value.name().toLowerCase();
+		}
+	}
+
+	private static final class And extends Predicate
+	{
+		private final Predicate[] operands;
+
+		And(List<Predicate> operands)
+		{
+			this.operands = operands.toArray(new Predicate[operands.size()]);
+		}
+
+		@Override
+		Truth evaluate(IndexedRecord datum)
+		{
+			Truth result = Truth.TRUE;
+			for (Predicate operand : operands)
+			{
+				Truth truth = operand.evaluate(datum);
+				if (truth == Truth.FALSE)
+				{
+					return Truth.FALSE;
+				}
+				if (truth == Truth.UNKNOWN)
+				{
+					result = Truth.UNKNOWN;
+				}
+			}
+			return result;
+		}
+
+		@Override
+		Predicate bind(Schema reader)
+		{
+			// An unknown operand is kept once, it can still be outweighed by a false one
+			List<Predicate> bound = new ArrayList<Predicate>();
+			boolean unknown = false;
+			for (Predicate operand : operands)
+			{
+				Predicate predicate = operand.bind(reader);
+				if (predicate == Constant.FALSE)
+				{
+					return Constant.FALSE;
+				}
+				if (predicate == Constant.UNKNOWN)
+				{
+					unknown = true;
+				}
+				else if (predicate != Constant.TRUE)
+				{
+					bound.add(predicate);
+				}
+			}
+			if (bound.isEmpty())
+			{
+				return unknown ? Constant.UNKNOWN : Constant.TRUE;
+			}
+			if (unknown)
+			{
+				bound.add(Constant.UNKNOWN);
+			}
+			return bound.size() == 1 ? bound.get(0) : new And(bound);
+		}
+
+		@Override
+		void fields(Set<String> fields)
+		{
+			for (Predicate operand : operands)
+			{
+				operand.fields(fields);
+			}
+		}
+
+		@Override
+		public String toString()
+		{
+			return "(" + StringUtils.join(operands, " and ") + ")";
+		}
+	}
+
+	private static final class Or extends Predicate
+	{
+		private final Predicate[] operands;
+
+		Or(List<Predicate> operands)
+		{
+			this.operands = operands.toArray(new Predicate[operands.size()]);
+		}
+
+		@Override
+		Truth evaluate(IndexedRecord datum)
+		{
+			Truth result = Truth.FALSE;
+			for (Predicate operand : operands)
+			{
+				Truth truth = operand.evaluate(datum);
+				if (truth == Truth.TRUE)
+				{
+					return Truth.TRUE;
+				}
+				if (truth == Truth.UNKNOWN)
+				{
+					result = Truth.UNKNOWN;
+				}
+			}
+			return result;
+		}
+
+		@Override
+		Predicate bind(Schema reader)
+		{
+			// An unknown operand is kept once, it can still be outweighed by a true one
+			List<Predicate> bound = new ArrayList<Predicate>();
+			boolean unknown = false;
+			for (Predicate operand : operands)
+			{
+				Predicate predicate = operand.bind(reader);
+				if (predicate == Constant.TRUE)
+				{
+					return Constant.TRUE;
+				}
+				if (predicate == Constant.UNKNOWN)
+				{
+					unknown = true;
+				}
+				else if (predicate != Constant.FALSE)
+				{
+					bound.add(predicate);
+				}
+			}
+			if (bound.isEmpty())
+			{
+				return unknown ? Constant.UNKNOWN : Constant.FALSE;
+			}
+			if (unknown)
+			{
+				bound.add(Constant.UNKNOWN);
+			}
+			return bound.size() == 1 ? bound.get(0) : new Or(bound);
+		}
+
+		@Override
+		void fields(Set<String> fields)
+		{
+			for (Predicate operand : operands)
+			{
+				operand.fields(fields);
+			}
+		}
+
+		@Override
+		public String toString()
+		{
+			return "(" + StringUtils.join(operands, " or ") + ")";
+		}
+	}
+
+	private static final class Not extends Predicate
+	{
+		private final Predicate operand;
+
+		Not(Predicate operand)
+		{
+			this.operand = operand;
+		}
+
+		@Override
+		Truth evaluate(IndexedRecord datum)
+		{
+			return operand.evaluate(datum).not();
+		}
+
+		@Override
+		Predicate bind(Schema reader)
+		{
+			Predicate predicate = operand.bind(reader);
+			if (predicate instanceof Constant)
+			{
+				return Constant.of(((Constant)predicate).value.not());
+			}
+			return new Not(predicate);
+		}
+
+		@Override
+		void fields(Set<String> fields)
+		{
+			operand.fields(fields);
+		}
+
+		@Override
+		public String toString()
+		{
+			return "not " + operand;
+		}
+	}
+
+	/**
+	 * A test on the value of one field. Unbound the position is -1
+	 */
+	private static final class Condition extends Predicate
+	{
+		private final String field;
+		private final int position;
+		private final Test test;
+
+		Condition(String field, Test test)
+		{
+			this(field, -1, test);
+		}
+
+		private Condition(String field, int position, Test test)
+		{
+			this.field = field;
+			this.position = position;
+			this.test = test;
+		}
+
+		@Override
+		Truth evaluate(IndexedRecord datum)
+		{
+			Object value = datum.get(position);
+			if (value == null)
+			{
+				return Truth.UNKNOWN;
+			}
+			return test.test(value) ? Truth.TRUE : Truth.FALSE;
+		}
+
+		@Override
+		Predicate bind(Schema reader)
+		{
+			Schema.Field schemaField = reader.getField(field);
+			if (schemaField == null)
+			{
+				return Constant.UNKNOWN;
+			}
+			return new Condition(field, schemaField.pos(), test);
+		}
+
+		@Override
+		void fields(Set<String> fields)
+		{
+			fields.add(field);
+		}
+
+		@Override
+		public String toString()
+		{
+			return field + " " + test;
+		}
+	}
+
+	private interface Test
+	{
+		boolean test(Object value);
+	}
+
+	private static final class InSet implements Test
+	{
+		private final Set<String> strings;
+
+		// The same values as Utf8, so that decoded strings are looked up without creating a String
+		private final Set<Utf8> utf8s = new HashSet<Utf8>();
+
+		InSet(List<String> values)
+		{
+			strings = new HashSet<String>(values);
+			for (String value : values)
+			{
+				utf8s.add(new Utf8(value));
+			}
+		}
+
+		@Override
+		public boolean test(Object value)
+		{
+			if (value instanceof Utf8)
+			{
+				return utf8s.contains(value);
+			}
+			return strings.contains(value.toString());
+		}
+
+		@Override
+		public String toString()
+		{
+			return "in " + strings;
+		}
+	}
+
+	private static final class StartsWith implements Test
+	{
+		private final String prefix;
+		private final byte[] bytes;
+
+		StartsWith(String prefix)
+		{
+			this.prefix = prefix;
+			this.bytes = prefix.getBytes(ElasticSearchEventSerializer.charset);
+		}
+
+		@Override
+		public boolean test(Object value)
+		{
+			if (value instanceof Utf8)
+			{
+				Utf8 utf8 = (Utf8)value;
+				if (utf8.getByteLength() < bytes.length)
+				{
+					return false;
+				}
+				byte[] valueBytes = utf8.getBytes();
+				for (int i = 0; i < bytes.length; i++)
+				{
+					if (valueBytes[i] != bytes[i])
+					{
+						return false;
+					}
+				}
+				return true;
+			}
+			return value.toString().startsWith(prefix);
+		}
+
+		@Override
+		public String toString()
+		{
+			return "starts with " + prefix;
+		}
+	}
+
+	private static final class InNetworks implements Test
+	{
+		private final List<String> networks;
+		private final CidrMatcher matcher;
+
+		InNetworks(List<String> networks)
+		{
+			this.networks = networks;
+			this.matcher = CidrMatcher.compile(networks);
+		}
+
+		@Override
+		public boolean test(Object value)
+		{
+			return matcher.contains(value);
+		}
+
+		@Override
+		public String toString()
+		{
+			return "in networks " + networks;
+		}
+	}
+
+	private static final class InRange implements Test
+	{
+		private final double min;
+		private final double max;
+
+		InRange(double min, double max)
+		{
+			this.min = min;
+			this.max = max;
+		}
+
+		@Override
+		public boolean test(Object value)
+		{
+			double number;
+			if (value instanceof Number)
+			{
+				number = ((Number)value).doubleValue();
+			}
+			else
+			{
+				try
+				{
+					number = Double.parseDouble(value.toString());
+				} catch (NumberFormatException e) {
+					return false;
+				}
+			}
+			return number >= min && number <= max;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "in [" + min + ", " + max + "]";
+		}
+	}
+}
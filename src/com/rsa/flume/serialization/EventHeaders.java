@@ -0,0 +1,33 @@
+package com.rsa.flume.serialization;
+
+/**
+ * Names of the Flume headers, which are used by the interceptors and the serializer.
+ *
+ * With stampHeaders enabled, the FlumeRFC1918Interceptor derives the decoder name, the corrected
+ * timestamp, the device type and the schema fingerprint once and writes them as headers.
+ * The serializer trusts these headers, when they are present.
+ */
+public final class EventHeaders {
+
+	// Name of the Decoder, from ng_source or from the file name
+	public static final String DECODER = "flume.avro.decoder";
+
+	// Corrected event timestamp in milliseconds, as used for @timestamp
+	public static final String TIMESTAMP = "flume.avro.timestamp";
+
+	// Value of the device_type field
+	public static final String DEVICE_TYPE = "flume.avro.device_type";
+
+	// Parsing fingerprint of the Schema, see SchemaCache
+	public static final String SCHEMA_FINGERPRINT = "flume.avro.schema.fingerprint";
+
+	// Set by the FlumeSamplingInterceptor: 1 in how many sessions has been kept. Written as sample_rate by the serializer
+	public static final String SAMPLE_RATE = "flume.avro.sample_rate";
+
+	// Flume's own timestamp header in milliseconds, used by the ElasticSearch sink for the index name
+	public static final String FLUME_TIMESTAMP = "timestamp";
+
+	private EventHeaders()
+	{
+	}
+}
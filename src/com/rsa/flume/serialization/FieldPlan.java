@@ -0,0 +1,252 @@
+package com.rsa.flume.serialization;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.flume.sink.elasticsearch.ElasticSearchEventSerializer;
+
+/**
+ * Precompiled processing plan for the fields of a Schema, as sent by a given Decoder.
+ *
+ * All decisions, which only depend on the field name and the configuration
+ * (include / exclude, time and geo fields, country mapping, truncation and severity)
+ * are taken once, when the plan is compiled. The serializer then only iterates
+ * the steps of the plan by index.
+ *
+ * With typed values, the type of each field is taken from the Schema as well,
+ * so that numbers and booleans are written as JSON numbers and booleans.
+ */
+public final class FieldPlan {
+
+	/**
+	 * What to do with the value of a field
+	 */
+	public enum Action {
+		EMIT,			// Write the value as it is
+		DEVICE_TYPE,	// Write the value and remember it for the time correction
+		COUNTRY,		// Write the value after applying the Country Mapping
+		SEVERITY,		// Write the value and also as severity_num, if it is numeric
+		TIME,			// Capture time
+		EVENT_TIME,		// Capture event_time
+		LAT_SRC,		// Capture the Geo IP coordinates
+		LAT_DST,
+		LONG_SRC,
+		LONG_DST
+	}
+
+	/**
+	 * How the value of a field is written
+	 */
+	public enum ValueType {
+		TEXT,			// As JSON string, or as JSON, if the text is JSON
+		INT,
+		LONG,
+		FLOAT,
+		DOUBLE,
+		BOOLEAN
+	}
+
+	/**
+	 * A single field of the Schema, which should be processed
+	 */
+	public static final class Step {
+		public final int position;
+		public final String name;
+		public final Action action;
+		public final int truncateLength;	// -1, if the value should not be truncated
+		public final ValueCache valueCache;	// null, if the values of the field are not cached
+		public final ValueType type;
+
+		Step(int position, String name, Action action, int truncateLength, ValueCache valueCache, ValueType type)
+		{
+			this.position = position;
+			this.name = name;
+			this.action = action;
+			this.truncateLength = truncateLength;
+			this.valueCache = valueCache;
+			this.type = type;
+		}
+	}
+
+	private final String decoderName;
+	private final byte[] source;
+	private final Step[] steps;
+
+	// The steps by the position of the field in the Schema, null for ignored fields
+	private final Step[] byPosition;
+
+	private FieldPlan(String decoderName, Step[] steps, int fieldCount)
+	{
+		this.decoderName = decoderName;
+		this.source = decoderName.getBytes(ElasticSearchEventSerializer.charset);
+		this.steps = steps;
+		this.byPosition = new Step[fieldCount];
+		for (Step step : steps)
+		{
+			byPosition[step.position] = step;
+		}
+	}
+
+	public String DecoderName()
+	{
+		return decoderName;
+	}
+
+	/**
+	 * @return the Decoder name as UTF-8 bytes, used for @source
+	 */
+	public byte[] Source()
+	{
+		return source;
+	}
+
+	public int size()
+	{
+		return steps.length;
+	}
+
+	public Step step(int index)
+	{
+		return steps[index];
+	}
+
+	/**
+	 * @param position of the field in the Schema
+	 * @return the step or null, if the field shall be ignored
+	 */
+	public Step atPosition(int position)
+	{
+		return byPosition[position];
+	}
+
+	/**
+	 * Compiles the plan for the given Schema and Decoder.
+	 * Fields, which shall be ignored as per configuration, are not part of the plan.
+	 *
+	 * @param schema
+	 * @param decoderName
+	 * @param config
+	 * @return
+	 */
+	public static FieldPlan compile(Schema schema, String decoderName, Config config)
+	{
+		Config.FieldFilter filter = config.FieldFilter(decoderName);
+		List<Step> steps = new ArrayList<Step>();
+		for (Schema.Field field : schema.getFields())
+		{
+			String name = field.name();
+
+			// Shall we ignore the field, based on configuration settings
+			if (!filter.accept(name))
+			{
+				continue;
+			}
+
+			Integer truncate = config.TruncateLength().get(name);
+			Action action = getAction(name);
+			
+			// Only plain values, which are not truncated, are written typed
+			ValueType type = ValueType.TEXT;
+			if (config.TypedValues() && action == Action.EMIT && truncate == null)
+			{
+				type = getValueType(field.schema());
+			}
+			
+			// Only values, which are written as text, are cached
+			ValueCache valueCache = null;
+			if (type == ValueType.TEXT && (action == Action.EMIT || action == Action.DEVICE_TYPE || action == Action.COUNTRY || action == Action.SEVERITY))
+			{
+				valueCache = config.ValueCache(name);
+			}
+			steps.add(new Step(field.pos(), name, action, truncate == null ? -1 : truncate, valueCache, type));
+		}
+		return new FieldPlan(decoderName, steps.toArray(new Step[steps.size()]), schema.getFields().size());
+	}
+
+	/**
+	 * @param schema of the field, a primitive type or an optional one (union with null)
+	 * @return the type of the values, TEXT for all other Schemas
+	 */
+	private static ValueType getValueType(Schema schema)
+	{
+		if (schema.getType() == Schema.Type.UNION)
+		{
+			Schema value = null;
+			for (Schema branch : schema.getTypes())
+			{
+				if (branch.getType() == Schema.Type.NULL)
+				{
+					continue;
+				}
+				if (value != null)
+				{
+					return ValueType.TEXT;
+				}
+				value = branch;
+			}
+			if (value == null)
+			{
+				return ValueType.TEXT;
+			}
+			schema = value;
+		}
+
+		switch (schema.getType())
+		{
+		case INT:
+			return ValueType.INT;
+		case LONG:
+			return ValueType.LONG;
+		case FLOAT:
+			return ValueType.FLOAT;
+		case DOUBLE:
+			return ValueType.DOUBLE;
+		case BOOLEAN:
+			return ValueType.BOOLEAN;
+		default:
+			return ValueType.TEXT;
+		}
+	}
+
+	private static Action getAction(String name)
+	{
+		// The Time fields are used to set the TimeStamp
+		if (name.equals("time")) {
+			return Action.TIME;
+		} else if (name.equals("event_time")) {
+			return Action.EVENT_TIME;
+		}
+
+		// Geo-IP fields
+		if (name.startsWith("latdec_src"))
+		{
+			return Action.LAT_SRC;
+		} else if (name.startsWith("latdec_dst"))
+		{
+			return Action.LAT_DST;
+		} else if (name.startsWith("longdec_src"))
+		{
+			return Action.LONG_SRC;
+		} else if (name.startsWith("longdec_dst"))
+		{
+			return Action.LONG_DST;
+		}
+
+		if (name.equals("device_type"))
+		{
+			return Action.DEVICE_TYPE;
+		}
+
+		if (name.startsWith("country_src") || name.startsWith("country_dst"))
+		{
+			return Action.COUNTRY;
+		}
+
+		if (name.equals("severity"))
+		{
+			return Action.SEVERITY;
+		}
+		return Action.EMIT;
+	}
+}
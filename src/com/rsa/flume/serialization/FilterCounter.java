@@ -0,0 +1,28 @@
+package com.rsa.flume.serialization;
+
+import org.apache.flume.instrumentation.MonitoredCounterGroup;
+
+/**
+ * Counters of the FlumeFilterInterceptor, published as Flume counter group
+ * "org.apache.flume.interceptor:type=name".
+ */
+public class FilterCounter extends EventCounter implements FilterCounterMBean {
+
+	private static final String COUNTER_DROPPED_FILTER = "filter.dropped.filter";
+
+	public FilterCounter(String name)
+	{
+		super(MonitoredCounterGroup.Type.INTERCEPTOR, name, "filter", COUNTER_DROPPED_FILTER);
+	}
+
+	public long incrementDroppedFilter()
+	{
+		return increment(COUNTER_DROPPED_FILTER);
+	}
+
+	@Override
+	public long getDroppedFilter()
+	{
+		return get(COUNTER_DROPPED_FILTER);
+	}
+}
@@ -0,0 +1,9 @@
+package com.rsa.flume.serialization;
+
+/**
+ * JMX attributes of the FlumeFilterInterceptor
+ */
+public interface FilterCounterMBean extends EventCounterMBean {
+
+	long getDroppedFilter();
+}
@@ -3,22 +3,13 @@ package com.rsa.flume.serialization;
 import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 
 import java.io.EOFException;
-import java.io.File;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Map;
-import java.util.TimeZone;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.avro.Schema;
-import org.apache.avro.file.DataFileReader;
-import org.apache.avro.file.FileReader;
-import org.apache.avro.generic.GenericData;
-import org.apache.avro.generic.GenericDatumReader;
 import org.apache.avro.generic.GenericRecord;
-import org.apache.avro.io.BinaryDecoder;
-import org.apache.avro.io.DatumReader;
-import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.util.Utf8;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.apache.flume.conf.ComponentConfiguration;
@@ -27,9 +18,6 @@ import org.apache.flume.conf.ComponentConfiguration;
 import org.apache.flume.sink.elasticsearch.ContentBuilderUtil;
 import org.apache.flume.sink.elasticsearch.ElasticSearchEventSerializer;
 
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -81,6 +69,14 @@ import org.apache.commons.lang.StringUtils;
  * 10.07.2017 1.4 Added check for correct Longitude. Latitude format
  * 08.08.2017 1.5 Added Country Mapping between Netwitness and Kibana
  * 01.12.2017 1.6 If Severity contains numeric data, a new field called severity_num should be added
+ * 16.10.2026 1.7 Schemas are cached process wide by hash / literal, instead of re-reading the file on each event
+ * 16.10.2026 1.8 Added the streaming encoder, selected with the serializer property encoder = streaming
+ * 16.10.2026 1.9 Encoded values of fields with few distinct values are cached
+ * 16.10.2026 1.10 Added batch serialization on a Fork/Join pool, used by the BatchIndexRequestBuilderFactory
+ * 16.10.2026 1.11 Added counters and per stage latencies, published via JMX
+ * 16.10.2026 1.12 Coordinates are handled as primitive doubles, optionally a geohash is added to the locations
+ * 16.10.2026 1.13 Added typed values, numbers and booleans are written as JSON numbers and booleans
+ * 16.10.2026 1.14 The sample rate of sampled sessions is written as sample_rate
  * 
  */
 public class FlumeAvroEventDeserializer  implements
@@ -89,215 +85,431 @@ public class FlumeAvroEventDeserializer  implements
 	private final Logger logger = LoggerFactory.getLogger
 	      (FlumeAvroEventDeserializer.class);
 	
-	private Config config = null;
-	private Schema schema;
-	private BinaryDecoder decoder = null;
-	private String latSrc, latDst, longSrc, longDst = null;
-	private String deviceType = null;
-	private Long time = 0L;
-	private Long eventTime = 0L;
+	// Serializer property to select the encoder: "generic" (default) or "streaming"
+	public static final String ENCODER = "encoder";
+	public static final String ENCODER_GENERIC = "generic";
+	public static final String ENCODER_STREAMING = "streaming";
+	
+	// Encode the events with the StreamingEncoder instead of decoding them into a GenericRecord first
+	private boolean streaming = false;
 	
-	private String schemaHash = null;
-	private Schema storedSchema;
-	private String decoderName; 
+	// Each serializer of the agent gets its own counter group
+	private static final AtomicInteger instances = new AtomicInteger();
+	private final SerializerCounter counter = new SerializerCounter("FlumeAvroEventDeserializer-" + instances.incrementAndGet());
 	
 	@Override
 	  public XContentBuilder getContentBuilder(Event event) throws IOException {
-		config = Config.getinstance();
+		// The Config snapshot is taken once per event. The serializer can be used by multiple threads
+		Config config = Config.getinstance();
+	    XContentBuilder builder = getDocument(event, config);
+	    if (builder == null)
+	    {
+	    	// The builder may have been written partially, e.g. the streaming encoder fails within @fields
+	    	return jsonBuilder().startObject().endObject();
+	    }
+	    return builder;
+	  }
+
+	  /**
+	   * Serializes the event, as getContentBuilder() does
+	   * 
+	   * @return the content builder or null, if the schema couldn't be found or the event couldn't be decoded
+	   */
+	  XContentBuilder getDocument(Event event, Config config) throws IOException {
+	    XContentBuilder builder = jsonBuilder().startObject();
+	    if (!appendFields(builder, event, config))
+	    {
+	    	return null;
+	    }
+	    builder.endObject(); 
+	    return builder;
+	  }
+
+	  /**
+	   * Serializes an event, whose body has been decoded already, e.g. by the Backfill tool from an Avro file
+	   * 
+	   * @param event for the headers
+	   * @param datum the decoded body
+	   * @param config
+	   * @return the content builder or null, if the record couldn't be serialized
+	   */
+	  XContentBuilder getDocument(Event event, GenericRecord datum, Config config) throws IOException {
+		counter.addToEventsIn(1);
+		long start = System.nanoTime();
+		
+		CapturedFields captured = new CapturedFields();
+		captured.decoderName = event.getHeaders().get(EventHeaders.DECODER);
 	    XContentBuilder builder = jsonBuilder().startObject();
-	    appendFields(builder, event);
+	    if (!writeFields(builder, datum.getSchema(), datum, event, config, captured))
+	    {
+	    	return null;
+	    }
+	    appendDocument(builder, event, config, captured, start, start);
 	    builder.endObject(); 
 	    return builder;
 	  }
 
-	  private void appendFields(XContentBuilder builder, Event event)
+	  /**
+	   * Serializes a batch of events on the ParallelBatch pool.
+	   * 
+	   * @param events
+	   * @return the content builders in the order of the events
+	   * @throws IOException of the first event, which couldn't be serialized
+	   */
+	  public List<XContentBuilder> getContentBuilders(List<Event> events) throws IOException {
+		  try {
+			  return ParallelBatch.map(events, new ParallelBatch.Task<Event, XContentBuilder>() {
+				  @Override
+				  public XContentBuilder apply(Event event) throws IOException {
+					  return getContentBuilder(event);
+				  }
+			  });
+		  } catch (IOException | RuntimeException e) {
+			  throw e;
+		  } catch (Exception e) {
+			  throw new IOException(e);
+		  }
+	  }
+
+	  /**
+	   * @return false, if the schema couldn't be found or the event couldn't be decoded
+	   */
+	  private boolean appendFields(XContentBuilder builder, Event event, Config config)
 	      throws IOException {
 		
-		schema = getSchema(event);
+		counter.addToEventsIn(1);
+		long start = System.nanoTime();
+		
+		Schema schema = SchemaCache.getinstance().getSchema(event.getHeaders());
+		long buildStart = System.nanoTime();
+		counter.schemaLookup.record(buildStart - start);
 		if (schema == null)
 		{
+			counter.incrementSchemaFailures();
 			logger.error("Couldn't get a valid Schema. Abort processing of Event");
-			return;
+			return false;
+		}
+		
+		CapturedFields captured = new CapturedFields();
+		
+		// Trust the decoder name, if the interceptor has put it into the headers already
+		captured.decoderName = event.getHeaders().get(EventHeaders.DECODER);
+		
+		boolean written;
+		if (streaming)
+		{
+			// Decoding and building are one pass
+			written = StreamingEncoder.writeFields(builder, schema, event, config, captured);
+		}
+		else
+		{
+			GenericRecord datum = readRecord(schema, event, captured);
+			long decoded = System.nanoTime();
+			counter.decode.record(decoded - buildStart);
+			buildStart = decoded;
+			written = datum != null && writeFields(builder, schema, datum, event, config, captured);
 		}
 		
-		DatumReader<GenericRecord> reader = new GenericDatumReader<>(schema);
-	    decoder = DecoderFactory.get().binaryDecoder(event.getBody(), decoder);
-	    GenericRecord datum = new GenericData.Record(schema);
+		if (!written)
+		{
+			if (captured.decodeError instanceof EOFException)
+			{
+				counter.incrementDecodeEOFs();
+			}
+			else
+			{
+				counter.incrementDecodeErrors();
+			}
+			return false;
+		}
+		
+		appendDocument(builder, event, config, captured, start, buildStart);
+		return true;
+	  }
+	  
+	  /**
+	   * Closes the @fields object and appends the locations, sample_rate, @timestamp and @source
+	   */
+	  private void appendDocument(XContentBuilder builder, Event event, Config config, CapturedFields captured, long start, long buildStart)
+	      throws IOException {
+		
+	    // Check if we got valid GEO IP Info
+	    appendLocation(builder, "location_src", "geohash_src", captured.latSrc, captured.longSrc, config);
+	    appendLocation(builder, "location_dst", "geohash_dst", captured.latDst, captured.longDst, config);
 	    
+	    // Sessions kept by the FlumeSamplingInterceptor count for sample_rate sessions
+	    appendSampleRate(builder, event);
+	    
+        builder.endObject();   
+        long built = System.nanoTime();
+        counter.build.record(built - buildStart);
+
+        // Now let's set the TimeStamp, unless the interceptor did it already
+        String stampedTimestamp = event.getHeaders().get(EventHeaders.TIMESTAMP);
+        long timestamp = stampedTimestamp != null ? Long.parseLong(stampedTimestamp) : captured.timestamp(config);
+    	builder.field("@timestamp", TimestampFormatter.format(timestamp));
+   	
+	    // Set the Decoder Name as Source
+		ContentBuilderUtil.appendField(builder, "@source", captured.plan.Source());
+		
+		long end = System.nanoTime();
+		counter.timestamp.record(end - built);
+		counter.total.record(end - start);
+		counter.addToEventsOut(1);
+	  }
+  
+	  /**
+	   * Decodes the event into a GenericRecord
+	   * 
+	   * @return null, if the event couldn't be decoded
+	   */
+	  private GenericRecord readRecord(Schema schema, Event event, CapturedFields captured)
+	  {
 	    try
 	    {
-	    	datum = reader.read(datum, decoder);
+	    	return RecordReader.read(schema, event.getBody());
 	    }
 	    catch (EOFException eof)
 	    {
-	    	return;
+	    	captured.decodeError = eof;
+	    	return null;
 	    }
 	    catch (Exception e) {
 			logger.error("Exception reading event data: " + e.toString());
-			return;
-		}    
-	        
-	    // Reset the Coordinate fields
-	    latSrc = latDst = longSrc = longDst = null;
-	   
-	    deviceType = "";
-	    
-	    // Reset the Time fields
-	    time = eventTime = 0L;
-	
-	    decoderName = datum.get("ng_source").toString();
-	    if (decoderName == null)
+			captured.decodeError = e;
+			return null;
+		}
+	  }
+	  
+	  /**
+	   * Writes the @fields object of the decoded event, without closing it.
+	   * 
+	   * @return true
+	   */
+	  private boolean writeFields(XContentBuilder builder, Schema schema, GenericRecord datum, Event event, Config config, CapturedFields captured)
+	      throws IOException {
+		  
+	    if (captured.decoderName == null)
 	    {
-	    	decoderName = getDecoderNameFromFile(event.getHeaders().get("file"));
+	    	captured.decoderName = getDecoderName(datum.get("ng_source"), event);
 	    }
+	    captured.rawTime = datum.get("time");
+	    
+	    // All decisions based on the field names have been taken when the plan was compiled
+	    FieldPlan plan = config.FieldPlan(schema, captured.decoderName);
+	    captured.plan = plan;
 	        
 	    builder.startObject("@fields");
-	    for (Schema.Field field : schema.getFields()) {
+	    for (int i = 0; i < plan.size(); i++) {
+	    	FieldPlan.Step step = plan.step(i);
 	    	
-	    	// Shall we ignore the field, based on configuration settings
-	    	if (!includeOrExcludeField(field.name()))
+	    	Object value = datum.get(step.position);
+	    	if (value == null)
 	    	{
 	    		continue;
 	    	}
-	    	    	
-	    	Object value = datum.get(field.name());
-	    	if (value != null)
+	    	
+	    	// Capture the Time and Geo-IP fields. The TimeStamp and the locations will be set later
+	    	switch (step.action)
 	    	{
-	    		// Check the presence of the Time fields
-	    		// The TimeStamp will be set later
-	    		if (field.name().equals("time")) {
-	    			time = Long.parseLong(value.toString());
-	    			continue;
-	    		} else if (field.name().equals("event_time")) {
-	    			eventTime = Long.parseLong(value.toString());
-	    			continue;
-	    		}
-	    		
-	    		// check for the presence of Geo-IP
-	    		if (field.name().startsWith("latdec_src"))
-	    		{
-	    			latSrc = value.toString();  
-	    			continue;
-	    		} else if (field.name().startsWith("latdec_dst"))
-	    		{
-	    			latDst = value.toString();
-	    			continue;
-	    		} else if (field.name().startsWith("longdec_src"))
-	    		{
-	    			longSrc = value.toString();
-	    			continue;
-	    		} else if (field.name().startsWith("longdec_dst"))
-	    		{
-	    			longDst = value.toString();
-	    			continue;
-	    		}
-	    		
-	    		// Store devic_type, so that we can use it later for event_time correction
-	    		if (field.name().equals("device_type"))
+	    	case TIME:
+	    		captured.time = Long.parseLong(value.toString());
+	    		continue;
+	    	case EVENT_TIME:
+	    		captured.eventTime = Long.parseLong(value.toString());
+	    		continue;
+	    	case LAT_SRC:
+	    		captured.latSrc = toCoordinate(value);
+	    		continue;
+	    	case LAT_DST:
+	    		captured.latDst = toCoordinate(value);
+	    		continue;
+	    	case LONG_SRC:
+	    		captured.longSrc = toCoordinate(value);
+	    		continue;
+	    	case LONG_DST:
+	    		captured.longDst = toCoordinate(value);
+	    		continue;
+	    	default:
+	    		if (step.type != FieldPlan.ValueType.TEXT)
 	    		{
-	    			deviceType = value.toString();
+	    			appendTypedValue(builder, step, value);
 	    		}
-	    		
-	    		String fieldValue = value.toString();
-	    		
-	    		// Apply Country Mapping
-	    		if (field.name().startsWith("country_src") || field.name().startsWith("country_dst"))
+	    		else if (step.valueCache != null && value instanceof Utf8)
 	    		{
-	    			fieldValue = getMappedCountry(fieldValue);  
+	    			Utf8 utf8 = (Utf8)value;
+	    			appendCachedValue(builder, step, utf8.getBytes(), utf8.getByteLength(), config, captured);
 	    		}
-	    		
-	    		// Do we need a truncation to avoid problems with lengthy fields
-	    		if (config.TruncateLength().containsKey(field.name()))
-		    	{
-		    		fieldValue = fieldValue.substring(0, Math.min(fieldValue.length(), config.TruncateLength().get(field.name())));
-		    	}
-	    		
-	    		if (value instanceof Boolean)
+	    		else
 	    		{
-	    			if (fieldValue == "T")
-	    			{
-	    				fieldValue = "true";
-	    			}
-	    			else if (fieldValue == "F")
-	    			{
-	    				fieldValue = "false";
-	    			}
+	    			appendValue(builder, step, value.toString(), config, captured);
 	    		}
-	    		
-	    		byte[] val = fieldValue.getBytes(charset);
-		    	ContentBuilderUtil.appendField(builder, field.name(), val);
-		    	
-		    	// If the Severity field contains a numeric value it should also be written into severity_num
-		    	if (field.name().equals("severity") && StringUtils.isNumeric(fieldValue))
-		    	{
-		    		ContentBuilderUtil.appendField(builder, "severity_num", val);
-		    	}
 	    	}
 	    }
-	        
-	    // Check if we got valid GEO IP Info
-	    if (latSrc != null && longSrc != null)
-	    {
-	    	if  (config.KibanaVersion() > 3)
-	    	{
-	    		builder.startObject("location_src");
-	    		builder.field("lat", correctLatitude(Double.parseDouble(latSrc)));
-	    		builder.field("lon", correctLongitude(Double.parseDouble(longSrc)));
-	    		builder.endObject();
-	    	}
-	    	else
-	    	{
-	    		builder.field("location_src", Lists.newArrayList(Double.parseDouble(longSrc), Double.parseDouble(latSrc)));	
-	    	}
-	    }
-	    
-	    if (latDst != null && longDst != null)
-	    {
-	    	if  (config.KibanaVersion() > 3)
-	    	{
-	    		builder.startObject("location_dst");
-	    		builder.field("lat", correctLatitude(Double.parseDouble(latDst)));
-	    		builder.field("lon", correctLongitude(Double.parseDouble(longDst)));
-	    		builder.endObject();
-	    	}
-	    	else
-	    	{
-	    		builder.field("location_dst", Lists.newArrayList(Double.parseDouble(longDst), Double.parseDouble(latDst)));
-	    	}
-	    }
-	    
-        builder.endObject();   
-
-        // Now let's set the TimeStamp
-        // First we user event_time, if present, to get the "real" time, when the event occured
-        // Then we use the Time, which was present in the event
-        // If not, we use the Time of the Flume event
-        Long timestamp = 0L;
-        if (eventTime > 0L) {
-        	int correction = 0;
-        	if (config.TimeCorrection().containsKey(deviceType))
-        	{
-        		correction = (int)config.TimeCorrection().get(deviceType);
-        	}       	
-        	timestamp = eventTime + ((long)correction * 3600L); // The Real Event Time and adjust by adding the time correction (negative time correction to be denoted in the xml)
-        } else if (time > 0L) {
-        	timestamp = time;      // The Capture time of the event
-        } else {
-        	timestamp = (Long)datum.get("time");
-        }
-        
-        // Convert to milliseconds first
-    	timestamp = timestamp * 1000L;
-    	Date date = new Date(timestamp);
-    	SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
-    	sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
-    	String formattedDate = sdf.format(date);
-    	builder.field("@timestamp", formattedDate);
-   	
-	    // Set the Decoder Name as Source
-		ContentBuilderUtil.appendField(builder, "@source", decoderName.getBytes(charset));
+	    return true;
 	  }
-  
+	  
+	  /**
+	   * Writes the value of a typed field as JSON number or boolean
+	   */
+	  private static void appendTypedValue(XContentBuilder builder, FieldPlan.Step step, Object value)
+	      throws IOException {
+		  switch (step.type)
+		  {
+		  case INT:
+			  builder.field(step.name, ((Integer)value).intValue());
+			  break;
+		  case LONG:
+			  builder.field(step.name, ((Long)value).longValue());
+			  break;
+		  case FLOAT:
+			  builder.field(step.name, ((Float)value).floatValue());
+			  break;
+		  case DOUBLE:
+			  builder.field(step.name, ((Double)value).doubleValue());
+			  break;
+		  case BOOLEAN:
+			  builder.field(step.name, ((Boolean)value).booleanValue());
+			  break;
+		  default:
+			  builder.field(step.name, value.toString());
+		  }
+	  }
+	  
+	  /**
+	   * Writes the value of a field, after applying Country Mapping and truncation.
+	   * Remembers the device_type and adds severity_num for numeric Severities.
+	   */
+	  static void appendValue(XContentBuilder builder, FieldPlan.Step step, String fieldValue, Config config, CapturedFields captured)
+	      throws IOException {
+		  appendValue(builder, step, encodeValue(step, fieldValue, config), captured);
+	  }
+	  
+	  /**
+	   * Writes the value of a field, which has the Value Cache of the step.
+	   * The Country Mapping and truncation are only applied for values, which are not cached yet.
+	   */
+	  static void appendCachedValue(XContentBuilder builder, FieldPlan.Step step, byte[] raw, int length, Config config, CapturedFields captured)
+	      throws IOException {
+		  ValueCache.Value value = step.valueCache.get(raw, length);
+		  if (value == null)
+		  {
+			  value = step.valueCache.put(raw, length, encodeValue(step, new String(raw, 0, length, charset), config));
+		  }
+		  appendValue(builder, step, value, captured);
+	  }
+	  
+	  private static void appendValue(XContentBuilder builder, FieldPlan.Step step, ValueCache.Value value, CapturedFields captured)
+	      throws IOException {
+		  
+    	if (step.action == FieldPlan.Action.DEVICE_TYPE)
+    	{
+    		// Store device_type, so that we can use it later for event_time correction
+    		captured.deviceType = value.text;
+    	}
+    	
+    	ContentBuilderUtil.appendField(builder, step.name, value.bytes);
+    	
+    	// If the Severity field contains a numeric value it should also be written into severity_num
+    	if (step.action == FieldPlan.Action.SEVERITY && value.numeric)
+    	{
+    		ContentBuilderUtil.appendField(builder, "severity_num", value.bytes);
+    	}
+	  }
+	  
+	  /**
+	   * Applies Country Mapping and truncation to the value of a field
+	   */
+	  private static ValueCache.Value encodeValue(FieldPlan.Step step, String fieldValue, Config config)
+	  {
+		String text = fieldValue;
+    	if (step.action == FieldPlan.Action.COUNTRY)
+    	{
+    		fieldValue = getMappedCountry(fieldValue, config);
+    	}
+    	
+    	// Do we need a truncation to avoid problems with lengthy fields
+    	if (step.truncateLength >= 0)
+    	{
+    		fieldValue = fieldValue.substring(0, Math.min(fieldValue.length(), step.truncateLength));
+    	}
+    	
+    	return new ValueCache.Value(null, text, fieldValue.getBytes(charset), StringUtils.isNumeric(fieldValue));
+	  }
+	  
+	  /**
+	   * Writes a location as geo_point, for Kibana 3 as [lon, lat] array.
+	   * If configured, the geohash of the location is written as well.
+	   */
+	  private void appendLocation(XContentBuilder builder, String name, String geoHashName, double latitude, double longitude, Config config)
+	      throws IOException {
+		  if (Double.isNaN(latitude) || Double.isNaN(longitude))
+		  {
+			  return;
+		  }
+		  
+		  if  (config.KibanaVersion() > 3)
+		  {
+			  latitude = correctLatitude(latitude);
+			  longitude = correctLongitude(longitude);
+			  builder.startObject(name);
+			  builder.field("lat", latitude);
+			  builder.field("lon", longitude);
+			  builder.endObject();
+		  }
+		  else
+		  {
+			  builder.startArray(name).value(longitude).value(latitude).endArray();
+		  }
+		  
+		  if (config.GeoHashPrecision() > 0)
+		  {
+			  builder.field(geoHashName, GeoHash.encode(correctLatitude(latitude), correctLongitude(longitude), config.GeoHashPrecision()));
+		  }
+	  }
+	  
+	  private void appendSampleRate(XContentBuilder builder, Event event)
+	      throws IOException {
+		  String sampleRate = event.getHeaders().get(EventHeaders.SAMPLE_RATE);
+		  if (sampleRate == null)
+		  {
+			  return;
+		  }
+		  try
+		  {
+			  builder.field("sample_rate", Integer.parseInt(sampleRate));
+		  } catch (NumberFormatException e) {
+			  logger.warn("Invalid sample rate: " + sampleRate);
+		  }
+	  }
+	  
+	  /**
+	   * Converts the value of a coordinate field without going through its text, if it is numeric
+	   */
+	  private static double toCoordinate(Object value)
+	  {
+		  if (value instanceof Double || value instanceof Integer || value instanceof Long)
+		  {
+			  return ((Number)value).doubleValue();
+		  }
+		  return parseCoordinate(value.toString());
+	  }
+	  
+	  /**
+	   * Parses a coordinate, which is not numeric in the schema.
+	   * 
+	   * @return NaN, if it is not a number, so that the location is left out
+	   */
+	  static double parseCoordinate(String text)
+	  {
+		  try
+		  {
+			  return Double.parseDouble(text);
+		  } catch (NumberFormatException e) {
+			  return Double.NaN;
+		  }
+	  }
+	  
 	  /**
 	   *  The Longitude must be between -180..180
 	   *  Some systems deliver it as 0..360 
@@ -326,23 +538,7 @@ public class FlumeAvroEventDeserializer  implements
 	  	return ((latitude + 90) % 180) - 90;
 	  }
 	  
-	  private boolean includeOrExcludeField(String field)
-	  {
-		// Do we need to ignore the field?
-		if (config.ExcludedFields(decoderName).contains(field))
-	    {
-			return false;
-	    }
-	    	
-	    // Do we need to include the field?
-	    if (config.IncludedFields(decoderName).contains(field) || config.IncludedFields(decoderName).contains("*"))
-	    {
-	    	return true;
-	    }
-	    return false;
-	  }
-	  
-	  private String getMappedCountry(String country)
+	  private static String getMappedCountry(String country, Config config)
 	  {
 		  if (config.CountryMap().containsKey(country))
 		  {
@@ -351,6 +547,23 @@ public class FlumeAvroEventDeserializer  implements
 		  return country;
 	  }
 	  
+	  /**
+	   * The decoder name is taken from the "ng_source" field. If it is not present
+	   * it is extracted from the filename.
+	   * 
+	   * @param ngSource
+	   * @param event
+	   * @return
+	   */
+	  static String getDecoderName(Object ngSource, Event event)
+	  {
+		  if (ngSource != null)
+		  {
+			  return ngSource.toString();
+		  }
+		  return getDecoderNameFromFile(event.getHeaders().get("file"));
+	  }
+	  
 	  /**
 	   * In case, we didn't get the decoder name from the "ng_source" field, we will
 	   * try to extract it from the filename.
@@ -358,7 +571,7 @@ public class FlumeAvroEventDeserializer  implements
 	   * @param file
 	   * @return
 	   */
-	  private String getDecoderNameFromFile(String file)
+	  private static String getDecoderNameFromFile(String file)
 	  {
 	      // Get the name of the Decoder out of the filename
 		  // Sample file names:
@@ -369,94 +582,12 @@ public class FlumeAvroEventDeserializer  implements
 	  }
 	  
 	  
-	  /**
-	   * Gets the Schema information out of the Event.
-	   * If it is LITERAL, then parse the schema
-	   * If it is HASH, then compare if the hash changed and reread the schema from the file
-	   * 
-	   * @param event
-	   * @return
-	  */
-	  private Schema getSchema(Event event)
-	  {
-		  Schema schema = null;
-		  Map<String, String> headers = Maps.newHashMap(event.getHeaders());
-		  
-		  if (headers.containsKey("flume.avro.schema.literal"))
-		  {
-			  schema = new Schema.Parser().parse(headers.get("flume.avro.schema.literal"));
-		  }
-		  else if (headers.containsKey("flume.avro.schema.hash"))
-		  {
-			  String hash = headers.get("flume.avro.schema.hash");
-			  if (hash != schemaHash)
-			  {
-				  schemaHash = hash;
-				  schema = readSchemaString(headers.get("file"));
-				  // In rare cases it happens that Flume renames the file, while we were trying to get the schema
-				  // try to read the schema up to 10 times
-				  int count = 0;
-				  while (schema == null && count < 10)
-				  {
-					  try {
-						Thread.sleep(100);
-					  } catch (InterruptedException e) {
-							
-					  }
-					  schema = readSchemaString(headers.get("file"));
-					  count++;
-				  }
-				  
-				  storedSchema = schema;
-			  }
-			  else
-			  {
-				  schema = storedSchema;
-			  }
-		  }
-		  return schema;
-	  }
-	  
-	  private Schema readSchemaString(String file)
-	  {
-		  // See if file still exists or if it had been renamed already by Flume
-		  File f = new File(file);
-		  if (!f.exists())
-		  {
-			  file = file + ".COMPLETED";
-		  }
-		  	  
-		  logger.debug("Using file " + file);
-		  	  
-		  FileReader<?> fileReader = null;
-		  Schema schema = null;
-		  try
-		    {
-			  GenericDatumReader<?> reader = new GenericDatumReader<Object>();
-			  fileReader = DataFileReader.openReader(new File(file), reader);
-			  
-		      schema = fileReader.getSchema();
-		    } catch (IOException e) {
-		    	logger.error("IOException getting schema: " + e.getMessage());
-		    	return null;
-			} catch (NullPointerException e1) {
-				logger.error("NullPointer Exception getting schema: " + e1.getMessage());
-				return null;
-			} finally {
-		      try {
-				fileReader.close();
-		      } catch (IOException e) {
-		    	  return schema;
-		      } catch (NullPointerException e1) {
-					return schema;
-		      }
-		    }
-		  return schema;
-	  }
-	  
 	  @Override
 	  public void configure(Context context) {
-	    // NO-OP...
+		  String encoder = context.getString(ENCODER, ENCODER_GENERIC);
+		  streaming = ENCODER_STREAMING.equalsIgnoreCase(encoder);
+		  logger.info("Using " + (streaming ? ENCODER_STREAMING : ENCODER_GENERIC) + " encoder");
+		  counter.start();
 	  }
 
 	  @Override
@@ -0,0 +1,292 @@
+package com.rsa.flume.serialization;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.interceptor.Interceptor;
+import org.apache.flume.sink.elasticsearch.ElasticSearchEventSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Drops sessions, which have been seen already, e.g. because the Warehouse Connector
+ * exported a file again after a restart.
+ *
+ * A session is identified by the values of the key fields, by default ng_source and sessionid.
+ * If ng_source is a key field and not set, the decoder name is taken from the file name.
+ * The keys are remembered in a RotatingBloomFilter, so the memory doesn't grow with the volume.
+ * Once in a while (at the configured false positive rate) a new session is dropped as duplicate.
+ * Events, which miss one of the key fields or which can't be decoded, are passed on.
+ *
+ * The interceptor runs before the events are put into the channel. If the put fails, the source
+ * delivers the same batch again. Therefore the keys of a batch are only added to the filter, when
+ * a different batch follows, i.e. the batch has been accepted. A batch with the same fingerprint
+ * (file header and bodies) as the last one is delivered again and passes as it did the first time.
+ * A file exported again has another file name, so its sessions are dropped even right after the
+ * original. This relies on the source delivering one batch at a time, as the Spooling Directory
+ * source does, and on its fileHeader being set.
+ */
+public class FlumeDedupInterceptor implements
+	Interceptor {
+
+	private final Logger logger = LoggerFactory.getLogger
+		      (FlumeDedupInterceptor.class);
+
+	// Interceptor property with the comma separated key fields (default ng_source,sessionid)
+	public static final String KEY_FIELDS = "keyFields";
+
+	// Interceptor property for the number of sessions per window (default 1000000)
+	public static final String CAPACITY = "capacity";
+
+	// Interceptor property for the false positive rate (default 0.001)
+	public static final String FALSE_POSITIVE_RATE = "falsePositiveRate";
+
+	// Interceptor property for how long a session is remembered at least, in seconds (default 86400)
+	public static final String WINDOW = "window";
+
+	private static final String NG_SOURCE = "ng_source";
+
+	// Separates the values of the key fields
+	private static final int SEPARATOR = 0;
+
+	private final Projection projection;
+	private final RotatingBloomFilter filter;
+
+	// Keys of the last batch, which are added to the filter, once the batch has been accepted
+	private Set<ByteBuffer> pending = new HashSet<ByteBuffer>();
+	private HashCode lastBatch;
+
+	// Each interceptor of the agent gets its own counter group
+	private static final AtomicInteger instances = new AtomicInteger();
+	private final DedupCounter counter;
+
+	private FlumeDedupInterceptor(Context ctx) {
+		String keyFields = ctx.getString(KEY_FIELDS, NG_SOURCE + ",sessionid");
+		List<String> fields = new ArrayList<String>();
+		for (String field : keyFields.split(","))
+		{
+			if (!field.trim().isEmpty())
+			{
+				fields.add(field.trim());
+			}
+		}
+		projection = new Projection(fields);
+
+		long capacity = ctx.getLong(CAPACITY, 1000000L);
+		double falsePositiveRate = Double.parseDouble(ctx.getString(FALSE_POSITIVE_RATE, "0.001"));
+		long window = ctx.getLong(WINDOW, 86400L);
+		filter = new RotatingBloomFilter(capacity, falsePositiveRate, window * 1000);
+		counter = new DedupCounter("FlumeDedupInterceptor-" + instances.incrementAndGet(), filter);
+
+		logger.info("Dropping duplicate sessions by " + fields + ", remembering " + capacity + " sessions per "
+				+ window + " seconds at a false positive rate of " + falsePositiveRate);
+	}
+
+	@Override
+	public void close() {
+		counter.stop();
+	}
+
+	@Override
+	public void initialize() {
+		counter.start();
+	}
+
+	@Override
+	public Event intercept(Event event) {
+		counter.addToEventsIn(1);
+		if (dedup(Collections.singletonList(event)).isEmpty())
+		{
+			return null;
+		}
+		counter.addToEventsOut(1);
+		return event;
+	}
+
+	@Override
+	public List<Event> intercept(List<Event> events) {
+		counter.addToEventsIn(events.size());
+		List<Event> kept = dedup(events);
+		counter.addToEventsOut(kept.size());
+
+		int removedEvents = events.size() - kept.size();
+		if (removedEvents > 0)
+		{
+			logger.debug("Dropped duplicate Events: " + removedEvents);
+		}
+		return kept;
+	}
+
+	/**
+	 * @return the events of the batch, which are not duplicates
+	 */
+	private synchronized List<Event> dedup(List<Event> events)
+	{
+		boolean redelivered = isRedelivered(events);
+		if (!redelivered)
+		{
+			// The last batch has been accepted
+			for (ByteBuffer key : pending)
+			{
+				filter.add(key.array());
+			}
+			pending = new HashSet<ByteBuffer>();
+		}
+
+		// The keys of a batch delivered again are still pending, so it passes as it did the first time
+		List<Event> kept = new ArrayList<Event>(events.size());
+		Set<ByteBuffer> batchKeys = new HashSet<ByteBuffer>();
+		for (Event event : events)
+		{
+			byte[] key = getKey(event);
+			if (key == null)
+			{
+				counter.incrementUnkeyed();
+				kept.add(event);
+				continue;
+			}
+
+			ByteBuffer batchKey = ByteBuffer.wrap(key);
+			if (batchKeys.contains(batchKey))
+			{
+				counter.incrementSuppressed();
+			}
+			else if (filter.contains(key))
+			{
+				// Remembered for another window, as long as the session keeps coming
+				filter.add(key);
+				counter.incrementSuppressed();
+			}
+			else
+			{
+				if (redelivered)
+				{
+					counter.incrementRedelivered();
+				}
+				batchKeys.add(batchKey);
+				kept.add(event);
+			}
+		}
+
+		if (!redelivered)
+		{
+			pending = batchKeys;
+		}
+		return kept;
+	}
+
+	/**
+	 * @return true, if the batch is the last one delivered again, i.e. it has the same file and bodies
+	 */
+	private boolean isRedelivered(List<Event> events)
+	{
+		if (events.isEmpty())
+		{
+			return false;
+		}
+
+		Hasher hasher = Hashing.murmur3_128().newHasher();
+		String file = events.get(0).getHeaders().get(SchemaCache.FILE_HEADER);
+		if (file != null)
+		{
+			hasher.putString(file, ElasticSearchEventSerializer.charset);
+		}
+		for (Event event : events)
+		{
+			byte[] body = event.getBody();
+			hasher.putInt(body.length).putBytes(body);
+		}
+		HashCode fingerprint = hasher.hash();
+		if (fingerprint.equals(lastBatch))
+		{
+			return true;
+		}
+		lastBatch = fingerprint;
+		return false;
+	}
+
+	/**
+	 * @return the values of the key fields, or null, if one of them is not set
+	 */
+	private byte[] getKey(Event event)
+	{
+		Schema schema = SchemaCache.getinstance().getSchema(event.getHeaders());
+		if (schema == null)
+		{
+			counter.incrementSchemaFailures();
+			return null;
+		}
+
+		GenericRecord datum;
+		try
+		{
+			datum = projection.read(schema, event.getBody());
+		} catch (Exception e) {
+			counter.incrementDecodeErrors();
+			return null;
+		}
+
+		ByteArrayOutputStream key = new ByteArrayOutputStream(64);
+		for (String field : projection.FieldNames())
+		{
+			Object value = datum.get(field);
+			if (value == null && field.equals(NG_SOURCE))
+			{
+				value = getDecoderName(event);
+			}
+			if (value == null)
+			{
+				return null;
+			}
+			byte[] bytes = value.toString().getBytes(ElasticSearchEventSerializer.charset);
+			key.write(bytes, 0, bytes.length);
+			key.write(SEPARATOR);
+		}
+		return key.toByteArray();
+	}
+
+	private static String getDecoderName(Event event)
+	{
+		String decoderName = event.getHeaders().get(EventHeaders.DECODER);
+		if (decoderName != null)
+		{
+			return decoderName;
+		}
+		try
+		{
+			return FlumeAvroEventDeserializer.getDecoderName(null, event);
+		} catch (RuntimeException e) {
+			// No file header or not a Warehouse Connector file name
+			return null;
+		}
+	}
+
+	public static class FlumeDedupInterceptorBuilder implements Interceptor.Builder {
+
+        private Context ctx;
+
+        @Override
+        public Interceptor build() {
+            return new FlumeDedupInterceptor(ctx == null ? new Context() : ctx);
+        }
+
+        @Override
+        public void configure(Context context) {
+        this.ctx = context;
+        }
+	}
+}
@@ -0,0 +1,131 @@
+package com.rsa.flume.serialization;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.avro.Schema;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.interceptor.Interceptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drops the sessions, which match one of the Filter expressions in FlumeAvroEventDeserializer.xml,
+ * so that noise is discarded at the source instead of being indexed.
+ *
+ * Only the fields referenced by the expressions are decoded. The expressions are taken from the
+ * Config snapshot, so changes of the file apply without restarting the agent.
+ * Events, which can't be decoded, are passed on.
+ */
+public class FlumeFilterInterceptor implements
+	Interceptor {
+
+	private final Logger logger = LoggerFactory.getLogger
+		      (FlumeFilterInterceptor.class);
+
+	// Each interceptor of the agent gets its own counter group
+	private static final AtomicInteger instances = new AtomicInteger();
+	private final FilterCounter counter = new FilterCounter("FlumeFilterInterceptor-" + instances.incrementAndGet());
+
+	private FlumeFilterInterceptor(Context ctx) {
+		if (Config.getinstance().EventFilter() == null)
+		{
+			logger.warn("No Filter expressions configured. All sessions are passed on");
+		}
+	}
+
+	@Override
+	public void close() {
+		counter.stop();
+	}
+
+	@Override
+	public void initialize() {
+		counter.start();
+	}
+
+	@Override
+	public Event intercept(Event event) {
+		counter.addToEventsIn(1);
+		EventFilter filter = Config.getinstance().EventFilter();
+		if (filter != null && isFiltered(event, filter))
+		{
+			counter.incrementDroppedFilter();
+			return null;
+		}
+		counter.addToEventsOut(1);
+		return event;
+	}
+
+	@Override
+	public List<Event> intercept(List<Event> events) {
+		counter.addToEventsIn(events.size());
+
+		// The Config snapshot is taken once per batch
+		EventFilter filter = Config.getinstance().EventFilter();
+		if (filter == null)
+		{
+			counter.addToEventsOut(events.size());
+			return events;
+		}
+
+		List<Event> kept = new ArrayList<Event>(events.size());
+		for (Event event : events)
+		{
+			if (isFiltered(event, filter))
+			{
+				counter.incrementDroppedFilter();
+			}
+			else
+			{
+				kept.add(event);
+			}
+		}
+		counter.addToEventsOut(kept.size());
+
+		int removedEvents = events.size() - kept.size();
+		if (removedEvents > 0)
+		{
+			logger.debug("Dropped filtered Events: " + removedEvents);
+		}
+		return kept;
+	}
+
+	/**
+	 * @return true, if the event matches one of the expressions
+	 */
+	private boolean isFiltered(Event event, EventFilter filter)
+	{
+		Schema schema = SchemaCache.getinstance().getSchema(event.getHeaders());
+		if (schema == null)
+		{
+			counter.incrementSchemaFailures();
+			return false;
+		}
+
+		try
+		{
+			return filter.matches(schema, event.getBody());
+		} catch (Exception e) {
+			counter.incrementDecodeErrors();
+			return false;
+		}
+	}
+
+	public static class FlumeFilterInterceptorBuilder implements Interceptor.Builder {
+
+        private Context ctx;
+
+        @Override
+        public Interceptor build() {
+            return new FlumeFilterInterceptor(ctx == null ? new Context() : ctx);
+        }
+
+        @Override
+        public void configure(Context context) {
+        this.ctx = context;
+        }
+	}
+}
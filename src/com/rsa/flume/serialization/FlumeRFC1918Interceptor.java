@@ -1,31 +1,29 @@
 package com.rsa.flume.serialization;
 
 import java.io.EOFException;
-import java.io.File;
-import java.io.IOException;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
-import java.util.Iterator;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.avro.Schema;
-import org.apache.avro.file.DataFileReader;
-import org.apache.avro.file.FileReader;
-import org.apache.avro.generic.GenericData;
-import org.apache.avro.generic.GenericDatumReader;
 import org.apache.avro.generic.GenericRecord;
-import org.apache.avro.io.BinaryDecoder;
-import org.apache.avro.io.DatumReader;
-import org.apache.avro.io.DecoderFactory;
+import org.apache.flume.ChannelException;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.apache.flume.interceptor.Interceptor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.Maps;
-
+/**
+ * Drops sessions with private addresses and optionally stamps the derived headers for the serializer.
+ *
+ * With asyncSchema the schemas of unknown hashes are read on background threads, while the other events
+ * of the batch are processed. This is not non-blocking: the source thread still waits for up to parkTimeout
+ * milliseconds per batch for the schemas, as every event has to be passed on or dropped before the source
+ * commits the batch. If they haven't been read by then, the batch is refused with a ChannelException and
+ * delivered again. It is counted as events in only, once it has been processed.
+ */
 public class FlumeRFC1918Interceptor implements
 	Interceptor {
 
@@ -33,108 +31,273 @@ public class FlumeRFC1918Interceptor implements
 		      (FlumeRFC1918Interceptor.class);
 
 	
-	private String schemaHash = null;
-	private Schema storedSchema;
+	// Interceptor property to decode only the fields needed for filtering (default true)
+	public static final String PROJECTED_DECODE = "projectedDecode";
+	
+	// Interceptor property to put the derived values into the headers for the serializer (default false)
+	public static final String STAMP_HEADERS = "stampHeaders";
+	
+	// The fields, which are needed to decide, if a session is dropped
+	private static final Projection projection = new Projection("medium", "ip_src", "ip_dst");
+	
+	// The fields, which are needed in addition for the headers
+	private static final Projection stampProjection = new Projection("medium", "ip_src", "ip_dst",
+			"ng_source", "time", "event_time", "device_type");
+	
+	// Interceptor property to process the events of a batch in parallel (default false)
+	public static final String PARALLEL_BATCH = "parallelBatch";
+	
+	// Interceptor property to read schemas from the files in the background (default false).
+	// The other events of the batch are processed, while the events wait for their schema
+	public static final String ASYNC_SCHEMA = "asyncSchema";
+	
+	// Interceptor property for how long a batch waits for the schemas in milliseconds (default 5000).
+	// If they haven't been read by then, the source has to deliver the batch again
+	public static final String PARK_TIMEOUT = "parkTimeout";
 	
-	private Schema schema;
-	private BinaryDecoder decoder = null;
-	private Config config = null;
+	private boolean projectedDecode = true;
+	private boolean stampHeaders = false;
+	private boolean parallelBatch = false;
+	private boolean asyncSchema = false;
+	private long parkTimeout = 5000;
+	
+	// Each interceptor of the agent gets its own counter group
+	private static final AtomicInteger instances = new AtomicInteger();
+	private final InterceptorCounter counter = new InterceptorCounter("FlumeRFC1918Interceptor-" + instances.incrementAndGet());
 	
 	private FlumeRFC1918Interceptor(Context ctx) {
-		config = Config.getinstance();
+		if (ctx != null)
+		{
+			projectedDecode = ctx.getBoolean(PROJECTED_DECODE, true);
+			stampHeaders = ctx.getBoolean(STAMP_HEADERS, false);
+			parallelBatch = ctx.getBoolean(PARALLEL_BATCH, false);
+			asyncSchema = ctx.getBoolean(ASYNC_SCHEMA, false);
+			parkTimeout = ctx.getLong(PARK_TIMEOUT, 5000L);
+		}
 	}
 	
 	@Override
 	public void close() {
-		// TODO Auto-generated method stub
+		counter.stop();
 	}
 
 	@Override
 	public void initialize() {
+		counter.start();
 	}
 
 	@Override
 	public Event intercept(Event event) {
-		schema = getSchema(event);
+		counter.addToEventsIn(1);
+		Event result = intercept(event, Config.getinstance());
+		if (result != null)
+		{
+			counter.addToEventsOut(1);
+		}
+		return result;
+	}
+	
+	// The Config snapshot is taken once per batch
+	private Event intercept(Event event, Config config) {
+		long start = System.nanoTime();
+		Schema schema = SchemaCache.getinstance().getSchema(event.getHeaders());
+		long decodeStart = System.nanoTime();
+		counter.schemaLookup.record(decodeStart - start);
 		if (schema == null)
 		{
+			counter.incrementSchemaFailures();
 			logger.error("Couldn't get a valid Schema. Abort processing of Event");
 			return null;
 		}
 		
-		DatumReader<GenericRecord> reader = new GenericDatumReader<>(schema);
-		decoder = DecoderFactory.get().binaryDecoder(event.getBody(), decoder);
-	    GenericRecord datum = new GenericData.Record(schema);
+	    GenericRecord datum = null;
 	    try {
-			datum = reader.read(datum, decoder);
+			if (projectedDecode)
+			{
+				datum = (stampHeaders ? stampProjection : projection).read(schema, event.getBody());
+			}
+			else
+			{
+				datum = RecordReader.read(schema, event.getBody());
+			}
 		} 
 	    catch (EOFException eof)
 	    {
+	    	counter.incrementDecodeEOFs();
 	    	return event;
 	    }
 	    catch (Exception e) {
+	    	counter.incrementDecodeErrors();
 			return event;
 		}
-		
-	    Object medium = datum.get("medium");
-	    if (medium != null && (int)medium == 32)
+	    long classifyStart = System.nanoTime();
+	    counter.decode.record(classifyStart - decodeStart);
+	    
+	    boolean drop = classify(event, schema, datum, config);
+	    counter.classify.record(System.nanoTime() - classifyStart);
+	    if (drop)
 	    {
-	    	return event;
+	    	counter.incrementDroppedPrivate();
+	    	return null;
+	    }
+	    return event;
+	}
+	
+	/**
+	 * Stamps the headers and checks the addresses
+	 * 
+	 * @return true, if the event is dropped because of a private address
+	 */
+	private boolean classify(Event event, Schema schema, GenericRecord datum, Config config)
+	{
+	    if (stampHeaders)
+	    {
+	    	stamp(event, schema, datum, config);
 	    }
 	    
-	    String ipSrc = null;
-	    String ipDst = null;
-	    
-	    try
+	    if (!config.IgnoreRFC1918())
 	    {
-		    ipSrc = datum.get("ip_src").toString();
-		    ipDst = datum.get("ip_dst").toString();	    	
-	    } catch (Exception ex) {
+	    	return false;
 	    }
 		
-	    if (ipSrc == null && ipDst == null)
+	    Object medium = datum.get("medium");
+	    if (medium != null && (int)medium == 32)
 	    {
-	    	return event;
+	    	return false;
 	    }
 	    
-		InetAddress srcip = null;
-	    InetAddress dstip = null;
-		try {
-			srcip = InetAddress.getByName(ipSrc);
-			dstip = InetAddress.getByName(ipDst);
-		} catch (UnknownHostException e) {
+	    // Literals are checked without the resolver. Missing or invalid addresses are not private
+	    CidrMatcher privateNetworks = config.PrivateNetworks();
+	    return privateNetworks.contains(datum.get("ip_src")) || privateNetworks.contains(datum.get("ip_dst"));
+	}
+
+	/**
+	 * Puts the decoder name, the TimeStamp, the device type and the schema fingerprint into the headers,
+	 * so that the serializer doesn't need to derive them again.
+	 * The TimeStamp is also set as Flume "timestamp" header, which the ElasticSearch sink uses for the index name.
+	 * 
+	 * @param event
+	 * @param schema
+	 * @param datum
+	 * @param config
+	 */
+	private void stamp(Event event, Schema schema, GenericRecord datum, Config config)
+	{
+		CapturedFields captured;
+		long timestamp;
+		try
+		{
+			captured = CapturedFields.fromRecord(datum, event, config);
+			timestamp = captured.timestamp(config);
+		} catch (RuntimeException e) {
+			// No decoder name or no usable time in the event. The serializer will handle it
+			logger.debug("Headers not stamped: " + e.toString());
+			return;
 		}
-			
-	    if (srcip.isSiteLocalAddress() || dstip.isSiteLocalAddress())
-	    {
-	      	return null;
-	    }
-	    return event;
+		
+		Map<String, String> headers = event.getHeaders();
+		headers.put(EventHeaders.DECODER, captured.decoderName);
+		headers.put(EventHeaders.DEVICE_TYPE, captured.deviceType);
+		headers.put(EventHeaders.SCHEMA_FINGERPRINT, Long.toString(SchemaCache.getinstance().getFingerprint(schema)));
+		headers.put(EventHeaders.TIMESTAMP, Long.toString(timestamp));
+		headers.put(EventHeaders.FLUME_TIMESTAMP, Long.toString(timestamp));
 	}
 
 	@Override
 	public List<Event> intercept(List<Event> events) {
-		if (!config.IgnoreRFC1918())
+		final Config config = Config.getinstance();
+		if (!config.IgnoreRFC1918() && !stampHeaders)
 		{
+			counter.addToEventsIn(events.size());
+			counter.addToEventsOut(events.size());
 			return events;
 		}
 		
-		int removedEvents = 0;
-		for (Iterator<Event> iterator = events.iterator(); iterator.hasNext(); ) {
-            Event event =  intercept(iterator.next());
-            if(event == null) {
-                // remove the event
-                iterator.remove();
-                removedEvents++;
-            }
-        }
+		List<Event> results;
+		if (asyncSchema)
+		{
+			// The events, whose schema is read in the background, are processed last
+			ParkedEvents parked = new ParkedEvents();
+			List<Event> ready = new ArrayList<Event>(events.size());
+			for (Event event : events)
+			{
+				if (!parked.park(event))
+				{
+					ready.add(event);
+				}
+			}
+			results = intercept(ready, config);
+			
+			if (parked.size() > 0)
+			{
+				counter.addToParked(parked.size());
+				if (!parked.await(parkTimeout))
+				{
+					// Nothing of the batch is passed on, so that the source doesn't commit the parked events
+					counter.incrementParkTimeouts();
+					throw new ChannelException("Schemas of " + parked.size() + " events haven't been read within "
+							+ parkTimeout + " ms. The batch has to be delivered again");
+				}
+				results = parked.merge(results, intercept(parked.events(), config));
+			}
+		}
+		else
+		{
+			results = intercept(events, config);
+		}
 		
+		// Not before, as a refused batch is delivered again
+		counter.addToEventsIn(events.size());
+		
+		// Keep the remaining events in their order. Removing them from the batch would be quadratic
+		List<Event> kept = new ArrayList<Event>(results.size());
+		for (Event event : results)
+		{
+			if (event != null)
+			{
+				kept.add(event);
+			}
+		}
+		
+		counter.addToEventsOut(kept.size());
+		int removedEvents = events.size() - kept.size();
 		if (removedEvents > 0)
 		{
 			logger.debug("Dropped Events: " + removedEvents);
 		}
 		
-        return events;
+        return kept;
+	}
+	
+	/**
+	 * @return the results of the events in their order, null for the dropped ones
+	 */
+	private List<Event> intercept(List<Event> events, final Config config)
+	{
+		List<Event> results;
+		if (parallelBatch)
+		{
+			try {
+				results = ParallelBatch.map(events, new ParallelBatch.Task<Event, Event>() {
+					@Override
+					public Event apply(Event event) {
+						return intercept(event, config);
+					}
+				});
+			} catch (Exception e) {
+				// intercept() doesn't throw
+				throw new IllegalStateException(e);
+			}
+		}
+		else
+		{
+			results = new ArrayList<Event>(events.size());
+			for (Event event : events)
+			{
+				results.add(intercept(event, config));
+			}
+		}
+		return results;
 	}
 	
 	public static class FlumeRFC1918InterceptorBuilder implements Interceptor.Builder {
@@ -151,81 +314,4 @@ public class FlumeRFC1918Interceptor implements
         this.ctx = context;
         }
 	}
-	
-	  private Schema getSchema(Event event)
-	  {
-		  Schema schema = null;
-		  Map<String, String> headers = Maps.newHashMap(event.getHeaders());
-		  
-		  if (headers.containsKey("flume.avro.schema.literal"))
-		  {
-			  schema = new Schema.Parser().parse(headers.get("flume.avro.schema.literal"));
-		  }
-		  else if (headers.containsKey("flume.avro.schema.hash"))
-		  {
-			  String hash = headers.get("flume.avro.schema.hash");
-			  if (hash != schemaHash)
-			  {
-				  schemaHash = hash;
-				  schema = readSchemaString(headers.get("file"));
-				  // In rare cases it happens that Flume renames the file, while we were trying to get the schema
-				  // try to read the schema up to 10 times
-				  int count = 0;
-				  while (schema == null && count < 10)
-				  {
-					  try {
-						Thread.sleep(100);
-					  } catch (InterruptedException e) {
-							
-					  }
-					  schema = readSchemaString(headers.get("file"));
-					  count++;
-				  }
-				  
-				  storedSchema = schema;
-			  }
-			  else
-			  {
-				  schema = storedSchema;
-			  }
-		  }
-		  return schema;
-	  }
-	  
-	  private Schema readSchemaString(String file)
-	  {
-		  // See if file still exists or if it had been renamed already by Flume
-		  File f = new File(file);
-		  if (!f.exists())
-		  {
-			  file = file + ".COMPLETED";
-		  }
-		    	  
-		  FileReader<?> fileReader = null;
-		  Schema schema = null;
-		  try
-		    {
-			  GenericDatumReader<?> reader = new GenericDatumReader<Object>();
-			  fileReader = DataFileReader.openReader(new File(file), reader);
-			  
-		      schema = fileReader.getSchema();
-		    } catch (IOException e) {
-		    	logger.error("IOException getting schema: " + e.getMessage());
-		    	return null;
-			} catch (NullPointerException e1) {
-				logger.error("NullPointer Exception getting schema: " + e1.getMessage());
-				return null;
-			} finally {
-		      try {
-				fileReader.close();
-		      } catch (IOException e) {
-		    	  return schema;
-		      } catch (NullPointerException e1) {
-					return schema;
-		      }
-		    }
-		  return schema;
-	  }
-
 }
-
@@ -0,0 +1,565 @@
+package com.rsa.flume.serialization;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.flume.ChannelException;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.interceptor.Interceptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Replaces the sessions by summaries per interval, for indexes with a long retention.
+ *
+ * The sessions are aggregated in memory into buckets per interval of the event time and per value
+ * of the dimensions (by default ng_source, ip_src, ip_dst and service). A bucket counts the sessions
+ * and sums the metrics (by default size and packets). An interval is flushed, once sessions
+ * of a later interval have arrived or it has been open for longer than the interval in processing time,
+ * in both cases after waiting for late sessions. As soon as there are more buckets than allowed, the oldest
+ * intervals are flushed early, even in the middle of a batch. This bounds the memory. Late sessions
+ * of a flushed interval go into a new summary.
+ * The intervals are checked after every batch and every second by a timer, all buckets are flushed on close().
+ *
+ * The summaries of a flush are written as Avro container file with the rollup schema into the configured
+ * directory, which is read by a Spooling Directory source of its own, so that the summaries are serialized
+ * by the FlumeAvroEventDeserializer like sessions and go into their own index. They don't depend on a batch
+ * of the sessions being committed. The file is written under a hidden name and renamed, when it is complete.
+ * If it can't be written, the buckets are kept and written with the next flush. While there are more buckets
+ * than allowed, because they can't be written, batches are refused with a ChannelException, so that the source
+ * delivers them again later. So the buckets exceed the limit by at most one batch.
+ *
+ * A batch, which is identical to the previous one, has been delivered again by the source after a
+ * failed put. Its sessions have been aggregated already and are only passed on.
+ */
+public class FlumeRollupInterceptor implements
+	Interceptor {
+
+	private final Logger logger = LoggerFactory.getLogger
+		      (FlumeRollupInterceptor.class);
+
+	// Interceptor property for the length of an interval in seconds (default 60)
+	public static final String INTERVAL = "interval";
+
+	// Interceptor property for how long to wait for late sessions in seconds (default 60)
+	public static final String LATENESS = "lateness";
+
+	// Interceptor property with the comma separated dimensions (default ng_source,ip_src,ip_dst,service)
+	public static final String DIMENSIONS = "dimensions";
+
+	// Interceptor property with the comma separated fields, which are summed up (default size,packets)
+	public static final String METRICS = "metrics";
+
+	// Interceptor property for the maximum number of open buckets (default 100000)
+	public static final String MAX_BUCKETS = "maxBuckets";
+
+	// Interceptor property to pass the sessions on as well (default false)
+	public static final String PASS_THROUGH = "passThrough";
+
+	// Interceptor property with the directory, into which the summaries are written (required)
+	public static final String DIRECTORY = "directory";
+
+	// How often the timer checks for complete intervals
+	private static final long FLUSH_MILLIS = 1000;
+
+	// Dimension value in the key of a bucket, which is not set
+	private static final String NULL_VALUE = "-";
+
+	private static final String NG_SOURCE = "ng_source";
+
+	// Fields of the rollup schema besides the dimensions and metrics
+	private static final String TIME = "time";
+	private static final String SESSIONS = "sessions";
+	private static final String ROLLUP_INTERVAL = "rollup_interval";
+
+	/**
+	 * Aggregated sessions of an interval with the same dimension values
+	 */
+	private static final class Bucket {
+		final String[] dimensions;
+		final long[] sums;
+		long sessions = 0;
+
+		Bucket(String[] dimensions, int metrics)
+		{
+			this.dimensions = dimensions;
+			this.sums = new long[metrics];
+		}
+	}
+
+	/**
+	 * The buckets of an interval
+	 */
+	private static final class Interval {
+		final long created = System.currentTimeMillis();
+		final Map<String, Bucket> buckets = new HashMap<String, Bucket>();
+	}
+
+	private final long intervalMillis;
+	private final long latenessMillis;
+	private final int maxBuckets;
+	private final boolean passThrough;
+	private final List<String> dimensions;
+	private final List<String> metrics;
+	private final Projection projection;
+	private final Schema rollupSchema;
+	private final File directory;
+	private final String filePrefix;
+	private final AtomicLong files = new AtomicLong();
+	private ScheduledExecutorService timer;
+
+	// Open intervals by their start in milliseconds
+	private final TreeMap<Long, Interval> intervals = new TreeMap<Long, Interval>();
+	private int openBuckets = 0;
+
+	// Latest event time seen so far
+	private long watermark = Long.MIN_VALUE;
+
+	// Fingerprint of the bodies of the last batch, to recognise a batch delivered again
+	private HashCode lastBatch = null;
+
+	// Each interceptor of the agent gets its own counter group
+	private static final AtomicInteger instances = new AtomicInteger();
+	private final int instance = instances.incrementAndGet();
+	private final RollupCounter counter = new RollupCounter("FlumeRollupInterceptor-" + instance);
+
+	private FlumeRollupInterceptor(Context ctx) {
+		String path = ctx.getString(DIRECTORY);
+		if (path == null || path.trim().isEmpty())
+		{
+			throw new IllegalArgumentException("FlumeRollupInterceptor needs the " + DIRECTORY + " for the summaries");
+		}
+		directory = new File(path.trim());
+		filePrefix = "rollup-" + System.currentTimeMillis() + "-" + instance + "-";
+
+		intervalMillis = Math.max(1, ctx.getLong(INTERVAL, 60L)) * 1000;
+		latenessMillis = Math.max(0, ctx.getLong(LATENESS, 60L)) * 1000;
+		maxBuckets = Math.max(1, ctx.getInteger(MAX_BUCKETS, 100000));
+		passThrough = ctx.getBoolean(PASS_THROUGH, false);
+
+		// ng_source is always a dimension, the serializer needs it for @source
+		dimensions = getFields(NG_SOURCE + "," + ctx.getString(DIMENSIONS, "ip_src,ip_dst,service"));
+		metrics = getFields(ctx.getString(METRICS, "size,packets"));
+		metrics.removeAll(dimensions);
+
+		// The time fields and device_type are needed for the TimeStamp
+		LinkedHashSet<String> fields = new LinkedHashSet<String>(Arrays.asList(TIME, "event_time", "device_type"));
+		fields.addAll(dimensions);
+		fields.addAll(metrics);
+		projection = new Projection(new ArrayList<String>(fields));
+
+		rollupSchema = createSchema(dimensions, metrics);
+
+		logger.info("Rolling up sessions per " + intervalMillis / 1000 + " seconds by " + dimensions + ", summing up " + metrics
+				+ " into " + directory);
+	}
+
+	@Override
+	public void close() {
+		if (timer != null)
+		{
+			timer.shutdown();
+			try
+			{
+				timer.awaitTermination(FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		flush(true);
+		synchronized (this)
+		{
+			if (openBuckets > 0)
+			{
+				logger.error("Closing with " + openBuckets + " buckets, which couldn't be written. Their summaries are lost");
+			}
+		}
+		counter.stop();
+	}
+
+	@Override
+	public void initialize() {
+		if (!directory.isDirectory() && !directory.mkdirs())
+		{
+			logger.error("Can't create the directory " + directory + " for the summaries");
+		}
+		timer = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setNameFormat("FlumeRollupInterceptor-" + instance + "-flush").setDaemon(true).build());
+		timer.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run()
+			{
+				flush(false);
+			}
+		}, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+		counter.start();
+	}
+
+	@Override
+	public Event intercept(Event event) {
+		List<Event> results = intercept(Collections.singletonList(event));
+		return results.isEmpty() ? null : event;
+	}
+
+	@Override
+	public List<Event> intercept(List<Event> events) {
+		counter.addToEventsIn(events.size());
+
+		// Before the batch is remembered, so that it is aggregated, when the source delivers it again
+		checkBuckets();
+		if (isRedelivered(events))
+		{
+			counter.incrementRedelivered();
+		}
+		else
+		{
+			Config config = Config.getinstance();
+			for (Event event : events)
+			{
+				aggregate(event, config);
+			}
+			flush(false);
+		}
+
+		if (!passThrough)
+		{
+			return new ArrayList<Event>();
+		}
+		counter.addToEventsOut(events.size());
+		return events;
+	}
+
+	/**
+	 * Refuses the batch, if there are more buckets than allowed, because their summaries couldn't be written.
+	 * Flushes the buckets first, in case the directory can be written again.
+	 *
+	 * @throws ChannelException if there are still too many buckets
+	 */
+	private synchronized void checkBuckets()
+	{
+		if (openBuckets <= maxBuckets)
+		{
+			return;
+		}
+		flush(false);
+		if (openBuckets > maxBuckets)
+		{
+			counter.incrementRefused();
+			throw new ChannelException("The summaries of " + openBuckets + " buckets can't be written into " + directory
+					+ ". The batch is refused, until they have been written");
+		}
+	}
+
+	/**
+	 * Compares the bodies of the batch with the last one. The Spooling Directory source delivers
+	 * the same events again, if a put has failed, and doesn't go on with other events meanwhile.
+	 *
+	 * @return true, if the batch is the last one delivered again
+	 */
+	private synchronized boolean isRedelivered(List<Event> events)
+	{
+		if (events.isEmpty())
+		{
+			return false;
+		}
+
+		Hasher hasher = Hashing.murmur3_128().newHasher();
+		for (Event event : events)
+		{
+			byte[] body = event.getBody();
+			hasher.putInt(body.length).putBytes(body);
+		}
+		HashCode fingerprint = hasher.hash();
+		if (fingerprint.equals(lastBatch))
+		{
+			return true;
+		}
+		lastBatch = fingerprint;
+		return false;
+	}
+
+	/**
+	 * Adds the session to the bucket of its interval and dimensions
+	 */
+	private void aggregate(Event event, Config config)
+	{
+		Schema schema = SchemaCache.getinstance().getSchema(event.getHeaders());
+		if (schema == null)
+		{
+			counter.incrementSchemaFailures();
+			return;
+		}
+
+		GenericRecord datum;
+		long timestamp;
+		String decoderName = event.getHeaders().get(EventHeaders.DECODER);
+		try
+		{
+			datum = projection.read(schema, event.getBody());
+			String stamped = event.getHeaders().get(EventHeaders.TIMESTAMP);
+			timestamp = stamped != null ? Long.parseLong(stamped) : CapturedFields.fromRecord(datum, event, config).timestamp(config);
+			if (decoderName == null)
+			{
+				decoderName = FlumeAvroEventDeserializer.getDecoderName(datum.get(NG_SOURCE), event);
+			}
+		} catch (Exception e) {
+			// Also sessions without decoder name or time
+			counter.incrementDecodeErrors();
+			return;
+		}
+
+		// ng_source is the first dimension. The values are prefixed by their length, so that no
+		// combination of values, neither a missing one, has the same key as another
+		String[] values = new String[dimensions.size()];
+		values[0] = decoderName;
+		StringBuilder key = new StringBuilder();
+		for (int i = 0; i < values.length; i++)
+		{
+			if (i > 0)
+			{
+				Object value = datum.get(dimensions.get(i));
+				values[i] = value == null ? null : value.toString();
+			}
+			if (values[i] == null)
+			{
+				key.append(NULL_VALUE);
+			}
+			else
+			{
+				key.append(values[i].length()).append(':').append(values[i]);
+			}
+		}
+
+		long start = timestamp - ((timestamp % intervalMillis) + intervalMillis) % intervalMillis;
+		boolean full = false;
+		synchronized (this)
+		{
+			watermark = Math.max(watermark, timestamp);
+
+			Interval interval = intervals.get(start);
+			if (interval == null)
+			{
+				interval = new Interval();
+				intervals.put(start, interval);
+			}
+			Bucket bucket = interval.buckets.get(key.toString());
+			if (bucket == null)
+			{
+				bucket = new Bucket(values, metrics.size());
+				interval.buckets.put(key.toString(), bucket);
+				full = ++openBuckets > maxBuckets;
+			}
+			bucket.sessions++;
+			for (int i = 0; i < metrics.size(); i++)
+			{
+				bucket.sums[i] += toLong(datum.get(metrics.get(i)));
+			}
+		}
+
+		// The memory is bounded within a batch as well
+		if (full)
+		{
+			flush(false);
+		}
+	}
+
+	/**
+	 * Writes the summaries of the intervals, which are complete, or which have to be flushed to free memory
+	 *
+	 * @param all true to write all intervals
+	 */
+	private synchronized void flush(boolean all)
+	{
+		long now = System.currentTimeMillis();
+		int flushedBuckets = 0;
+		int forcedFlushes = 0;
+		List<Map.Entry<Long, Interval>> flushed = new ArrayList<Map.Entry<Long, Interval>>();
+		for (Map.Entry<Long, Interval> entry : intervals.entrySet())
+		{
+			long end = entry.getKey() + intervalMillis;
+			boolean complete = all || end + latenessMillis <= watermark
+					|| now - entry.getValue().created >= intervalMillis + latenessMillis;
+			boolean forced = !complete && openBuckets - flushedBuckets > maxBuckets;
+			if (!complete && !forced)
+			{
+				continue;
+			}
+			if (forced)
+			{
+				forcedFlushes++;
+			}
+			flushed.add(entry);
+			flushedBuckets += entry.getValue().buckets.size();
+		}
+		if (flushed.isEmpty())
+		{
+			return;
+		}
+
+		try
+		{
+			write(flushed);
+		} catch (IOException e) {
+			// The buckets stay open and are written with the next flush
+			counter.incrementWriteErrors();
+			logger.error("Can't write the summaries of " + flushedBuckets + " buckets into " + directory, e);
+			return;
+		}
+
+		for (Map.Entry<Long, Interval> entry : flushed)
+		{
+			intervals.remove(entry.getKey());
+		}
+		openBuckets -= flushedBuckets;
+		for (int i = 0; i < forcedFlushes; i++)
+		{
+			counter.incrementForcedFlushes();
+		}
+		counter.setOpenBuckets(openBuckets);
+		counter.addToSummariesOut(flushedBuckets);
+	}
+
+	/**
+	 * Writes the summaries of the intervals into a new file of the directory
+	 */
+	private void write(List<Map.Entry<Long, Interval>> flushed) throws IOException
+	{
+		String name = filePrefix + files.incrementAndGet() + ".avro";
+		File partial = new File(directory, "." + name + ".tmp");
+		DataFileWriter<GenericRecord> writer = new DataFileWriter<GenericRecord>(new GenericDatumWriter<GenericRecord>(rollupSchema));
+		try
+		{
+			writer.create(rollupSchema, partial);
+			for (Map.Entry<Long, Interval> entry : flushed)
+			{
+				for (Bucket bucket : entry.getValue().buckets.values())
+				{
+					writer.append(summary(entry.getKey(), bucket));
+				}
+			}
+			writer.close();
+		} catch (IOException e) {
+			writer.close();
+			partial.delete();
+			throw e;
+		}
+
+		if (!partial.renameTo(new File(directory, name)))
+		{
+			partial.delete();
+			throw new IOException("Can't rename " + partial + " to " + name);
+		}
+	}
+
+	private GenericRecord summary(long start, Bucket bucket)
+	{
+		GenericData.Record record = new GenericData.Record(rollupSchema);
+		record.put(TIME, start / 1000);
+		record.put(ROLLUP_INTERVAL, intervalMillis / 1000);
+		record.put(SESSIONS, bucket.sessions);
+		for (int i = 0; i < dimensions.size(); i++)
+		{
+			record.put(dimensions.get(i), bucket.dimensions[i]);
+		}
+		for (int i = 0; i < metrics.size(); i++)
+		{
+			record.put(metrics.get(i), bucket.sums[i]);
+		}
+		return record;
+	}
+
+	/**
+	 * Creates the schema of the summaries: time, interval, session count, the dimensions as strings
+	 * and the sums of the metrics
+	 */
+	private static Schema createSchema(List<String> dimensions, List<String> metrics)
+	{
+		Schema optionalString = Schema.createUnion(Arrays.asList(Schema.create(Schema.Type.NULL), Schema.create(Schema.Type.STRING)));
+		List<Schema.Field> fields = new ArrayList<Schema.Field>();
+		fields.add(new Schema.Field(TIME, Schema.create(Schema.Type.LONG), null, null));
+		fields.add(new Schema.Field(ROLLUP_INTERVAL, Schema.create(Schema.Type.LONG), null, null));
+		fields.add(new Schema.Field(SESSIONS, Schema.create(Schema.Type.LONG), null, null));
+		for (String dimension : dimensions)
+		{
+			fields.add(new Schema.Field(dimension, dimension.equals(NG_SOURCE) ? Schema.create(Schema.Type.STRING) : optionalString, null, null));
+		}
+		for (String metric : metrics)
+		{
+			fields.add(new Schema.Field(metric, Schema.create(Schema.Type.LONG), null, null));
+		}
+		Schema schema = Schema.createRecord("rollup", null, "com.rsa.flume.serialization", false);
+		schema.setFields(fields);
+		return schema;
+	}
+
+	private static long toLong(Object value)
+	{
+		if (value instanceof Number)
+		{
+			return ((Number)value).longValue();
+		}
+		if (value != null)
+		{
+			try
+			{
+				return Long.parseLong(value.toString());
+			} catch (NumberFormatException e) {
+				// Not counted
+			}
+		}
+		return 0;
+	}
+
+	private static List<String> getFields(String list)
+	{
+		List<String> fields = new ArrayList<String>();
+		for (String field : list.split(","))
+		{
+			if (!field.trim().isEmpty() && !fields.contains(field.trim()))
+			{
+				fields.add(field.trim());
+			}
+		}
+		return fields;
+	}
+
+	public static class FlumeRollupInterceptorBuilder implements Interceptor.Builder {
+
+        private Context ctx;
+
+        @Override
+        public Interceptor build() {
+            return new FlumeRollupInterceptor(ctx == null ? new Context() : ctx);
+        }
+
+        @Override
+        public void configure(Context context) {
+        this.ctx = context;
+        }
+	}
+}
@@ -0,0 +1,313 @@
+package com.rsa.flume.serialization;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.interceptor.Interceptor;
+import org.apache.flume.sink.elasticsearch.ElasticSearchEventSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Keeps a single device type or Decoder from flooding the pipeline.
+ *
+ * Per device type and per Decoder the sessions can be sampled and rate limited:
+ * <pre>
+ *  deviceSample.ciscoasa = 10       keep 1 in 10 sessions, chosen by the hash of the sessionid
+ *  decoderSample.eb-rng-logdec1 = 4
+ *  deviceRate.ciscoasa = 500        at most 500 sessions per second, further ones are dropped
+ *  decoderRate.* = 5000             "*" applies to each device type or Decoder, which has no own setting
+ *  burstSeconds = 1                 sessions per second, which may pass at once
+ * </pre>
+ * Sampling is deterministic: the same sessionid is kept on every agent. If both a device type and a Decoder
+ * sample rate apply, the larger one is used. Kept sessions are marked with the sample rate in the
+ * "flume.avro.sample_rate" header, which the serializer writes as sample_rate, so that counts can be re-weighted.
+ * Chained sampling interceptors select by the same hash, so their samples are nested, not independent: a session kept
+ * by 1 in a and by 1 in b has a hash divisible by both, it stands for the least common multiple of a and b sessions
+ * (the larger rate, if one divides the other).
+ * Events, which can't be decoded, are passed on.
+ */
+public class FlumeSamplingInterceptor implements
+	Interceptor {
+
+	private final Logger logger = LoggerFactory.getLogger
+		      (FlumeSamplingInterceptor.class);
+
+	// Interceptor property prefixes for the sample rates and the rate limits
+	public static final String DEVICE_SAMPLE = "deviceSample.";
+	public static final String DECODER_SAMPLE = "decoderSample.";
+	public static final String DEVICE_RATE = "deviceRate.";
+	public static final String DECODER_RATE = "decoderRate.";
+
+	// Interceptor property for the burst of the rate limits in seconds (default 1)
+	public static final String BURST_SECONDS = "burstSeconds";
+
+	// Applies to each device type or Decoder without own setting
+	private static final String ANY = "*";
+
+	// The fields, which are needed to select the sessions
+	private static final Projection projection = new Projection("device_type", "ng_source", "sessionid");
+
+	private static final HashFunction hash = Hashing.murmur3_32();
+
+	private final Map<String, Integer> deviceSample;
+	private final Map<String, Integer> decoderSample;
+	private final Map<String, Double> deviceRate;
+	private final Map<String, Double> decoderRate;
+	private final double burstSeconds;
+
+	// Token buckets per device type and per Decoder, created on first use
+	private final ConcurrentMap<String, TokenBucket> deviceBuckets = new ConcurrentHashMap<String, TokenBucket>();
+	private final ConcurrentMap<String, TokenBucket> decoderBuckets = new ConcurrentHashMap<String, TokenBucket>();
+
+	// Each interceptor of the agent gets its own counter group
+	private static final AtomicInteger instances = new AtomicInteger();
+	private final SamplingCounter counter = new SamplingCounter("FlumeSamplingInterceptor-" + instances.incrementAndGet());
+
+	private FlumeSamplingInterceptor(Context ctx) {
+		deviceSample = getSampleRates(ctx.getSubProperties(DEVICE_SAMPLE));
+		decoderSample = getSampleRates(ctx.getSubProperties(DECODER_SAMPLE));
+		deviceRate = getRates(ctx.getSubProperties(DEVICE_RATE));
+		decoderRate = getRates(ctx.getSubProperties(DECODER_RATE));
+		burstSeconds = Double.parseDouble(ctx.getString(BURST_SECONDS, "1"));
+
+		logger.info("Sampling device types " + deviceSample + ", Decoders " + decoderSample
+				+ ". Rate limits for device types " + deviceRate + ", Decoders " + decoderRate);
+	}
+
+	@Override
+	public void close() {
+		counter.stop();
+	}
+
+	@Override
+	public void initialize() {
+		counter.start();
+	}
+
+	@Override
+	public Event intercept(Event event) {
+		counter.addToEventsIn(1);
+		Event result = select(event);
+		if (result != null)
+		{
+			counter.addToEventsOut(1);
+		}
+		return result;
+	}
+
+	@Override
+	public List<Event> intercept(List<Event> events) {
+		counter.addToEventsIn(events.size());
+		List<Event> kept = new ArrayList<Event>(events.size());
+		for (Event event : events)
+		{
+			if (select(event) != null)
+			{
+				kept.add(event);
+			}
+		}
+		counter.addToEventsOut(kept.size());
+
+		int removedEvents = events.size() - kept.size();
+		if (removedEvents > 0)
+		{
+			logger.debug("Dropped Events: " + removedEvents);
+		}
+		return kept;
+	}
+
+	/**
+	 * @return the event, or null, if it has been sampled out or exceeds a rate limit
+	 */
+	private Event select(Event event)
+	{
+		Map<String, String> headers = event.getHeaders();
+		Schema schema = SchemaCache.getinstance().getSchema(headers);
+		if (schema == null)
+		{
+			counter.incrementSchemaFailures();
+			return event;
+		}
+
+		GenericRecord datum;
+		try
+		{
+			datum = projection.read(schema, event.getBody());
+		} catch (Exception e) {
+			counter.incrementDecodeErrors();
+			return event;
+		}
+
+		String deviceType = headers.get(EventHeaders.DEVICE_TYPE);
+		if (deviceType == null)
+		{
+			Object value = datum.get("device_type");
+			deviceType = value == null ? "" : value.toString();
+		}
+		String decoderName = getDecoderName(datum, event);
+
+		int sampleRate = Math.max(lookup(deviceSample, deviceType, 1), lookup(decoderSample, decoderName, 1));
+		if (sampleRate > 1)
+		{
+			if (!isSampled(datum.get("sessionid"), event, sampleRate))
+			{
+				counter.incrementDroppedSampling();
+				return null;
+			}
+			// Sessions may have been sampled by another interceptor already, by the same hash
+			String previous = headers.get(EventHeaders.SAMPLE_RATE);
+			if (previous != null)
+			{
+				try
+				{
+					sampleRate = lcm(sampleRate, Integer.parseInt(previous));
+				} catch (NumberFormatException e) {
+					// Replaced by the own sample rate
+				}
+			}
+			headers.put(EventHeaders.SAMPLE_RATE, Integer.toString(sampleRate));
+		}
+
+		if (!tryAcquire(deviceBuckets, deviceRate, deviceType) || !tryAcquire(decoderBuckets, decoderRate, decoderName))
+		{
+			counter.incrementDroppedRateLimit();
+			return null;
+		}
+		return event;
+	}
+
+	/**
+	 * Keeps 1 in sampleRate sessions by the hash of the sessionid, or of the body, if there is no sessionid
+	 */
+	private static boolean isSampled(Object sessionId, Event event, int sampleRate)
+	{
+		int h;
+		if (sessionId != null)
+		{
+			h = hash.hashString(sessionId.toString(), ElasticSearchEventSerializer.charset).asInt();
+		}
+		else
+		{
+			h = hash.hashBytes(event.getBody()).asInt();
+		}
+		return (h & Integer.MAX_VALUE) % sampleRate == 0;
+	}
+
+	/**
+	 * @return the rate of the sessions kept by both sample rates
+	 */
+	static int lcm(int a, int b)
+	{
+		if (b < 1)
+		{
+			return a;
+		}
+		int x = a, y = b;
+		while (y != 0)
+		{
+			int r = x % y;
+			x = y;
+			y = r;
+		}
+		return a / x * b;
+	}
+
+	private boolean tryAcquire(ConcurrentMap<String, TokenBucket> buckets, Map<String, Double> rates, String key)
+	{
+		if (rates.isEmpty())
+		{
+			return true;
+		}
+
+		TokenBucket bucket = buckets.get(key);
+		if (bucket == null)
+		{
+			Double rate = rates.containsKey(key) ? rates.get(key) : rates.get(ANY);
+			if (rate == null)
+			{
+				return true;
+			}
+			bucket = new TokenBucket(rate, rate * burstSeconds);
+			TokenBucket existing = buckets.putIfAbsent(key, bucket);
+			if (existing != null)
+			{
+				bucket = existing;
+			}
+		}
+		return bucket.tryAcquire();
+	}
+
+	private static int lookup(Map<String, Integer> sampleRates, String key, int defaultValue)
+	{
+		Integer value = sampleRates.get(key);
+		if (value == null)
+		{
+			value = sampleRates.get(ANY);
+		}
+		return value == null ? defaultValue : value;
+	}
+
+	private static String getDecoderName(GenericRecord datum, Event event)
+	{
+		String decoderName = event.getHeaders().get(EventHeaders.DECODER);
+		if (decoderName != null)
+		{
+			return decoderName;
+		}
+		try
+		{
+			return FlumeAvroEventDeserializer.getDecoderName(datum.get("ng_source"), event);
+		} catch (RuntimeException e) {
+			// No file header or not a Warehouse Connector file name
+			return "";
+		}
+	}
+
+	private static Map<String, Integer> getSampleRates(Map<String, String> properties)
+	{
+		Map<String, Integer> sampleRates = new HashMap<String, Integer>();
+		for (Map.Entry<String, String> property : properties.entrySet())
+		{
+			sampleRates.put(property.getKey(), Math.max(1, Integer.parseInt(property.getValue().trim())));
+		}
+		return sampleRates;
+	}
+
+	private static Map<String, Double> getRates(Map<String, String> properties)
+	{
+		Map<String, Double> rates = new HashMap<String, Double>();
+		for (Map.Entry<String, String> property : properties.entrySet())
+		{
+			rates.put(property.getKey(), Double.parseDouble(property.getValue().trim()));
+		}
+		return rates;
+	}
+
+	public static class FlumeSamplingInterceptorBuilder implements Interceptor.Builder {
+
+        private Context ctx;
+
+        @Override
+        public Interceptor build() {
+            return new FlumeSamplingInterceptor(ctx == null ? new Context() : ctx);
+        }
+
+        @Override
+        public void configure(Context context) {
+        this.ctx = context;
+        }
+	}
+}
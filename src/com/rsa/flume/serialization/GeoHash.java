@@ -0,0 +1,71 @@
+package com.rsa.flume.serialization;
+
+/**
+ * Encodes coordinates as geohash, so that sessions can be aggregated by area with a terms aggregation
+ * on a keyword instead of a geo_point aggregation at query time.
+ */
+public final class GeoHash {
+
+	public static final int DEFAULT_PRECISION = 7;
+	public static final int MAX_PRECISION = 12;
+
+	private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+	private GeoHash()
+	{
+	}
+
+	/**
+	 * @param latitude between -90..90
+	 * @param longitude between -180..180
+	 * @param precision number of characters, 1..12
+	 * @return
+	 */
+	public static String encode(double latitude, double longitude, int precision)
+	{
+		precision = Math.max(1, Math.min(precision, MAX_PRECISION));
+
+		double minLat = -90, maxLat = 90;
+		double minLon = -180, maxLon = 180;
+		char[] hash = new char[precision];
+		boolean even = true;
+		for (int i = 0; i < precision; i++)
+		{
+			int index = 0;
+			for (int bit = 0; bit < 5; bit++)
+			{
+				// Longitude and latitude bits alternate, starting with the longitude
+				index <<= 1;
+				if (even)
+				{
+					double mid = (minLon + maxLon) / 2;
+					if (longitude >= mid)
+					{
+						index |= 1;
+						minLon = mid;
+					}
+					else
+					{
+						maxLon = mid;
+					}
+				}
+				else
+				{
+					double mid = (minLat + maxLat) / 2;
+					if (latitude >= mid)
+					{
+						index |= 1;
+						minLat = mid;
+					}
+					else
+					{
+						maxLat = mid;
+					}
+				}
+				even = !even;
+			}
+			hash[i] = BASE32[index];
+		}
+		return new String(hash);
+	}
+}
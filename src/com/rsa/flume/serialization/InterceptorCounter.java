@@ -0,0 +1,128 @@
+package com.rsa.flume.serialization;
+
+import org.apache.flume.instrumentation.MonitoredCounterGroup;
+
+/**
+ * Counters and latencies of the FlumeRFC1918Interceptor, published as Flume counter group
+ * "org.apache.flume.interceptor:type=name".
+ */
+public class InterceptorCounter extends EventCounter implements InterceptorCounterMBean {
+
+	private static final String COUNTER_DROPPED_PRIVATE = "interceptor.dropped.private";
+	private static final String COUNTER_DECODE_EOFS = "interceptor.decode.eofs";
+	private static final String COUNTER_PARKED = "interceptor.parked";
+	private static final String COUNTER_PARK_TIMEOUTS = "interceptor.park.timeouts";
+
+	final LatencyHistogram schemaLookup = new LatencyHistogram();
+	final LatencyHistogram decode = new LatencyHistogram();
+	final LatencyHistogram classify = new LatencyHistogram();
+
+	public InterceptorCounter(String name)
+	{
+		super(MonitoredCounterGroup.Type.INTERCEPTOR, name, "interceptor", COUNTER_DROPPED_PRIVATE, COUNTER_DECODE_EOFS, COUNTER_PARKED, COUNTER_PARK_TIMEOUTS);
+	}
+
+	public long incrementDroppedPrivate()
+	{
+		return increment(COUNTER_DROPPED_PRIVATE);
+	}
+
+	public long incrementDecodeEOFs()
+	{
+		return increment(COUNTER_DECODE_EOFS);
+	}
+
+	/**
+	 * @param delta number of events, which waited for their schema
+	 */
+	public long addToParked(long delta)
+	{
+		return addAndGet(COUNTER_PARKED, delta);
+	}
+
+	/**
+	 * Counts a batch, which has to be delivered again, because the schemas haven't been read in time
+	 */
+	public long incrementParkTimeouts()
+	{
+		return increment(COUNTER_PARK_TIMEOUTS);
+	}
+
+	@Override
+	public long getDroppedPrivate()
+	{
+		return get(COUNTER_DROPPED_PRIVATE);
+	}
+
+	@Override
+	public long getDecodeEOFs()
+	{
+		return get(COUNTER_DECODE_EOFS);
+	}
+
+	@Override
+	public long getParked()
+	{
+		return get(COUNTER_PARKED);
+	}
+
+	@Override
+	public long getParkTimeouts()
+	{
+		return get(COUNTER_PARK_TIMEOUTS);
+	}
+
+	@Override
+	public long getSchemaLookupMeanNanos()
+	{
+		return schemaLookup.Mean();
+	}
+
+	@Override
+	public long getSchemaLookupP99Nanos()
+	{
+		return schemaLookup.Percentile(99);
+	}
+
+	@Override
+	public long getSchemaLookupMaxNanos()
+	{
+		return schemaLookup.Max();
+	}
+
+	@Override
+	public long getDecodeMeanNanos()
+	{
+		return decode.Mean();
+	}
+
+	@Override
+	public long getDecodeP99Nanos()
+	{
+		return decode.Percentile(99);
+	}
+
+	@Override
+	public long getDecodeMaxNanos()
+	{
+		return decode.Max();
+	}
+
+	@Override
+	public long getClassifyMeanNanos()
+	{
+		return classify.Mean();
+	}
+
+	@Override
+	public long getClassifyP99Nanos()
+	{
+		return classify.Percentile(99);
+	}
+
+	@Override
+	public long getClassifyMaxNanos()
+	{
+		return classify.Max();
+	}
+}
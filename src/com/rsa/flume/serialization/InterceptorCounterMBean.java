@@ -0,0 +1,24 @@
+package com.rsa.flume.serialization;
+
+/**
+ * JMX attributes of the FlumeRFC1918Interceptor. Latencies are in nanoseconds per event.
+ */
+public interface InterceptorCounterMBean extends EventCounterMBean {
+
+	long getDroppedPrivate();
+	long getDecodeEOFs();
+	long getParked();
+	long getParkTimeouts();
+
+	long getSchemaLookupMeanNanos();
+	long getSchemaLookupP99Nanos();
+	long getSchemaLookupMaxNanos();
+
+	long getDecodeMeanNanos();
+	long getDecodeP99Nanos();
+	long getDecodeMaxNanos();
+
+	long getClassifyMeanNanos();
+	long getClassifyP99Nanos();
+	long getClassifyMaxNanos();
+}
@@ -0,0 +1,106 @@
+package com.rsa.flume.serialization;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in nanoseconds, with log-linear buckets as in HdrHistogram.
+ *
+ * Every power of 2 is split into 8 buckets, so a percentile is at most 12.5% above the real value.
+ * Recording is lock-free and doesn't allocate: one increment of a bucket, the count and the sum.
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param nanos
+	 */
+	public void record(long nanos)
+	{
+		if (nanos < 0)
+		{
+			nanos = 0;
+		}
+		counts.incrementAndGet(index(nanos));
+		count.incrementAndGet();
+		sum.addAndGet(nanos);
+
+		long current = max.get();
+		while (nanos > current && !max.compareAndSet(current, nanos))
+		{
+			current = max.get();
+		}
+	}
+
+	public long Count()
+	{
+		return count.get();
+	}
+
+	public long Mean()
+	{
+		long n = count.get();
+		return n == 0 ? 0 : sum.get() / n;
+	}
+
+	public long Max()
+	{
+		return max.get();
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the upper bound of the bucket, which holds the percentile
+	 */
+	public long Percentile(double percentile)
+	{
+		long n = count.get();
+		if (n == 0)
+		{
+			return 0;
+		}
+
+		long rank = Math.max(1, (long)Math.ceil(n * percentile / 100.0));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			seen += counts.get(i);
+			if (seen >= rank)
+			{
+				return Math.min(highestValue(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	static int index(long value)
+	{
+		if (value < SUB_BUCKETS)
+		{
+			return (int)value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int)(value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	static long highestValue(int index)
+	{
+		if (index < SUB_BUCKETS)
+		{
+			return index;
+		}
+		int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+		int sub = index % SUB_BUCKETS;
+		int shift = exponent - SUB_BITS;
+		return ((long)(SUB_BUCKETS + sub) << shift) + ((1L << shift) - 1);
+	}
+}
@@ -0,0 +1,136 @@
+package com.rsa.flume.serialization;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Processes the events of a batch in parallel on a process wide Fork/Join pool.
+ *
+ * The batch is split into chunks of at least MIN_CHUNK events. The results are
+ * returned in the order of the events, regardless of which thread processed them.
+ * Small batches, or all batches on a single processor, are processed on the calling thread.
+ */
+public final class ParallelBatch {
+
+	// Smallest number of events, which is handed to another thread
+	public static final int MIN_CHUNK = 64;
+
+	private static final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * Work done for a single item of the batch
+	 */
+	public interface Task<T, R> {
+		R apply(T item) throws Exception;
+	}
+
+	private ParallelBatch()
+	{
+	}
+
+	/**
+	 * Applies the task to all items of the batch
+	 *
+	 * @param items
+	 * @param task
+	 * @return the results in the order of the items
+	 * @throws Exception the first exception thrown by the task, in the order of the items
+	 */
+	public static <T, R> List<R> map(List<T> items, Task<T, R> task) throws Exception
+	{
+		Object[] results = new Object[items.size()];
+		Exception[] errors = new Exception[items.size()];
+
+		if (items.size() <= MIN_CHUNK || pool.getParallelism() == 1)
+		{
+			apply(items, task, results, errors, 0, items.size());
+		}
+		else
+		{
+			pool.invoke(new Chunk<T, R>(items, task, results, errors, 0, items.size()));
+		}
+
+		for (Exception e : errors)
+		{
+			if (e != null)
+			{
+				throw e;
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		List<R> list = (List<R>)Arrays.asList(results);
+		return list;
+	}
+
+	/**
+	 * Runs a single task on the pool, e.g. to work ahead of the calling thread.
+	 * The cause of the ExecutionException is the exception thrown by the task. ForkJoinPool.submit()
+	 * would wrap checked exceptions in RuntimeExceptions.
+	 *
+	 * @param task
+	 * @return
+	 */
+	public static <R> Future<R> submit(Callable<R> task)
+	{
+		FutureTask<R> future = new FutureTask<R>(task);
+		pool.execute(future);
+		return future;
+	}
+
+	private static <T, R> void apply(List<T> items, Task<T, R> task, Object[] results, Exception[] errors, int from, int to)
+	{
+		for (int i = from; i < to; i++)
+		{
+			try
+			{
+				results[i] = task.apply(items.get(i));
+			} catch (Exception e) {
+				errors[i] = e;
+			}
+		}
+	}
+
+	/**
+	 * A range of the batch, which is split, until it is small enough
+	 */
+	private static final class Chunk<T, R> extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<T> items;
+		private final Task<T, R> task;
+		private final Object[] results;
+		private final Exception[] errors;
+		private final int from;
+		private final int to;
+
+		Chunk(List<T> items, Task<T, R> task, Object[] results, Exception[] errors, int from, int to)
+		{
+			this.items = items;
+			this.task = task;
+			this.results = results;
+			this.errors = errors;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (to - from <= MIN_CHUNK)
+			{
+				apply(items, task, results, errors, from, to);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new Chunk<T, R>(items, task, results, errors, from, middle),
+					new Chunk<T, R>(items, task, results, errors, middle, to));
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package com.rsa.flume.serialization;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.avro.Schema;
+import org.apache.flume.Event;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Events of a batch, whose schema is being read from the file in the background.
+ *
+ * The other events of the batch are processed in the meantime, and the schemas of several
+ * files are read at once. Before the batch is returned, the caller waits a bounded time for
+ * the schemas and processes the parked events, so that every event of the batch is either
+ * passed on or dropped, before the source commits the batch. merge() restores the order of the batch.
+ */
+public final class ParkedEvents {
+
+	// Schemas being read by hash
+	private final Map<String, ListenableFuture<Schema>> schemas = new LinkedHashMap<String, ListenableFuture<Schema>>();
+
+	// Positions of the parked events in the batch
+	private final BitSet positions = new BitSet();
+	private final List<Event> events = new ArrayList<Event>();
+	private int batchSize = 0;
+
+	/**
+	 * Parks the event, if its schema has to be read from the file first.
+	 * Has to be called for all events of the batch in their order.
+	 *
+	 * @param event
+	 * @return false, if the event can be processed right away
+	 */
+	public boolean park(Event event)
+	{
+		int position = batchSize++;
+		Map<String, String> headers = event.getHeaders();
+		String hash = headers.get(SchemaCache.SCHEMA_HASH_HEADER);
+		if (hash == null)
+		{
+			return false;
+		}
+
+		ListenableFuture<Schema> schema = schemas.get(hash);
+		if (schema == null)
+		{
+			schema = SchemaCache.getinstance().getSchemaAsync(headers);
+			if (schema.isDone())
+			{
+				return false;
+			}
+			schemas.put(hash, schema);
+		}
+
+		positions.set(position);
+		events.add(event);
+		return true;
+	}
+
+	/**
+	 * @return the parked events in their order
+	 */
+	public List<Event> events()
+	{
+		return events;
+	}
+
+	/**
+	 * @return the number of parked events
+	 */
+	public int size()
+	{
+		return events.size();
+	}
+
+	/**
+	 * Waits for the schemas of the parked events
+	 *
+	 * @param timeoutMillis
+	 * @return true, if all schemas have been read (or couldn't be read) within the time
+	 */
+	public boolean await(long timeoutMillis)
+	{
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		for (ListenableFuture<Schema> schema : schemas.values())
+		{
+			try
+			{
+				schema.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			} catch (TimeoutException e) {
+				return false;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			} catch (ExecutionException e) {
+				// getSchema() doesn't throw, the failure will be handled by the caller
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Puts the results of the parked events back to their position in the batch
+	 *
+	 * @param ready results of the events, which haven't been parked, in their order
+	 * @param parked results of the parked events, in their order
+	 * @return the results in the order of the batch
+	 */
+	public <T> List<T> merge(List<T> ready, List<T> parked)
+	{
+		List<T> merged = new ArrayList<T>(batchSize);
+		int nextReady = 0;
+		int nextParked = 0;
+		for (int position = 0; position < batchSize; position++)
+		{
+			merged.add(positions.get(position) ? parked.get(nextParked++) : ready.get(nextReady++));
+		}
+		return merged;
+	}
+}
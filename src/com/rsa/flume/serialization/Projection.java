@@ -0,0 +1,96 @@
+package com.rsa.flume.serialization;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Decodes only some fields of the events.
+ *
+ * For each writer Schema a reader Schema with just the requested fields is derived and cached.
+ * Avro resolves the writer against the reader Schema and skips all other fields, so that
+ * the cost of decoding no longer depends on the number of meta keys in the session.
+ * Requested fields, which are not part of the writer Schema, are null in the record.
+ */
+public final class Projection {
+
+	private final List<String> fieldNames;
+
+	// Reader Schemas per writer Schema. Schemas are compared by identity
+	private final Cache<Schema, Schema> readerSchemas = CacheBuilder.newBuilder()
+			.weakKeys()
+			.build();
+
+	public Projection(String... fieldNames)
+	{
+		this(Arrays.asList(fieldNames));
+	}
+
+	public Projection(List<String> fieldNames)
+	{
+		this.fieldNames = Collections.unmodifiableList(new ArrayList<String>(fieldNames));
+	}
+
+	public List<String> FieldNames()
+	{
+		return fieldNames;
+	}
+
+	/**
+	 * Decodes the requested fields of the body.
+	 *
+	 * @param writer Schema of the event
+	 * @param body
+	 * @return the decoded record, which is reused by the next call on this thread
+	 * @throws IOException
+	 */
+	public GenericRecord read(Schema writer, byte[] body) throws IOException
+	{
+		return RecordReader.read(writer, readerSchema(writer), body);
+	}
+
+	/**
+	 * @param writer
+	 * @return the reader Schema, which contains only the requested fields of the writer Schema
+	 */
+	public Schema readerSchema(final Schema writer) throws IOException
+	{
+		try {
+			return readerSchemas.get(writer, new Callable<Schema>() {
+				@Override
+				public Schema call() {
+					return project(writer);
+				}
+			});
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private Schema project(Schema writer)
+	{
+		List<Schema.Field> fields = new ArrayList<Schema.Field>();
+		for (Schema.Field field : writer.getFields())
+		{
+			if (fieldNames.contains(field.name()))
+			{
+				fields.add(new Schema.Field(field.name(), field.schema(), field.doc(), field.defaultValue()));
+			}
+		}
+
+		// The name has to match, so that Avro resolves the writer against the reader Schema
+		Schema reader = Schema.createRecord(writer.getName(), writer.getDoc(), writer.getNamespace(), writer.isError());
+		reader.setFields(fields);
+		return reader;
+	}
+}
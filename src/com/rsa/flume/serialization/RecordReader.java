@@ -0,0 +1,148 @@
+package com.rsa.flume.serialization;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Decodes the Avro binary body of the Flume events.
+ *
+ * DatumReaders are shared per Schema. The BinaryDecoder and one record per Schema
+ * are kept per thread and passed as "reuse" instance to the reader, so that decoding
+ * a known Schema only allocates what the field values need.
+ *
+ * A record returned by read() is only valid until the next call of read() for the
+ * same Schema on the same thread.
+ */
+public final class RecordReader {
+
+	// Upper limit of reusable records kept per thread
+	private static final int MAX_RECORDS_PER_THREAD = 64;
+
+	// Upper limit of the cached DatumReaders and how long an unused one is kept
+	private static final int MAX_READERS = 1024;
+	private static final long READER_EXPIRY_MINUTES = 60;
+
+	// DatumReaders per writer and reader Schema. A DatumReader holds both Schemas, so weak keys
+	// would never be collected. The cache is bounded instead, so that Schemas of old files
+	// and configurations are released
+	private static final Cache<SchemaPair, GenericDatumReader<GenericRecord>> readers = CacheBuilder.newBuilder()
+			.maximumSize(MAX_READERS)
+			.expireAfterAccess(READER_EXPIRY_MINUTES, TimeUnit.MINUTES)
+			.build();
+
+	private static final ThreadLocal<ThreadState> threadState = new ThreadLocal<ThreadState>() {
+		@Override
+		protected ThreadState initialValue() {
+			return new ThreadState();
+		}
+	};
+
+	/**
+	 * Writer and reader Schema, compared by identity
+	 */
+	private static final class SchemaPair {
+		final Schema writer;
+		final Schema reader;
+
+		SchemaPair(Schema writer, Schema reader)
+		{
+			this.writer = writer;
+			this.reader = reader;
+		}
+
+		@Override
+		public boolean equals(Object other)
+		{
+			if (!(other instanceof SchemaPair))
+			{
+				return false;
+			}
+			SchemaPair pair = (SchemaPair)other;
+			return writer == pair.writer && reader == pair.reader;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * System.identityHashCode(writer) + System.identityHashCode(reader);
+		}
+	}
+
+	private static final class ThreadState {
+		BinaryDecoder decoder = null;
+		final Map<Schema, GenericRecord> records = new IdentityHashMap<Schema, GenericRecord>();
+	}
+
+	private RecordReader()
+	{
+	}
+
+	/**
+	 * Decodes the body of an event.
+	 *
+	 * @param schema
+	 * @param body
+	 * @return the decoded record, which is reused by the next call on this thread
+	 * @throws IOException
+	 */
+	public static GenericRecord read(Schema schema, byte[] body) throws IOException
+	{
+		return read(schema, schema, body);
+	}
+
+	/**
+	 * Decodes the body of an event, written with the writer Schema, into a record
+	 * of the reader Schema. Fields, which are not part of the reader Schema, are skipped.
+	 *
+	 * @param writer
+	 * @param reader
+	 * @param body
+	 * @return the decoded record, which is reused by the next call on this thread
+	 * @throws IOException
+	 */
+	public static GenericRecord read(Schema writer, Schema reader, byte[] body) throws IOException
+	{
+		ThreadState state = threadState.get();
+		state.decoder = DecoderFactory.get().binaryDecoder(body, state.decoder);
+
+		GenericRecord datum = state.records.get(reader);
+		if (datum == null)
+		{
+			if (state.records.size() >= MAX_RECORDS_PER_THREAD)
+			{
+				state.records.clear();
+			}
+			datum = new GenericData.Record(reader);
+			state.records.put(reader, datum);
+		}
+		return getReader(writer, reader).read(datum, state.decoder);
+	}
+
+	private static GenericDatumReader<GenericRecord> getReader(final Schema writer, final Schema reader) throws IOException
+	{
+		try {
+			return readers.get(new SchemaPair(writer, reader), new Callable<GenericDatumReader<GenericRecord>>() {
+				@Override
+				public GenericDatumReader<GenericRecord> call() {
+					return new GenericDatumReader<GenericRecord>(writer, reader);
+				}
+			});
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+}
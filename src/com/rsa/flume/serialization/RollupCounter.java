@@ -0,0 +1,93 @@
+package com.rsa.flume.serialization;
+
+import org.apache.flume.instrumentation.MonitoredCounterGroup;
+
+/**
+ * Counters of the FlumeRollupInterceptor, published as Flume counter group
+ * "org.apache.flume.interceptor:type=name".
+ * A forced flush is an interval, which has been flushed early, because there were too many buckets.
+ * A redelivered batch has been aggregated before and is only passed on. A write error is a flush,
+ * whose summaries couldn't be written and are tried again. A refused batch has been rejected, as there
+ * were too many buckets, which couldn't be written.
+ */
+public class RollupCounter extends EventCounter implements RollupCounterMBean {
+
+	private static final String COUNTER_SUMMARIES_OUT = "rollup.summaries.out";
+	private static final String COUNTER_OPEN_BUCKETS = "rollup.buckets.open";
+	private static final String COUNTER_FORCED_FLUSHES = "rollup.flushes.forced";
+	private static final String COUNTER_REDELIVERED = "rollup.redelivered";
+	private static final String COUNTER_WRITE_ERRORS = "rollup.write.errors";
+	private static final String COUNTER_REFUSED = "rollup.refused";
+
+	public RollupCounter(String name)
+	{
+		super(MonitoredCounterGroup.Type.INTERCEPTOR, name, "rollup", COUNTER_SUMMARIES_OUT, COUNTER_OPEN_BUCKETS, COUNTER_FORCED_FLUSHES,
+				COUNTER_REDELIVERED, COUNTER_WRITE_ERRORS, COUNTER_REFUSED);
+	}
+
+	public long addToSummariesOut(long delta)
+	{
+		return addAndGet(COUNTER_SUMMARIES_OUT, delta);
+	}
+
+	public void setOpenBuckets(long buckets)
+	{
+		set(COUNTER_OPEN_BUCKETS, buckets);
+	}
+
+	public long incrementForcedFlushes()
+	{
+		return increment(COUNTER_FORCED_FLUSHES);
+	}
+
+	public long incrementRedelivered()
+	{
+		return increment(COUNTER_REDELIVERED);
+	}
+
+	public long incrementWriteErrors()
+	{
+		return increment(COUNTER_WRITE_ERRORS);
+	}
+
+	public long incrementRefused()
+	{
+		return increment(COUNTER_REFUSED);
+	}
+
+	@Override
+	public long getSummariesOut()
+	{
+		return get(COUNTER_SUMMARIES_OUT);
+	}
+
+	@Override
+	public long getOpenBuckets()
+	{
+		return get(COUNTER_OPEN_BUCKETS);
+	}
+
+	@Override
+	public long getForcedFlushes()
+	{
+		return get(COUNTER_FORCED_FLUSHES);
+	}
+
+	@Override
+	public long getRedelivered()
+	{
+		return get(COUNTER_REDELIVERED);
+	}
+
+	@Override
+	public long getWriteErrors()
+	{
+		return get(COUNTER_WRITE_ERRORS);
+	}
+
+	@Override
+	public long getRefused()
+	{
+		return get(COUNTER_REFUSED);
+	}
+}
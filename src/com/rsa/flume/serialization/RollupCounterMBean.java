@@ -0,0 +1,14 @@
+package com.rsa.flume.serialization;
+
+/**
+ * JMX attributes of the FlumeRollupInterceptor
+ */
+public interface RollupCounterMBean extends EventCounterMBean {
+
+	long getSummariesOut();
+	long getOpenBuckets();
+	long getForcedFlushes();
+	long getRedelivered();
+	long getWriteErrors();
+	long getRefused();
+}
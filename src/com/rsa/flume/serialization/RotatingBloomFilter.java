@@ -0,0 +1,101 @@
+package com.rsa.flume.serialization;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+/**
+ * Remembers keys for a time window with constant memory.
+ *
+ * Two Bloom filters are used: keys are added to the current one and looked up in both.
+ * When the current filter is older than the window or holds as many keys as it has been sized for,
+ * it becomes the previous one and the old previous filter is dropped. A key is remembered for
+ * at least one window, unless more keys than the capacity arrive within the window.
+ * A key, which is found, is added again, so that it is remembered as long as it keeps coming.
+ */
+public final class RotatingBloomFilter {
+
+	private final long capacity;
+	private final double falsePositiveRate;
+	private final long windowMillis;
+
+	private BloomFilter<byte[]> current;
+	private BloomFilter<byte[]> previous;
+	private long currentStart;
+	private long currentKeys = 0;
+	private long rotations = 0;
+
+	/**
+	 * @param capacity number of keys per filter
+	 * @param falsePositiveRate of each filter, when it is full
+	 * @param windowMillis
+	 */
+	public RotatingBloomFilter(long capacity, double falsePositiveRate, long windowMillis)
+	{
+		this.capacity = capacity;
+		this.falsePositiveRate = falsePositiveRate;
+		this.windowMillis = windowMillis;
+		this.current = create();
+		this.previous = create();
+		this.currentStart = System.currentTimeMillis();
+	}
+
+	/**
+	 * Adds the key, if it hasn't been seen within the window
+	 *
+	 * @param key
+	 * @return false, if the key has (probably) been seen already
+	 */
+	public synchronized boolean add(byte[] key)
+	{
+		long now = System.currentTimeMillis();
+		if (now - currentStart >= windowMillis || currentKeys >= capacity)
+		{
+			previous = current;
+			current = create();
+			currentStart = now;
+			currentKeys = 0;
+			rotations++;
+		}
+
+		if (current.mightContain(key))
+		{
+			return false;
+		}
+		current.put(key);
+		currentKeys++;
+		return !previous.mightContain(key);
+	}
+
+	/**
+	 * @param key
+	 * @return true, if the key has (probably) been added within the window
+	 */
+	public synchronized boolean contains(byte[] key)
+	{
+		return current.mightContain(key) || previous.mightContain(key);
+	}
+
+	public double FalsePositiveRate()
+	{
+		return falsePositiveRate;
+	}
+
+	/**
+	 * @return the estimated false positive rate of the lookups right now
+	 */
+	public synchronized double CurrentFalsePositiveRate()
+	{
+		// A key is a false positive, if it is one in either of the filters
+		return 1 - (1 - current.expectedFpp()) * (1 - previous.expectedFpp());
+	}
+
+	public synchronized long Rotations()
+	{
+		return rotations;
+	}
+
+	private BloomFilter<byte[]> create()
+	{
+		return BloomFilter.create(Funnels.byteArrayFunnel(), capacity, falsePositiveRate);
+	}
+}
@@ -0,0 +1,40 @@
+package com.rsa.flume.serialization;
+
+import org.apache.flume.instrumentation.MonitoredCounterGroup;
+
+/**
+ * Counters of the FlumeSamplingInterceptor, published as Flume counter group
+ * "org.apache.flume.interceptor:type=name".
+ */
+public class SamplingCounter extends EventCounter implements SamplingCounterMBean {
+
+	private static final String COUNTER_DROPPED_SAMPLING = "sampling.dropped.sampling";
+	private static final String COUNTER_DROPPED_RATE_LIMIT = "sampling.dropped.ratelimit";
+
+	public SamplingCounter(String name)
+	{
+		super(MonitoredCounterGroup.Type.INTERCEPTOR, name, "sampling", COUNTER_DROPPED_SAMPLING, COUNTER_DROPPED_RATE_LIMIT);
+	}
+
+	public long incrementDroppedSampling()
+	{
+		return increment(COUNTER_DROPPED_SAMPLING);
+	}
+
+	public long incrementDroppedRateLimit()
+	{
+		return increment(COUNTER_DROPPED_RATE_LIMIT);
+	}
+
+	@Override
+	public long getDroppedSampling()
+	{
+		return get(COUNTER_DROPPED_SAMPLING);
+	}
+
+	@Override
+	public long getDroppedRateLimit()
+	{
+		return get(COUNTER_DROPPED_RATE_LIMIT);
+	}
+}
@@ -0,0 +1,10 @@
+package com.rsa.flume.serialization;
+
+/**
+ * JMX attributes of the FlumeSamplingInterceptor
+ */
+public interface SamplingCounterMBean extends EventCounterMBean {
+
+	long getDroppedSampling();
+	long getDroppedRateLimit();
+}
@@ -0,0 +1,413 @@
+package com.rsa.flume.serialization;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Process wide registry of the Avro Schemas referenced by the Flume events.
+ *
+ * The Spooling Directory source either sends the complete schema in the
+ * "flume.avro.schema.literal" header or a hash in "flume.avro.schema.hash",
+ * in which case the schema needs to be read from the Avro file itself.
+ * Both the serializer and the interceptor use this cache, so that a schema is
+ * only parsed or read from the file once per JVM.
+ *
+ * Schemas are interned by their parsing fingerprint, so that the same schema
+ * arriving as literal and as hash results in the same instance. An interceptor
+ * may stamp the fingerprint into the "flume.avro.schema.fingerprint" header,
+ * which is then resolved without looking at the other headers.
+ *
+ * For a hash only the header of the Avro file is read, from the file or its .COMPLETED name.
+ * getSchema() reads both once. If the schema can't be read, the hash is remembered for a short time,
+ * so that the events of a broken or vanished file don't read the file one after the other.
+ * With getSchemaAsync() the file is read on a background thread, so that the caller can go on with
+ * other events. As the file may appear or be completed a moment after its first events, a failed
+ * read is tried again there for up to a second. Nothing sleeps on the thread of getSchema().
+ *
+ * Lookups, misses and file reads are published via JMX by the SchemaCacheCounter.
+ */
+public final class SchemaCache {
+
+	private static final Logger logger = LoggerFactory.getLogger
+		      (SchemaCache.class);
+
+	public static final String SCHEMA_LITERAL_HEADER = "flume.avro.schema.literal";
+	public static final String SCHEMA_HASH_HEADER = "flume.avro.schema.hash";
+	public static final String FILE_HEADER = "file";
+
+	// Maximum number of schemas kept per key type, least recently used ones are evicted
+	private static final int MAX_SCHEMAS = 256;
+
+	// How long a hash, whose schema couldn't be read, is not tried again
+	private static final long NEGATIVE_TTL_MILLIS = 1000;
+
+	// How often and in which interval the schema of a hash is tried to be read in the background
+	private static final int READ_ATTEMPTS = 10;
+	private static final long RETRY_MILLIS = 100;
+
+	// Suffix of the files, which have been processed by the Spooling Directory source
+	private static final String COMPLETED_SUFFIX = ".COMPLETED";
+
+	// Number of threads reading schemas from files in the background
+	private static final int RESOLVER_THREADS = 4;
+
+	private static final SchemaCache singleton = new SchemaCache();
+
+	// Schemas by the value of the "flume.avro.schema.hash" header
+	private final Cache<String, Schema> hashSchemas;
+
+	// Schemas by the text of the "flume.avro.schema.literal" header
+	private final Cache<String, Schema> literalSchemas;
+
+	// Canonical Schema instances by their parsing fingerprint
+	private final Cache<Long, Schema> fingerprintSchemas;
+
+	// Parsing fingerprints of the canonical Schema instances. Schemas are compared by identity
+	private final Cache<Schema, Long> fingerprints;
+
+	// Hashes, whose schema couldn't be read recently
+	private final Cache<String, Boolean> failedHashes;
+
+	// Background reads of schemas by hash, at most one per hash
+	private final ConcurrentMap<String, ListenableFuture<Schema>> resolving = new ConcurrentHashMap<String, ListenableFuture<Schema>>();
+	private final Executor resolver = Executors.newFixedThreadPool(RESOLVER_THREADS,
+			new ThreadFactoryBuilder().setNameFormat("FlumeAvro-SchemaResolver-%d").setDaemon(true).build());
+
+	private final SchemaCacheCounter counter = new SchemaCacheCounter("SchemaCache");
+
+	private SchemaCache()
+	{
+		int concurrency = Runtime.getRuntime().availableProcessors();
+		hashSchemas = CacheBuilder.newBuilder()
+				.concurrencyLevel(concurrency)
+				.maximumSize(MAX_SCHEMAS)
+				.build();
+		literalSchemas = CacheBuilder.newBuilder()
+				.concurrencyLevel(concurrency)
+				.maximumSize(MAX_SCHEMAS)
+				.build();
+		fingerprintSchemas = CacheBuilder.newBuilder()
+				.concurrencyLevel(concurrency)
+				.maximumSize(MAX_SCHEMAS)
+				.build();
+		fingerprints = CacheBuilder.newBuilder()
+				.weakKeys()
+				.build();
+		failedHashes = CacheBuilder.newBuilder()
+				.concurrencyLevel(concurrency)
+				.maximumSize(MAX_SCHEMAS)
+				.expireAfterWrite(NEGATIVE_TTL_MILLIS, TimeUnit.MILLISECONDS)
+				.build();
+		counter.start();
+	}
+
+	public static SchemaCache getinstance()
+	{
+		return singleton;
+	}
+
+	/**
+	 * Gets the Schema information out of the Event headers.
+	 * If it is LITERAL, then the schema text is parsed once and cached.
+	 * If it is HASH, then the schema is read once from the file and cached by the hash.
+	 *
+	 * @param headers
+	 * @return the Schema or null, if it couldn't be resolved
+	 */
+	public Schema getSchema(Map<String, String> headers)
+	{
+		counter.incrementLookups();
+		String fingerprint = headers.get(EventHeaders.SCHEMA_FINGERPRINT);
+		if (fingerprint != null)
+		{
+			try
+			{
+				Schema schema = fingerprintSchemas.getIfPresent(Long.parseLong(fingerprint));
+				if (schema != null)
+				{
+					return schema;
+				}
+			} catch (NumberFormatException e) {
+				logger.warn("Invalid schema fingerprint: " + fingerprint);
+			}
+		}
+
+		final String literal = headers.get(SCHEMA_LITERAL_HEADER);
+		if (literal != null)
+		{
+			try
+			{
+				return literalSchemas.get(literal, new Callable<Schema>() {
+					@Override
+					public Schema call() {
+						counter.incrementMisses();
+						return intern(new Schema.Parser().parse(literal));
+					}
+				});
+			} catch (ExecutionException | UncheckedExecutionException e) {
+				logger.error("Exception parsing schema: " + e.getCause());
+				return null;
+			}
+		}
+
+		final String hash = headers.get(SCHEMA_HASH_HEADER);
+		if (hash != null)
+		{
+			if (failedHashes.getIfPresent(hash) != null)
+			{
+				counter.incrementNegativeHits();
+				return null;
+			}
+
+			final String file = headers.get(FILE_HEADER);
+			try
+			{
+				return hashSchemas.get(hash, new Callable<Schema>() {
+					@Override
+					public Schema call() {
+						counter.incrementMisses();
+						return intern(readSchema(file, 1));
+					}
+				});
+			} catch (InvalidCacheLoadException e) {
+				// Reading the Schema failed, it has been logged already
+				failedHashes.put(hash, Boolean.TRUE);
+				return null;
+			} catch (ExecutionException | UncheckedExecutionException e) {
+				logger.error("Exception reading schema: " + e.getCause());
+				return null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Resolves the Schema of the Event headers like getSchema(), but reads a schema,
+	 * which is referenced by hash and not cached yet, on a background thread.
+	 *
+	 * @param headers
+	 * @return the future Schema or null, if it couldn't be resolved. The future is done already,
+	 * unless the schema has to be read from the file
+	 */
+	public ListenableFuture<Schema> getSchemaAsync(final Map<String, String> headers)
+	{
+		final String hash = headers.get(SCHEMA_HASH_HEADER);
+		if (!needsFileRead(headers, hash))
+		{
+			return Futures.immediateFuture(getSchema(headers));
+		}
+
+		ListenableFuture<Schema> future = resolving.get(hash);
+		if (future != null)
+		{
+			return future;
+		}
+
+		// Read outside of the hash cache, so that getSchema() doesn't wait for the retries
+		ListenableFutureTask<Schema> task = ListenableFutureTask.create(new Callable<Schema>() {
+			@Override
+			public Schema call() {
+				counter.incrementLookups();
+				Schema schema = hashSchemas.getIfPresent(hash);
+				if (schema != null)
+				{
+					return schema;
+				}
+				counter.incrementMisses();
+				schema = intern(readSchema(headers.get(FILE_HEADER), READ_ATTEMPTS));
+				if (schema == null)
+				{
+					failedHashes.put(hash, Boolean.TRUE);
+					return null;
+				}
+				hashSchemas.put(hash, schema);
+				failedHashes.invalidate(hash);
+				return schema;
+			}
+		});
+		future = resolving.putIfAbsent(hash, task);
+		if (future != null)
+		{
+			return future;
+		}
+		task.addListener(new Runnable() {
+			@Override
+			public void run() {
+				resolving.remove(hash);
+			}
+		}, MoreExecutors.directExecutor());
+		resolver.execute(task);
+		return task;
+	}
+
+	/**
+	 * @return true, if getSchema() would read the schema from the file
+	 */
+	private boolean needsFileRead(Map<String, String> headers, String hash)
+	{
+		if (hash == null || headers.containsKey(SCHEMA_LITERAL_HEADER))
+		{
+			return false;
+		}
+		String fingerprint = headers.get(EventHeaders.SCHEMA_FINGERPRINT);
+		if (fingerprint != null)
+		{
+			try
+			{
+				if (fingerprintSchemas.getIfPresent(Long.parseLong(fingerprint)) != null)
+				{
+					return false;
+				}
+			} catch (NumberFormatException e) {
+				// Will be logged by getSchema()
+			}
+		}
+		return hashSchemas.getIfPresent(hash) == null && failedHashes.getIfPresent(hash) == null;
+	}
+
+	/**
+	 * Returns the parsing fingerprint of a Schema, which has been returned by getSchema()
+	 *
+	 * @param schema
+	 * @return
+	 */
+	public long getFingerprint(Schema schema)
+	{
+		Long fingerprint = fingerprints.getIfPresent(schema);
+		if (fingerprint == null)
+		{
+			fingerprint = SchemaNormalization.parsingFingerprint64(schema);
+			fingerprints.put(schema, fingerprint);
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * Returns the cached instance of a schema with the same parsing fingerprint
+	 * or registers the given schema as the canonical one.
+	 *
+	 * @param schema
+	 * @return
+	 */
+	private Schema intern(final Schema schema)
+	{
+		if (schema == null)
+		{
+			return null;
+		}
+
+		final long fingerprint = SchemaNormalization.parsingFingerprint64(schema);
+		try
+		{
+			return fingerprintSchemas.get(fingerprint, new Callable<Schema>() {
+				@Override
+				public Schema call() {
+					fingerprints.put(schema, fingerprint);
+					return schema;
+				}
+			});
+		} catch (ExecutionException e) {
+			return schema;
+		}
+	}
+
+	/**
+	 * Reads the schema from the header of the Avro file.
+	 * The file may not exist yet or still be written, so a failed read may be tried again.
+	 *
+	 * @param file
+	 * @param attempts 1 on the event path, READ_ATTEMPTS in the background
+	 * @return the Schema or null, if the file couldn't be read within the attempts
+	 */
+	private Schema readSchema(String file, int attempts)
+	{
+		if (file == null)
+		{
+			logger.error("Schema hash without a file header. Can't read schema");
+			return null;
+		}
+
+		for (int attempt = 1; ; attempt++)
+		{
+			Schema schema = tryReadSchema(file, attempt == attempts);
+			if (schema != null || attempt == attempts)
+			{
+				return schema;
+			}
+			try
+			{
+				Thread.sleep(RETRY_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Flume renames the file to .COMPLETED, when it has been processed. This may happen
+	 * at any time, also while the file is being read, so the original and the renamed file
+	 * are tried one after the other.
+	 *
+	 * @param file
+	 * @param last attempt, whose failure is logged as error
+	 * @return the Schema or null, if neither of the files could be read
+	 */
+	private Schema tryReadSchema(String file, boolean last)
+	{
+		String failure = null;
+		for (String path : new String[] { file, file + COMPLETED_SUFFIX })
+		{
+			logger.debug("Using file " + path);
+			counter.incrementFileReads();
+			try
+			{
+				return AvroContainerHeader.read(new File(path)).Schema();
+			} catch (FileNotFoundException e) {
+				continue;
+			} catch (IOException | RuntimeException e) {
+				// Still being written, or renamed while being read
+				failure = "Exception getting schema from " + path + ": " + e.toString();
+			}
+		}
+
+		counter.incrementFileReadFailures();
+		if (failure == null)
+		{
+			failure = "Can't read schema, neither " + file + " nor " + file + COMPLETED_SUFFIX + " exists";
+		}
+		if (last)
+		{
+			logger.error(failure);
+		}
+		else
+		{
+			logger.debug(failure + ", reading it again");
+		}
+		return null;
+	}
+}
@@ -0,0 +1,81 @@
+package com.rsa.flume.serialization;
+
+import org.apache.flume.instrumentation.MonitoredCounterGroup;
+
+/**
+ * Counters of the SchemaCache, published as Flume counter group "org.apache.flume.other:type=SchemaCache".
+ * A miss is a schema, which had to be parsed or read from the file.
+ * A negative hit is a lookup of a hash, whose schema couldn't be read recently.
+ */
+public class SchemaCacheCounter extends MonitoredCounterGroup implements SchemaCacheCounterMBean {
+
+	private static final String COUNTER_LOOKUPS = "schema.lookups";
+	private static final String COUNTER_MISSES = "schema.misses";
+	private static final String COUNTER_FILE_READS = "schema.file.reads";
+	private static final String COUNTER_FILE_READ_FAILURES = "schema.file.read.failures";
+	private static final String COUNTER_NEGATIVE_HITS = "schema.negative.hits";
+
+	private static final String[] ATTRIBUTES = {
+		COUNTER_LOOKUPS, COUNTER_MISSES, COUNTER_FILE_READS, COUNTER_FILE_READ_FAILURES, COUNTER_NEGATIVE_HITS
+	};
+
+	public SchemaCacheCounter(String name)
+	{
+		super(MonitoredCounterGroup.Type.OTHER, name, ATTRIBUTES);
+	}
+
+	public long incrementLookups()
+	{
+		return increment(COUNTER_LOOKUPS);
+	}
+
+	public long incrementMisses()
+	{
+		return increment(COUNTER_MISSES);
+	}
+
+	public long incrementFileReads()
+	{
+		return increment(COUNTER_FILE_READS);
+	}
+
+	public long incrementFileReadFailures()
+	{
+		return increment(COUNTER_FILE_READ_FAILURES);
+	}
+
+	public long incrementNegativeHits()
+	{
+		return increment(COUNTER_NEGATIVE_HITS);
+	}
+
+	@Override
+	public long getLookups()
+	{
+		return get(COUNTER_LOOKUPS);
+	}
+
+	@Override
+	public long getMisses()
+	{
+		return get(COUNTER_MISSES);
+	}
+
+	@Override
+	public long getFileReads()
+	{
+		return get(COUNTER_FILE_READS);
+	}
+
+	@Override
+	public long getFileReadFailures()
+	{
+		return get(COUNTER_FILE_READ_FAILURES);
+	}
+
+	@Override
+	public long getNegativeHits()
+	{
+		return get(COUNTER_NEGATIVE_HITS);
+	}
+}
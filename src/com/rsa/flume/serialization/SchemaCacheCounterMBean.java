@@ -0,0 +1,13 @@
+package com.rsa.flume.serialization;
+
+/**
+ * JMX attributes of the process wide SchemaCache
+ */
+public interface SchemaCacheCounterMBean extends CounterGroupMBean {
+
+	long getLookups();
+	long getMisses();
+	long getFileReads();
+	long getFileReadFailures();
+	long getNegativeHits();
+}
@@ -0,0 +1,130 @@
+package com.rsa.flume.serialization;
+
+import org.apache.flume.instrumentation.MonitoredCounterGroup;
+
+/**
+ * Counters and latencies of the FlumeAvroEventDeserializer, published as Flume counter group
+ * "org.apache.flume.serializer:type=name".
+ */
+public class SerializerCounter extends EventCounter implements SerializerCounterMBean {
+
+	private static final String COUNTER_DECODE_EOFS = "serializer.decode.eofs";
+
+	final LatencyHistogram schemaLookup = new LatencyHistogram();
+	final LatencyHistogram decode = new LatencyHistogram();
+	final LatencyHistogram build = new LatencyHistogram();
+	final LatencyHistogram timestamp = new LatencyHistogram();
+	final LatencyHistogram total = new LatencyHistogram();
+
+	public SerializerCounter(String name)
+	{
+		super(MonitoredCounterGroup.Type.SERIALIZER, name, "serializer", COUNTER_DECODE_EOFS);
+	}
+
+	public long incrementDecodeEOFs()
+	{
+		return increment(COUNTER_DECODE_EOFS);
+	}
+
+	@Override
+	public long getDecodeEOFs()
+	{
+		return get(COUNTER_DECODE_EOFS);
+	}
+
+	@Override
+	public long getSchemaLookupMeanNanos()
+	{
+		return schemaLookup.Mean();
+	}
+
+	@Override
+	public long getSchemaLookupP99Nanos()
+	{
+		return schemaLookup.Percentile(99);
+	}
+
+	@Override
+	public long getSchemaLookupMaxNanos()
+	{
+		return schemaLookup.Max();
+	}
+
+	@Override
+	public long getDecodeMeanNanos()
+	{
+		return decode.Mean();
+	}
+
+	@Override
+	public long getDecodeP99Nanos()
+	{
+		return decode.Percentile(99);
+	}
+
+	@Override
+	public long getDecodeMaxNanos()
+	{
+		return decode.Max();
+	}
+
+	@Override
+	public long getBuildMeanNanos()
+	{
+		return build.Mean();
+	}
+
+	@Override
+	public long getBuildP99Nanos()
+	{
+		return build.Percentile(99);
+	}
+
+	@Override
+	public long getBuildMaxNanos()
+	{
+		return build.Max();
+	}
+
+	@Override
+	public long getTimestampMeanNanos()
+	{
+		return timestamp.Mean();
+	}
+
+	@Override
+	public long getTimestampP99Nanos()
+	{
+		return timestamp.Percentile(99);
+	}
+
+	@Override
+	public long getTimestampMaxNanos()
+	{
+		return timestamp.Max();
+	}
+
+	@Override
+	public long getTotalMeanNanos()
+	{
+		return total.Mean();
+	}
+
+	@Override
+	public long getTotalP50Nanos()
+	{
+		return total.Percentile(50);
+	}
+
+	@Override
+	public long getTotalP99Nanos()
+	{
+		return total.Percentile(99);
+	}
+
+	@Override
+	public long getTotalMaxNanos()
+	{
+		return total.Max();
+	}
+}
@@ -0,0 +1,31 @@
+package com.rsa.flume.serialization;
+
+/**
+ * JMX attributes of the FlumeAvroEventDeserializer.
+ * Latencies are in nanoseconds. With the streaming encoder, decoding is part of the build stage.
+ */
+public interface SerializerCounterMBean extends EventCounterMBean {
+
+	long getDecodeEOFs();
+
+	long getSchemaLookupMeanNanos();
+	long getSchemaLookupP99Nanos();
+	long getSchemaLookupMaxNanos();
+
+	long getDecodeMeanNanos();
+	long getDecodeP99Nanos();
+	long getDecodeMaxNanos();
+
+	long getBuildMeanNanos();
+	long getBuildP99Nanos();
+	long getBuildMaxNanos();
+
+	long getTimestampMeanNanos();
+	long getTimestampP99Nanos();
+	long getTimestampMaxNanos();
+
+	long getTotalMeanNanos();
+	long getTotalP50Nanos();
+	long getTotalP99Nanos();
+	long getTotalMaxNanos();
+}
@@ -0,0 +1,710 @@
+package com.rsa.flume.serialization;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.util.Utf8;
+import org.apache.flume.Event;
+import org.apache.flume.sink.elasticsearch.ContentBuilderUtil;
+import org.apache.flume.sink.elasticsearch.ElasticSearchEventSerializer;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Writes the @fields object of an event straight from the Avro binary data,
+ * without materialising a GenericRecord.
+ *
+ * The body is walked with a BinaryDecoder. A first pass reads only up to ng_source and time,
+ * which are needed for the FieldPlan and the TimeStamp, and is left out, if the interceptor has
+ * stamped them already. The second pass writes the fields of the FieldPlan and skips all others.
+ * If the data is broken, the fields written so far are discarded by the serializer. The UTF-8 bytes of strings and the digits of
+ * numbers are written directly into the JSON output.
+ *
+ * The output is the same as the one of the generic encoder. Values, which need the
+ * String (Country Mapping, device_type, non ASCII truncation or severity), floating point
+ * numbers and complex types take the same path as in the generic encoder.
+ */
+public final class StreamingEncoder {
+
+	private static final Logger logger = LoggerFactory.getLogger
+		      (StreamingEncoder.class);
+
+	private static final byte[] TRUE = "true".getBytes(ElasticSearchEventSerializer.charset);
+	private static final byte[] FALSE = "false".getBytes(ElasticSearchEventSerializer.charset);
+
+	private enum Kind { NULL, BOOLEAN, INT, LONG, FLOAT, DOUBLE, STRING, BYTES, FIXED, ENUM, ARRAY, MAP, RECORD, UNION }
+
+	/**
+	 * How to read or skip a value of a Schema
+	 */
+	private static final class Slot {
+		final Kind kind;
+		final Schema schema;
+		Slot[] children;		// Union branches, Record fields or the Array / Map element
+		byte[][] symbols;		// Enum symbols
+		GenericDatumReader<Object> reader;	// Used to read complex values as Object
+
+		Slot(Kind kind, Schema schema)
+		{
+			this.kind = kind;
+			this.schema = schema;
+		}
+	}
+
+	/**
+	 * Compiled Slots of a record Schema
+	 */
+	private static final class Layout {
+		final Slot[] fields;
+		final int ngSourcePos;
+		final int timePos;
+
+		Layout(Slot[] fields, int ngSourcePos, int timePos)
+		{
+			this.fields = fields;
+			this.ngSourcePos = ngSourcePos;
+			this.timePos = timePos;
+		}
+	}
+
+	/**
+	 * Per thread buffers
+	 */
+	private static final class Scratch {
+		BinaryDecoder decoder = null;
+		Utf8 utf8 = new Utf8();
+		final byte[] digits = new byte[20];
+		final BytesRef ref = new BytesRef();
+	}
+
+	// Layouts per Schema. Schemas are compared by identity
+	private static final Cache<Schema, Layout> layouts = CacheBuilder.newBuilder()
+			.weakKeys()
+			.build();
+
+	private static final ThreadLocal<Scratch> scratches = new ThreadLocal<Scratch>() {
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch();
+		}
+	};
+
+	private StreamingEncoder()
+	{
+	}
+
+	/**
+	 * Writes the @fields object of the event, without closing it.
+	 *
+	 * @return false, if the event couldn't be decoded
+	 */
+	public static boolean writeFields(XContentBuilder builder, Schema schema, Event event, Config config, CapturedFields captured)
+			throws IOException
+	{
+		Layout layout = getLayout(schema);
+		Scratch scratch = scratches.get();
+		byte[] body = event.getBody();
+
+		// First pass: read ng_source and time, up to the later of both fields.
+		// Not needed, if the interceptor decoded the event already and stamped the headers
+		boolean stamped = captured.decoderName != null && event.getHeaders().containsKey(EventHeaders.TIMESTAMP);
+		if (!stamped)
+		{
+			Object ngSource = null;
+			int last = Math.max(layout.ngSourcePos, layout.timePos);
+			try
+			{
+				BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(body, scratch.decoder);
+				scratch.decoder = decoder;
+				for (int pos = 0; pos <= last; pos++)
+				{
+					if (pos == layout.ngSourcePos)
+					{
+						ngSource = readText(decoder, layout.fields[pos], scratch);
+					}
+					else if (pos == layout.timePos)
+					{
+						captured.rawTime = readRawTime(decoder, layout.fields[pos]);
+					}
+					else
+					{
+						skip(decoder, layout.fields[pos]);
+					}
+				}
+			}
+			catch (EOFException eof)
+			{
+				captured.decodeError = eof;
+				return false;
+			}
+			catch (Exception e) {
+				logger.error("Exception reading event data: " + e.toString());
+				captured.decodeError = e;
+				return false;
+			}
+			if (captured.decoderName == null)
+			{
+				captured.decoderName = FlumeAvroEventDeserializer.getDecoderName(ngSource, event);
+			}
+		}
+
+		FieldPlan plan = config.FieldPlan(schema, captured.decoderName);
+		captured.plan = plan;
+
+		// Second pass: write the fields of the plan
+		BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(body, scratch.decoder);
+		scratch.decoder = decoder;
+
+		// The data after ng_source and time hasn't been read yet, so it may still be broken here.
+		// The fields written so far are discarded by the caller
+		builder.startObject("@fields");
+		try
+		{
+			for (int pos = 0; pos < layout.fields.length; pos++)
+			{
+				FieldPlan.Step step = plan.atPosition(pos);
+				if (step == null)
+				{
+					skip(decoder, layout.fields[pos]);
+				}
+				else
+				{
+					writeField(builder, decoder, step, layout.fields[pos], scratch, config, captured);
+				}
+			}
+		}
+		catch (EOFException eof)
+		{
+			captured.decodeError = eof;
+			return false;
+		}
+		catch (Exception e) {
+			logger.error("Exception reading event data: " + e.toString());
+			captured.decodeError = e;
+			return false;
+		}
+		return true;
+	}
+
+	private static void writeField(XContentBuilder builder, BinaryDecoder decoder, FieldPlan.Step step, Slot slot,
+			Scratch scratch, Config config, CapturedFields captured) throws IOException
+	{
+		if (slot.kind == Kind.UNION)
+		{
+			slot = slot.children[decoder.readIndex()];
+		}
+		if (slot.kind == Kind.NULL)
+		{
+			decoder.readNull();
+			return;
+		}
+
+		// Numbers and booleans are written from the primitives, if typed values are configured
+		if (step.type != FieldPlan.ValueType.TEXT)
+		{
+			writeTyped(builder, decoder, step.name, slot);
+			return;
+		}
+
+		// Values of fields with few distinct values are looked up by their raw bytes
+		if (step.valueCache != null && slot.kind == Kind.STRING)
+		{
+			scratch.utf8 = decoder.readString(scratch.utf8);
+			FlumeAvroEventDeserializer.appendCachedValue(builder, step, scratch.utf8.getBytes(), scratch.utf8.getByteLength(), config, captured);
+			return;
+		}
+
+		// Capture the Time and Geo-IP fields. The TimeStamp and the locations will be set later
+		switch (step.action)
+		{
+		case TIME:
+			captured.time = readLong(decoder, slot, scratch);
+			return;
+		case EVENT_TIME:
+			captured.eventTime = readLong(decoder, slot, scratch);
+			return;
+		case LAT_SRC:
+			captured.latSrc = readDouble(decoder, slot, scratch);
+			return;
+		case LAT_DST:
+			captured.latDst = readDouble(decoder, slot, scratch);
+			return;
+		case LONG_SRC:
+			captured.longSrc = readDouble(decoder, slot, scratch);
+			return;
+		case LONG_DST:
+			captured.longDst = readDouble(decoder, slot, scratch);
+			return;
+		case EMIT:
+		case SEVERITY:
+			break;
+		default:
+			// Country Mapping and device_type need the String
+			FlumeAvroEventDeserializer.appendValue(builder, step, readText(decoder, slot, scratch), config, captured);
+			return;
+		}
+
+		byte[] bytes;
+		int length;
+		switch (slot.kind)
+		{
+		case STRING:
+			scratch.utf8 = decoder.readString(scratch.utf8);
+			bytes = scratch.utf8.getBytes();
+			length = scratch.utf8.getByteLength();
+			break;
+		case INT:
+			bytes = scratch.digits;
+			length = formatLong(decoder.readInt(), bytes);
+			break;
+		case LONG:
+			bytes = scratch.digits;
+			length = formatLong(decoder.readLong(), bytes);
+			break;
+		case BOOLEAN:
+			bytes = decoder.readBoolean() ? TRUE : FALSE;
+			length = bytes.length;
+			break;
+		case ENUM:
+			bytes = slot.symbols[decoder.readEnum()];
+			length = bytes.length;
+			break;
+		default:
+			FlumeAvroEventDeserializer.appendValue(builder, step, readText(decoder, slot, scratch), config, captured);
+			return;
+		}
+
+		boolean ascii = isAscii(bytes, length);
+
+		// Do we need a truncation to avoid problems with lengthy fields
+		if (step.truncateLength >= 0 && length > step.truncateLength)
+		{
+			if (!isAscii(bytes, step.truncateLength))
+			{
+				// Truncation is done on characters, not on bytes
+				FlumeAvroEventDeserializer.appendValue(builder, step, new String(bytes, 0, length, ElasticSearchEventSerializer.charset), config, captured);
+				return;
+			}
+			length = step.truncateLength;
+			ascii = true;
+		}
+
+		if (step.action == FieldPlan.Action.SEVERITY && !ascii)
+		{
+			// Non ASCII digits are numeric as well
+			FlumeAvroEventDeserializer.appendValue(builder, step, new String(bytes, 0, length, ElasticSearchEventSerializer.charset), config, captured);
+			return;
+		}
+
+		appendUtf8(builder, step.name, bytes, length, scratch);
+
+		// If the Severity field contains a numeric value it should also be written into severity_num
+		if (step.action == FieldPlan.Action.SEVERITY && isDigits(bytes, length))
+		{
+			appendUtf8(builder, "severity_num", bytes, length, scratch);
+		}
+	}
+
+	/**
+	 * Writes UTF-8 bytes as String field. Values, which look like JSON or another
+	 * XContent are handed to ContentBuilderUtil, as the generic encoder does.
+	 */
+	private static void appendUtf8(XContentBuilder builder, String name, byte[] bytes, int length, Scratch scratch)
+			throws IOException
+	{
+		if (XContentFactory.xContentType(bytes, 0, length) != null)
+		{
+			ContentBuilderUtil.appendField(builder, name, Arrays.copyOf(bytes, length));
+			return;
+		}
+		scratch.ref.bytes = bytes;
+		scratch.ref.offset = 0;
+		scratch.ref.length = length;
+		builder.utf8Field(name, scratch.ref);
+	}
+
+	private static boolean isAscii(byte[] bytes, int length)
+	{
+		for (int i = 0; i < length; i++)
+		{
+			if (bytes[i] < 0)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isDigits(byte[] bytes, int length)
+	{
+		for (int i = 0; i < length; i++)
+		{
+			if (bytes[i] < '0' || bytes[i] > '9')
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the decimal digits of value into the buffer
+	 *
+	 * @return the number of bytes written
+	 */
+	static int formatLong(long value, byte[] buffer)
+	{
+		if (value == Long.MIN_VALUE)
+		{
+			byte[] min = Long.toString(value).getBytes(ElasticSearchEventSerializer.charset);
+			System.arraycopy(min, 0, buffer, 0, min.length);
+			return min.length;
+		}
+
+		boolean negative = value < 0;
+		if (negative)
+		{
+			value = -value;
+		}
+
+		int length = 0;
+		do
+		{
+			buffer[length++] = (byte)('0' + (value % 10));
+			value /= 10;
+		} while (value != 0);
+
+		if (negative)
+		{
+			buffer[length++] = '-';
+		}
+
+		// Digits have been written in reverse order
+		for (int i = 0, j = length - 1; i < j; i++, j--)
+		{
+			byte b = buffer[i];
+			buffer[i] = buffer[j];
+			buffer[j] = b;
+		}
+		return length;
+	}
+
+	private static long readLong(BinaryDecoder decoder, Slot slot, Scratch scratch) throws IOException
+	{
+		switch (slot.kind)
+		{
+		case INT:
+			return decoder.readInt();
+		case LONG:
+			return decoder.readLong();
+		default:
+			return Long.parseLong(readText(decoder, slot, scratch));
+		}
+	}
+
+	/**
+	 * Writes a value of a primitive type as JSON number or boolean
+	 */
+	private static void writeTyped(XContentBuilder builder, BinaryDecoder decoder, String name, Slot slot) throws IOException
+	{
+		switch (slot.kind)
+		{
+		case INT:
+			builder.field(name, decoder.readInt());
+			return;
+		case LONG:
+			builder.field(name, decoder.readLong());
+			return;
+		case FLOAT:
+			builder.field(name, decoder.readFloat());
+			return;
+		case DOUBLE:
+			builder.field(name, decoder.readDouble());
+			return;
+		case BOOLEAN:
+			builder.field(name, decoder.readBoolean());
+			return;
+		default:
+			builder.field(name, readObject(decoder, slot).toString());
+		}
+	}
+
+	/**
+	 * Reads a coordinate without boxing it. Other types than double are converted,
+	 * as Double.parseDouble(value.toString()) would do.
+	 */
+	private static double readDouble(BinaryDecoder decoder, Slot slot, Scratch scratch) throws IOException
+	{
+		switch (slot.kind)
+		{
+		case DOUBLE:
+			return decoder.readDouble();
+		case INT:
+			return decoder.readInt();
+		case LONG:
+			return decoder.readLong();
+		default:
+			return FlumeAvroEventDeserializer.parseCoordinate(readText(decoder, slot, scratch));
+		}
+	}
+
+	private static Object readRawTime(BinaryDecoder decoder, Slot slot) throws IOException
+	{
+		if (slot.kind == Kind.UNION)
+		{
+			slot = slot.children[decoder.readIndex()];
+		}
+		return readObject(decoder, slot);
+	}
+
+	/**
+	 * Reads a value, as value.toString() would return it for the GenericRecord.
+	 *
+	 * @return the text or null, if the value is null
+	 */
+	private static String readText(BinaryDecoder decoder, Slot slot, Scratch scratch) throws IOException
+	{
+		if (slot.kind == Kind.UNION)
+		{
+			slot = slot.children[decoder.readIndex()];
+		}
+
+		switch (slot.kind)
+		{
+		case NULL:
+			decoder.readNull();
+			return null;
+		case BOOLEAN:
+			return Boolean.toString(decoder.readBoolean());
+		case INT:
+			return Integer.toString(decoder.readInt());
+		case LONG:
+			return Long.toString(decoder.readLong());
+		case FLOAT:
+			return Float.toString(decoder.readFloat());
+		case DOUBLE:
+			return Double.toString(decoder.readDouble());
+		case STRING:
+			scratch.utf8 = decoder.readString(scratch.utf8);
+			return scratch.utf8.toString();
+		default:
+			return readObject(decoder, slot).toString();
+		}
+	}
+
+	/**
+	 * Reads a value, as it would be stored in the GenericRecord
+	 */
+	private static Object readObject(BinaryDecoder decoder, Slot slot) throws IOException
+	{
+		switch (slot.kind)
+		{
+		case NULL:
+			decoder.readNull();
+			return null;
+		case BOOLEAN:
+			return decoder.readBoolean();
+		case INT:
+			return decoder.readInt();
+		case LONG:
+			return decoder.readLong();
+		case FLOAT:
+			return decoder.readFloat();
+		case DOUBLE:
+			return decoder.readDouble();
+		case STRING:
+			return decoder.readString(null);
+		default:
+			return slot.reader.read(null, decoder);
+		}
+	}
+
+	private static void skip(BinaryDecoder decoder, Slot slot) throws IOException
+	{
+		switch (slot.kind)
+		{
+		case NULL:
+			decoder.readNull();
+			break;
+		case BOOLEAN:
+			decoder.readBoolean();
+			break;
+		case INT:
+			decoder.readInt();
+			break;
+		case LONG:
+			decoder.readLong();
+			break;
+		case FLOAT:
+			decoder.readFloat();
+			break;
+		case DOUBLE:
+			decoder.readDouble();
+			break;
+		case STRING:
+			decoder.skipString();
+			break;
+		case BYTES:
+			decoder.skipBytes();
+			break;
+		case FIXED:
+			decoder.skipFixed(slot.schema.getFixedSize());
+			break;
+		case ENUM:
+			decoder.readEnum();
+			break;
+		case UNION:
+			skip(decoder, slot.children[decoder.readIndex()]);
+			break;
+		case RECORD:
+			for (Slot field : slot.children)
+			{
+				skip(decoder, field);
+			}
+			break;
+		case ARRAY:
+			for (long n = decoder.skipArray(); n != 0; n = decoder.skipArray())
+			{
+				for (long i = 0; i < n; i++)
+				{
+					skip(decoder, slot.children[0]);
+				}
+			}
+			break;
+		case MAP:
+			for (long n = decoder.skipMap(); n != 0; n = decoder.skipMap())
+			{
+				for (long i = 0; i < n; i++)
+				{
+					decoder.skipString();
+					skip(decoder, slot.children[0]);
+				}
+			}
+			break;
+		}
+	}
+
+	private static Layout getLayout(final Schema schema) throws IOException
+	{
+		try {
+			return layouts.get(schema, new Callable<Layout>() {
+				@Override
+				public Layout call() {
+					return compile(schema);
+				}
+			});
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private static Layout compile(Schema schema)
+	{
+		Map<Schema, Slot> records = new IdentityHashMap<Schema, Slot>();
+		List<Schema.Field> fields = schema.getFields();
+		Slot[] slots = new Slot[fields.size()];
+		int ngSourcePos = -1;
+		int timePos = -1;
+		for (Schema.Field field : fields)
+		{
+			slots[field.pos()] = compile(field.schema(), records);
+			if (field.name().equals("ng_source"))
+			{
+				ngSourcePos = field.pos();
+			}
+			else if (field.name().equals("time"))
+			{
+				timePos = field.pos();
+			}
+		}
+		return new Layout(slots, ngSourcePos, timePos);
+	}
+
+	private static Slot compile(Schema schema, Map<Schema, Slot> records)
+	{
+		Slot slot;
+		switch (schema.getType())
+		{
+		case NULL:
+			return new Slot(Kind.NULL, schema);
+		case BOOLEAN:
+			return new Slot(Kind.BOOLEAN, schema);
+		case INT:
+			return new Slot(Kind.INT, schema);
+		case LONG:
+			return new Slot(Kind.LONG, schema);
+		case FLOAT:
+			return new Slot(Kind.FLOAT, schema);
+		case DOUBLE:
+			return new Slot(Kind.DOUBLE, schema);
+		case STRING:
+			return new Slot(Kind.STRING, schema);
+		case ENUM:
+			slot = new Slot(Kind.ENUM, schema);
+			List<String> symbols = schema.getEnumSymbols();
+			slot.symbols = new byte[symbols.size()][];
+			for (int i = 0; i < symbols.size(); i++)
+			{
+				slot.symbols[i] = symbols.get(i).getBytes(ElasticSearchEventSerializer.charset);
+			}
+			break;
+		case UNION:
+			slot = new Slot(Kind.UNION, schema);
+			List<Schema> branches = schema.getTypes();
+			slot.children = new Slot[branches.size()];
+			for (int i = 0; i < branches.size(); i++)
+			{
+				slot.children[i] = compile(branches.get(i), records);
+			}
+			return slot;
+		case RECORD:
+			// Records may be recursive
+			slot = records.get(schema);
+			if (slot != null)
+			{
+				return slot;
+			}
+			slot = new Slot(Kind.RECORD, schema);
+			records.put(schema, slot);
+			List<Schema.Field> fields = schema.getFields();
+			slot.children = new Slot[fields.size()];
+			for (Schema.Field field : fields)
+			{
+				slot.children[field.pos()] = compile(field.schema(), records);
+			}
+			break;
+		case ARRAY:
+			slot = new Slot(Kind.ARRAY, schema);
+			slot.children = new Slot[] { compile(schema.getElementType(), records) };
+			break;
+		case MAP:
+			slot = new Slot(Kind.MAP, schema);
+			slot.children = new Slot[] { compile(schema.getValueType(), records) };
+			break;
+		case FIXED:
+			slot = new Slot(Kind.FIXED, schema);
+			break;
+		default:
+			slot = new Slot(Kind.BYTES, schema);
+			break;
+		}
+		slot.reader = new GenericDatumReader<Object>(schema);
+		return slot;
+	}
+}
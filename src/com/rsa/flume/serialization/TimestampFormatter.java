@@ -0,0 +1,131 @@
+package com.rsa.flume.serialization;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Formats the @timestamp as "yyyy-MM-dd'T'HH:mm:ss.SSSZ" in UTC, with the same result
+ * as SimpleDateFormat, but without creating a formatter per event.
+ *
+ * The timestamps of the sessions are whole seconds and most consecutive events share
+ * the same second. The last rendered second is therefore cached. The formatter is
+ * safe to be used by multiple threads.
+ */
+public final class TimestampFormatter {
+
+	// The Gregorian calendar applies from 1583 on. Dates outside are left to SimpleDateFormat
+	private static final long MIN_MILLIS = -12212553600000L;	// 1583-01-01T00:00:00Z
+	private static final long MAX_MILLIS = 253402300800000L;	// 10000-01-01T00:00:00Z
+
+	private static final ThreadLocal<SimpleDateFormat> fallback = new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+			sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+			return sdf;
+		}
+	};
+
+	/**
+	 * Rendered timestamp, published as a whole
+	 */
+	private static final class Rendered {
+		final long millis;
+		final String text;
+
+		Rendered(long millis, String text)
+		{
+			this.millis = millis;
+			this.text = text;
+		}
+	}
+
+	private static volatile Rendered last = new Rendered(Long.MIN_VALUE, null);
+
+	private TimestampFormatter()
+	{
+	}
+
+	/**
+	 * @param millis since the epoch
+	 * @return the timestamp as "yyyy-MM-dd'T'HH:mm:ss.SSS+0000"
+	 */
+	public static String format(long millis)
+	{
+		Rendered rendered = last;
+		if (rendered.millis == millis)
+		{
+			return rendered.text;
+		}
+
+		String text;
+		if (millis < MIN_MILLIS || millis >= MAX_MILLIS)
+		{
+			text = fallback.get().format(new Date(millis));
+		}
+		else
+		{
+			text = render(millis);
+		}
+		last = new Rendered(millis, text);
+		return text;
+	}
+
+	private static String render(long millis)
+	{
+		long days = floorDiv(millis, 86400000L);
+		int millisOfDay = (int)(millis - days * 86400000L);
+
+		// Civil date from the days since 1970-01-01, see http://howardhinnant.github.io/date_algorithms.html
+		long z = days + 719468;
+		long era = floorDiv(z, 146097);
+		int dayOfEra = (int)(z - era * 146097);
+		int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		int mp = (5 * dayOfYear + 2) / 153;
+		int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+		int month = mp < 10 ? mp + 3 : mp - 9;
+		int year = (int)(yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+
+		char[] buffer = new char[28];
+		put(buffer, 0, year, 4);
+		buffer[4] = '-';
+		put(buffer, 5, month, 2);
+		buffer[7] = '-';
+		put(buffer, 8, day, 2);
+		buffer[10] = 'T';
+		put(buffer, 11, millisOfDay / 3600000, 2);
+		buffer[13] = ':';
+		put(buffer, 14, (millisOfDay / 60000) % 60, 2);
+		buffer[16] = ':';
+		put(buffer, 17, (millisOfDay / 1000) % 60, 2);
+		buffer[19] = '.';
+		put(buffer, 20, millisOfDay % 1000, 3);
+		buffer[23] = '+';
+		buffer[24] = '0';
+		buffer[25] = '0';
+		buffer[26] = '0';
+		buffer[27] = '0';
+		return new String(buffer);
+	}
+
+	private static long floorDiv(long x, long y)
+	{
+		long q = x / y;
+		if ((x % y != 0) && ((x < 0) != (y < 0)))
+		{
+			q--;
+		}
+		return q;
+	}
+
+	private static void put(char[] buffer, int offset, int value, int digits)
+	{
+		for (int i = offset + digits - 1; i >= offset; i--)
+		{
+			buffer[i] = (char)('0' + value % 10);
+			value /= 10;
+		}
+	}
+}
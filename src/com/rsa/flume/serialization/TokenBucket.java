@@ -0,0 +1,48 @@
+package com.rsa.flume.serialization;
+
+/**
+ * Allows a number of events per second, with bursts up to the capacity of the bucket.
+ */
+public final class TokenBucket {
+
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	private final double rate;
+	private final double capacity;
+
+	private double tokens;
+	private long lastRefill;
+
+	/**
+	 * @param rate events per second
+	 * @param capacity maximum burst of events
+	 */
+	public TokenBucket(double rate, double capacity)
+	{
+		this.rate = rate;
+		this.capacity = Math.max(1, capacity);
+		this.tokens = this.capacity;
+		this.lastRefill = System.nanoTime();
+	}
+
+	/**
+	 * @return true, if the event is allowed
+	 */
+	public synchronized boolean tryAcquire()
+	{
+		long now = System.nanoTime();
+		tokens = Math.min(capacity, tokens + (now - lastRefill) * rate / NANOS_PER_SECOND);
+		lastRefill = now;
+		if (tokens < 1)
+		{
+			return false;
+		}
+		tokens--;
+		return true;
+	}
+
+	public double Rate()
+	{
+		return rate;
+	}
+}
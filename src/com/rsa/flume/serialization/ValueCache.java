@@ -0,0 +1,289 @@
+package com.rsa.flume.serialization;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded cache of the encoded values of a field, keyed by the raw UTF-8 bytes of the Avro value.
+ *
+ * Fields like device_type or the countries only have a few hundred distinct values. The cached
+ * Value holds the bytes, which are written to elasticSearch, with Country Mapping and truncation
+ * already applied, so that neither the String nor the mapping is needed for a repeated value.
+ *
+ * The cache is a fixed size array, indexed by the hash of the raw bytes. A value replaces the one
+ * in its slot, so the cache never grows. If the hit rate of a field stays below MIN_HIT_RATE,
+ * its cardinality is too high and the cache is switched off for the field. After a back-off of
+ * lookups it is switched on again for one window, in case the values of the field have changed.
+ * The back-off is doubled with every probe, which fails as well.
+ * Lookups don't lock and don't allocate. They are counted in stripes by thread, so that the
+ * threads of the sinks don't contend for one counter, and the stripes are summed up, when the
+ * hit rate is checked. Lookups, hits and the switch off are published per field by the
+ * ValueCacheCounter, whenever the hit rate is checked.
+ */
+public final class ValueCache {
+
+	private static final Logger logger = LoggerFactory.getLogger
+		      (ValueCache.class);
+
+	public static final int DEFAULT_SIZE = 1024;
+
+	// Hit rate is checked after this number of lookups
+	static final int WINDOW = 4096;
+
+	// Lookups while switched off, before the cache is probed again. Doubled after each failed probe
+	static final long MIN_BACKOFF = 16L * WINDOW;
+	private static final long MAX_BACKOFF = 1L << 26;
+
+	// Below this hit rate, the cache is switched off
+	private static final double MIN_HIT_RATE = 0.5;
+
+	// Statistics are logged after this number of lookups
+	private static final long LOG_INTERVAL = 1L << 20;
+
+	// Stripes of the lookup and hit counters, each on its own cache line
+	private static final int STRIPES = 8;
+	private static final int STRIPE_WIDTH = 16;
+	private static final int HITS = 1;
+
+	// A stripe asks for a check of the hit rate after this number of its lookups
+	private static final int STRIPE_CHECK = WINDOW / STRIPES;
+
+	/**
+	 * The encoded value of a field
+	 */
+	public static final class Value {
+		public final String text;		// The value as received, e.g. for device_type
+		public final byte[] bytes;		// The value as written, after Country Mapping and truncation
+		public final boolean numeric;	// Used for severity_num
+		private final byte[] key;
+
+		Value(byte[] key, String text, byte[] bytes, boolean numeric)
+		{
+			this.key = key;
+			this.text = text;
+			this.bytes = bytes;
+			this.numeric = numeric;
+		}
+
+		/**
+		 * @param raw
+		 * @param length
+		 * @return a Value with the same content, but for the raw bytes as key
+		 */
+		Value withKey(byte[] raw, int length)
+		{
+			byte[] key = new byte[length];
+			System.arraycopy(raw, 0, key, 0, length);
+			return new Value(key, text, bytes, numeric);
+		}
+	}
+
+	private final String field;
+	private final AtomicReferenceArray<Value> slots;
+	private final int mask;
+	private final ValueCacheCounter counter;
+
+	// Lookups of a stripe at stripe * STRIPE_WIDTH, its hits right after
+	private final AtomicLongArray stripes = new AtomicLongArray(STRIPES * STRIPE_WIDTH);
+	private volatile boolean enabled = true;
+
+	// Lookups since the cache has been switched off
+	private final AtomicLong skipped = new AtomicLong();
+	private volatile long backoff = MIN_BACKOFF;
+
+	// Values at the last check of the hit rate
+	private long windowLookups = 0L;
+	private long windowHits = 0L;
+
+	// true during the first window after the cache has been switched on again
+	private boolean probing = false;
+
+	/**
+	 * @param field
+	 * @param size number of slots, rounded up to a power of 2
+	 */
+	public ValueCache(String field, int size)
+	{
+		int capacity = Integer.highestOneBit(Math.max(size, 16) - 1) << 1;
+		this.field = field;
+		this.slots = new AtomicReferenceArray<Value>(capacity);
+		this.mask = capacity - 1;
+		this.counter = ValueCacheCounter.forField(field);
+		counter.setDisabled(false);
+	}
+
+	public String Field()
+	{
+		return field;
+	}
+
+	public long Lookups()
+	{
+		return sum(0);
+	}
+
+	public long Hits()
+	{
+		return sum(HITS);
+	}
+
+	public double HitRate()
+	{
+		long count = Lookups();
+		return count == 0 ? 0.0 : (double)Hits() / count;
+	}
+
+	public boolean Enabled()
+	{
+		return enabled;
+	}
+
+	/**
+	 * @param raw UTF-8 bytes of the value
+	 * @param length
+	 * @return the cached Value or null
+	 */
+	public Value get(byte[] raw, int length)
+	{
+		if (!enabled)
+		{
+			if (skipped.incrementAndGet() >= backoff)
+			{
+				probe();
+			}
+			return null;
+		}
+
+		Value value = slots.get(hash(raw, length) & mask);
+		boolean hit = value != null && matches(value.key, raw, length);
+		int stripe = ((int)Thread.currentThread().getId() & (STRIPES - 1)) * STRIPE_WIDTH;
+		if (hit)
+		{
+			stripes.incrementAndGet(stripe + HITS);
+		}
+
+		if ((stripes.incrementAndGet(stripe) & (STRIPE_CHECK - 1)) == 0)
+		{
+			checkHitRate();
+		}
+		return hit ? value : null;
+	}
+
+	/**
+	 * Stores the Value for the raw bytes
+	 *
+	 * @param raw
+	 * @param length
+	 * @param value
+	 * @return the stored Value
+	 */
+	public Value put(byte[] raw, int length, Value value)
+	{
+		if (!enabled)
+		{
+			return value;
+		}
+		value = value.withKey(raw, length);
+		slots.set(hash(raw, length) & mask, value);
+		return value;
+	}
+
+	/**
+	 * Switches the cache on again. No lookups are counted while it is off,
+	 * so the next check of the hit rate covers a full window of the probe.
+	 */
+	private synchronized void probe()
+	{
+		if (enabled)
+		{
+			return;
+		}
+		probing = true;
+		enabled = true;
+		counter.setDisabled(false);
+		logger.info("Value cache for " + field + " switched on again after " + skipped.get() + " lookups");
+	}
+
+	/**
+	 * Checks the hit rate, once the stripes add up to a window of lookups
+	 */
+	private synchronized void checkHitRate()
+	{
+		long count = Lookups();
+		if (!enabled || count - windowLookups < WINDOW)
+		{
+			return;
+		}
+		long currentHits = Hits();
+		long lastLookups = windowLookups;
+		double rate = (double)(currentHits - windowHits) / (count - windowLookups);
+		counter.addToLookups(count - windowLookups);
+		counter.addToHits(currentHits - windowHits);
+		windowLookups = count;
+		windowHits = currentHits;
+
+		if (rate < MIN_HIT_RATE)
+		{
+			if (probing)
+			{
+				backoff = Math.min(backoff * 2, MAX_BACKOFF);
+			}
+			probing = false;
+			skipped.set(0L);
+			enabled = false;
+			counter.setDisabled(true);
+			logger.info("Value cache for " + field + " switched off. Hit rate " + Math.round(rate * 100) + "%. Probing again after "
+					+ backoff + " lookups");
+			return;
+		}
+		if (probing)
+		{
+			probing = false;
+			backoff = MIN_BACKOFF;
+		}
+		if (count / LOG_INTERVAL != lastLookups / LOG_INTERVAL)
+		{
+			logger.info("Value cache for " + field + ": " + count + " lookups, hit rate " + Math.round(HitRate() * 100) + "%");
+		}
+	}
+
+	private long sum(int offset)
+	{
+		long sum = 0L;
+		for (int stripe = 0; stripe < STRIPES; stripe++)
+		{
+			sum += stripes.get(stripe * STRIPE_WIDTH + offset);
+		}
+		return sum;
+	}
+
+	private static int hash(byte[] raw, int length)
+	{
+		int hash = 0;
+		for (int i = 0; i < length; i++)
+		{
+			hash = 31 * hash + raw[i];
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean matches(byte[] key, byte[] raw, int length)
+	{
+		if (key.length != length)
+		{
+			return false;
+		}
+		for (int i = 0; i < length; i++)
+		{
+			if (key[i] != raw[i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+}
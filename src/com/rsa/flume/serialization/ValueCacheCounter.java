@@ -0,0 +1,92 @@
+package com.rsa.flume.serialization;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.flume.instrumentation.MonitoredCounterGroup;
+
+/**
+ * Counters of the Value Caches of a field, published as Flume counter group
+ * "org.apache.flume.other:type=ValueCache-field".
+ * The caches are replaced with every configuration snapshot, the counters of a field go on.
+ * Lookups and hits are published every few thousand lookups, when the cache checks its hit rate.
+ * Disabled is set, when the hit rate has been too low and the field is no longer cached.
+ */
+public class ValueCacheCounter extends MonitoredCounterGroup implements ValueCacheCounterMBean {
+
+	private static final String COUNTER_LOOKUPS = "valuecache.lookups";
+	private static final String COUNTER_HITS = "valuecache.hits";
+	private static final String COUNTER_DISABLED = "valuecache.disabled";
+
+	private static final String[] ATTRIBUTES = {
+		COUNTER_LOOKUPS, COUNTER_HITS, COUNTER_DISABLED
+	};
+
+	// Counters by field, for the whole process
+	private static final ConcurrentMap<String, ValueCacheCounter> counters = new ConcurrentHashMap<String, ValueCacheCounter>();
+
+	/**
+	 * @param field
+	 * @return the started counter of the field
+	 */
+	public static ValueCacheCounter forField(String field)
+	{
+		ValueCacheCounter counter = counters.get(field);
+		if (counter == null)
+		{
+			ValueCacheCounter created = new ValueCacheCounter("ValueCache-" + field);
+			counter = counters.putIfAbsent(field, created);
+			if (counter == null)
+			{
+				counter = created;
+				counter.start();
+			}
+		}
+		return counter;
+	}
+
+	private ValueCacheCounter(String name)
+	{
+		super(MonitoredCounterGroup.Type.OTHER, name, ATTRIBUTES);
+	}
+
+	public long addToLookups(long delta)
+	{
+		return addAndGet(COUNTER_LOOKUPS, delta);
+	}
+
+	public long addToHits(long delta)
+	{
+		return addAndGet(COUNTER_HITS, delta);
+	}
+
+	public void setDisabled(boolean disabled)
+	{
+		set(COUNTER_DISABLED, disabled ? 1 : 0);
+	}
+
+	@Override
+	public long getLookups()
+	{
+		return get(COUNTER_LOOKUPS);
+	}
+
+	@Override
+	public long getHits()
+	{
+		return get(COUNTER_HITS);
+	}
+
+	@Override
+	public double getHitRate()
+	{
+		long lookups = getLookups();
+		return lookups == 0 ? 0.0 : (double)getHits() / lookups;
+	}
+
+	@Override
+	public boolean isDisabled()
+	{
+		return get(COUNTER_DISABLED) != 0;
+	}
+}
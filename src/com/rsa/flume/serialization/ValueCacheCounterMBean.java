@@ -0,0 +1,12 @@
+package com.rsa.flume.serialization;
+
+/**
+ * JMX attributes of the Value Caches of a field
+ */
+public interface ValueCacheCounterMBean extends CounterGroupMBean {
+
+	long getLookups();
+	long getHits();
+	double getHitRate();
+	boolean isDisabled();
+}
@@ -0,0 +1,147 @@
+package com.rsa.flume.serialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.flume.Event;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AvroContainerReaderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File write(CodecFactory codec, int records) throws IOException
+	{
+		File file = folder.newFile();
+		DataFileWriter<GenericRecord> writer = new DataFileWriter<GenericRecord>(new GenericDatumWriter<GenericRecord>(TestEvents.SCHEMA));
+		writer.setCodec(codec);
+		// Small blocks, so that the file has many of them
+		writer.setSyncInterval(1024);
+		writer.setMeta("producer", "test");
+		writer.create(TestEvents.SCHEMA, file);
+		for (int i = 0; i < records; i++)
+		{
+			writer.append(TestEvents.record(TestEvents.SCHEMA, "sessionid", (long)i, "ip_src", "10.0.0." + (i % 256)));
+		}
+		writer.close();
+		return file;
+	}
+
+	private static List<Event> readAll(File file) throws IOException
+	{
+		final List<Event> events = new ArrayList<Event>();
+		AvroContainerReader reader = new AvroContainerReader(file);
+		try
+		{
+			long count = reader.read(new AvroContainerReader.Handler() {
+				@Override
+				public void handle(List<Event> blockEvents) {
+					events.addAll(blockEvents);
+				}
+			});
+			assertEquals(events.size(), count);
+		} finally {
+			reader.close();
+		}
+		return events;
+	}
+
+	private static void assertRecords(List<Event> events, int records) throws IOException
+	{
+		assertEquals(records, events.size());
+		for (int i = 0; i < records; i++)
+		{
+			GenericRecord record = RecordReader.read(TestEvents.SCHEMA, events.get(i).getBody());
+			assertEquals((long)i, record.get("sessionid"));
+			assertEquals("10.0.0." + (i % 256), record.get("ip_src").toString());
+		}
+	}
+
+	@Test
+	public void readsTheBlocksInOrder() throws IOException
+	{
+		File file = write(CodecFactory.nullCodec(), 5000);
+		List<Event> events = readAll(file);
+		assertRecords(events, 5000);
+		assertEquals(TestEvents.SCHEMA.toString(), events.get(0).getHeaders().get(SchemaCache.SCHEMA_LITERAL_HEADER));
+		assertEquals(file.getPath(), events.get(0).getHeaders().get(SchemaCache.FILE_HEADER));
+	}
+
+	@Test
+	public void readsCompressedBlocks() throws IOException
+	{
+		assertRecords(readAll(write(CodecFactory.deflateCodec(6), 5000)), 5000);
+		assertRecords(readAll(write(CodecFactory.snappyCodec(), 5000)), 5000);
+	}
+
+	@Test
+	public void readsAnEmptyFile() throws IOException
+	{
+		assertRecords(readAll(write(CodecFactory.nullCodec(), 0)), 0);
+	}
+
+	@Test
+	public void readsTheHeader() throws IOException
+	{
+		File file = write(CodecFactory.deflateCodec(1), 10);
+		AvroContainerHeader header = AvroContainerHeader.read(file);
+		assertEquals(TestEvents.SCHEMA, header.Schema());
+		assertEquals("deflate", header.Codec());
+		assertEquals("test", new String(header.Metadata().get("producer"), "UTF-8"));
+	}
+
+	@Test
+	public void rejectsATruncatedDeflateBlock() throws IOException
+	{
+		File file = write(CodecFactory.deflateCodec(6), 0);
+		byte[] sync = AvroContainerHeader.read(file).Sync();
+
+		// A block, whose deflate stream is cut off within the data of its record
+		Deflater deflater = new Deflater(6, true);
+		deflater.setInput(TestEvents.body(TestEvents.record(TestEvents.SCHEMA, "sessionid", 1L, "ip_src", "10.0.0.1")));
+		deflater.finish();
+		byte[] compressed = new byte[1024];
+		int length = deflater.deflate(compressed);
+		deflater.end();
+		compressed = Arrays.copyOf(compressed, length / 2);
+
+		ByteArrayOutputStream block = new ByteArrayOutputStream();
+		BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(block, null);
+		encoder.writeLong(1);
+		encoder.writeLong(compressed.length);
+		encoder.writeFixed(compressed);
+		encoder.writeFixed(sync);
+		encoder.flush();
+		try (FileOutputStream out = new FileOutputStream(file, true))
+		{
+			out.write(block.toByteArray());
+		}
+
+		try
+		{
+			readAll(file);
+			fail("The truncated block has been read");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Truncated deflate block"));
+		}
+	}
+}
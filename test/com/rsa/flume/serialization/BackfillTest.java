@@ -0,0 +1,95 @@
+package com.rsa.flume.serialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BackfillTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Two sessions and one without time, which can't be indexed
+	 */
+	private File writeSessions() throws IOException
+	{
+		File file = new File(folder.newFolder(), "sessions.avro");
+		DataFileWriter<GenericRecord> writer = new DataFileWriter<GenericRecord>(new GenericDatumWriter<GenericRecord>(TestEvents.SCHEMA));
+		writer.create(TestEvents.SCHEMA, file);
+		writer.append(TestEvents.record(TestEvents.SCHEMA, "ng_source", "dec-one", "time", 86400L, "sessionid", 1L));
+		writer.append(TestEvents.record(TestEvents.SCHEMA, "ng_source", "dec-one", "sessionid", 2L));
+		writer.append(TestEvents.record(TestEvents.SCHEMA, "ng_source", "dec-one", "time", 86401L, "sessionid", 3L));
+		writer.close();
+		return file;
+	}
+
+	private List<String> backfill(boolean blocks) throws IOException
+	{
+		return backfill(blocks, FlumeAvroEventDeserializer.ENCODER_GENERIC);
+	}
+
+	private List<String> backfill(boolean blocks, String encoder) throws IOException
+	{
+		File output = folder.newFolder();
+		Backfill backfill = new Backfill(output, "flume", "logs", false, encoder);
+		backfill.setBlocks(blocks);
+		Backfill.Result result = backfill.process(writeSessions());
+		assertEquals(3, result.events);
+		assertEquals(1, result.failed);
+		return Files.readAllLines(new File(output, "sessions.avro.ndjson").toPath(), Charset.forName("UTF-8"));
+	}
+
+	@Test
+	public void writesAnActionAndADocumentPerSession() throws IOException
+	{
+		List<String> lines = backfill(false);
+		assertEquals(4, lines.size());
+		assertEquals("{\"index\":{\"_index\":\"flume-1970-01-02\",\"_type\":\"logs\"}}", lines.get(0));
+		assertTrue(lines.get(1).contains("\"@timestamp\":\"1970-01-02T00:00:00.000+0000\""));
+		assertTrue(lines.get(3).contains("\"@timestamp\":\"1970-01-02T00:00:01.000+0000\""));
+	}
+
+	@Test
+	public void writesTheSameDocumentsFromBlocks() throws IOException
+	{
+		assertEquals(backfill(false), backfill(true));
+	}
+
+	@Test
+	public void writesTheSameDocumentsWithTheStreamingEncoder() throws IOException
+	{
+		assertEquals(backfill(false), backfill(false, FlumeAvroEventDeserializer.ENCODER_STREAMING));
+		assertEquals(backfill(false), backfill(true, FlumeAvroEventDeserializer.ENCODER_STREAMING));
+	}
+
+	@Test
+	public void leavesNoBulkFileForAFileWhichFails() throws IOException
+	{
+		File file = new File(folder.newFolder(), "broken.avro");
+		Files.write(file.toPath(), "not an avro file".getBytes("UTF-8"));
+
+		File output = folder.newFolder();
+		Backfill backfill = new Backfill(output, "flume", "logs", false, FlumeAvroEventDeserializer.ENCODER_GENERIC);
+		try
+		{
+			backfill.process(file);
+			fail("The file isn't an Avro file");
+		} catch (IOException e) {
+			assertEquals(0, output.list().length);
+		}
+	}
+}
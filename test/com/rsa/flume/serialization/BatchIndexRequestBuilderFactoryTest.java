@@ -0,0 +1,88 @@
+package com.rsa.flume.serialization;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.junit.Test;
+
+public class BatchIndexRequestBuilderFactoryTest {
+
+	private final FlumeAvroEventDeserializer serializer = new FlumeAvroEventDeserializer();
+
+	private static BatchIndexRequestBuilderFactory build()
+	{
+		BatchIndexRequestBuilderFactory factory = new BatchIndexRequestBuilderFactory();
+		factory.configure(new Context());
+		return factory;
+	}
+
+	private static List<Event> events(int count) throws IOException
+	{
+		List<Event> events = new ArrayList<Event>();
+		for (long sessionId = 0; sessionId < count; sessionId++)
+		{
+			events.add(TestEvents.event("ng_source", "dec-one", "time", 86400L + sessionId, "sessionid", sessionId));
+		}
+		return events;
+	}
+
+	@Test
+	public void returnsTheSourcesOfTheAnnouncedBatchInOrder() throws IOException
+	{
+		serializer.configure(new Context());
+		BatchIndexRequestBuilderFactory factory = build();
+		List<Event> events = events(3 * ParallelBatch.MIN_CHUNK);
+
+		BatchIndexRequestBuilderFactory.startBatch(events);
+		for (Event event : events)
+		{
+			assertEquals(serializer.getContentBuilder(event).string(), factory.getSource(event).string());
+		}
+	}
+
+	@Test
+	public void serializesEventsOutsideTheBatchOnTheirOwn() throws Exception
+	{
+		serializer.configure(new Context());
+		final BatchIndexRequestBuilderFactory factory = build();
+		final List<Event> events = events(3);
+		Event other = events(4).get(3);
+
+		BatchIndexRequestBuilderFactory.startBatch(events);
+
+		// Not the next event of the batch
+		assertEquals(serializer.getContentBuilder(other).string(), factory.getSource(other).string());
+		assertEquals(serializer.getContentBuilder(events.get(1)).string(), factory.getSource(events.get(1)).string());
+
+		// The batch is only seen by the thread, which announced it
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try
+		{
+			String source = executor.submit(new Callable<String>() {
+				@Override
+				public String call() throws IOException {
+					return factory.getSource(events.get(0)).string();
+				}
+			}).get();
+			assertEquals(serializer.getContentBuilder(events.get(0)).string(), source);
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+		// The batch of this thread goes on
+		for (Event event : events)
+		{
+			assertEquals(serializer.getContentBuilder(event).string(), factory.getSource(event).string());
+		}
+	}
+}
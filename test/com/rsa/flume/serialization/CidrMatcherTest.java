@@ -0,0 +1,99 @@
+package com.rsa.flume.serialization;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.apache.avro.util.Utf8;
+import org.junit.Test;
+
+public class CidrMatcherTest {
+
+	private final CidrMatcher defaults = CidrMatcher.defaults();
+
+	@Test
+	public void matchesTheRfc1918Networks()
+	{
+		assertTrue(defaults.contains("10.0.0.0"));
+		assertTrue(defaults.contains("10.255.255.255"));
+		assertTrue(defaults.contains("172.16.0.1"));
+		assertTrue(defaults.contains("172.31.255.255"));
+		assertTrue(defaults.contains("192.168.1.1"));
+		assertFalse(defaults.contains("172.15.255.255"));
+		assertFalse(defaults.contains("172.32.0.0"));
+		assertFalse(defaults.contains("8.8.8.8"));
+		assertFalse(defaults.contains("100.64.1.1"));
+	}
+
+	@Test
+	public void matchesIpv6AndMappedAddresses()
+	{
+		assertTrue(defaults.contains("fec0::1"));
+		assertTrue(defaults.contains("[fec0::1%eth0]"));
+		assertTrue(defaults.contains("::ffff:10.0.0.1"));
+		assertFalse(defaults.contains("::ffff:8.8.8.8"));
+		assertFalse(defaults.contains("2001:db8::1"));
+		assertFalse(defaults.contains("fe80::1"));
+	}
+
+	@Test
+	public void matchesUtf8Values()
+	{
+		assertTrue(defaults.contains(new Utf8("192.168.0.10")));
+		assertFalse(defaults.contains(new Utf8("192.169.0.10")));
+	}
+
+	@Test
+	public void rejectsInvalidLiterals()
+	{
+		assertFalse(defaults.contains(null));
+		assertFalse(defaults.contains(""));
+		assertFalse(defaults.contains("10.0.0"));
+		assertFalse(defaults.contains("10.0.0.256"));
+		assertFalse(defaults.contains("10.0.0.1."));
+		assertFalse(defaults.contains("10.0.0.0001"));
+		assertFalse(defaults.contains("fec0::1::2"));
+		assertFalse(defaults.contains("fec0:1:2:3:4:5:6:7:8"));
+		assertFalse(defaults.contains("localhost"));
+	}
+
+	@Test
+	public void compilesNamedAndCidrNetworks()
+	{
+		CidrMatcher matcher = CidrMatcher.compile(Arrays.asList("CGNAT", "LinkLocal", "ULA", "192.0.2.0/24", "2001:db8::/32", "203.0.113.7"));
+		assertTrue(matcher.contains("100.64.0.1"));
+		assertTrue(matcher.contains("100.127.255.255"));
+		assertFalse(matcher.contains("100.128.0.0"));
+		assertTrue(matcher.contains("169.254.1.1"));
+		assertTrue(matcher.contains("fe80::1"));
+		assertTrue(matcher.contains("fd00::5"));
+		assertTrue(matcher.contains("192.0.2.200"));
+		assertTrue(matcher.contains("2001:db8:ffff::1"));
+		assertFalse(matcher.contains("2001:db9::1"));
+		assertTrue(matcher.contains("203.0.113.7"));
+		assertFalse(matcher.contains("203.0.113.8"));
+		assertFalse(matcher.contains("10.0.0.1"));
+	}
+
+	@Test
+	public void mergesOverlappingNetworks()
+	{
+		CidrMatcher matcher = CidrMatcher.compile(Arrays.asList("10.0.0.0/16", "10.0.0.0/8", "10.1.0.0/16", "::/0"));
+		assertTrue(matcher.contains("10.200.0.1"));
+		assertTrue(matcher.contains("2001:db8::1"));
+		assertFalse(matcher.contains("11.0.0.0"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsAnInvalidPrefix()
+	{
+		CidrMatcher.compile(Arrays.asList("10.0.0.0/33"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsAnInvalidNetwork()
+	{
+		CidrMatcher.compile(Arrays.asList("intranet"));
+	}
+}
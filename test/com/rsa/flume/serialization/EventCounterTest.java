@@ -0,0 +1,52 @@
+package com.rsa.flume.serialization;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class EventCounterTest {
+
+	@Test
+	public void countsTheCommonAndOwnCounters()
+	{
+		FilterCounter counter = new FilterCounter("EventCounterTest-counts");
+		counter.addToEventsIn(3);
+		counter.addToEventsOut(2);
+		counter.incrementSchemaFailures();
+		counter.incrementDecodeErrors();
+		counter.incrementDroppedFilter();
+
+		assertEquals(3, counter.getEventsIn());
+		assertEquals(2, counter.getEventsOut());
+		assertEquals(1, counter.getSchemaFailures());
+		assertEquals(1, counter.getDecodeErrors());
+		assertEquals(1, counter.getDroppedFilter());
+	}
+
+	@Test
+	public void publishesTheInheritedAttributesViaJmx() throws Exception
+	{
+		SerializerCounter counter = new SerializerCounter("EventCounterTest-jmx");
+		counter.start();
+		try
+		{
+			counter.addToEventsIn(5);
+			counter.incrementDecodeErrors();
+
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("org.apache.flume.serializer:type=EventCounterTest-jmx");
+			assertEquals(5L, server.getAttribute(name, "EventsIn"));
+			assertEquals(1L, server.getAttribute(name, "DecodeErrors"));
+			assertEquals("SERIALIZER", server.getAttribute(name, "Type"));
+		}
+		finally
+		{
+			counter.stop();
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package com.rsa.flume.serialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.avro.Schema;
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+public class EventFilterTest {
+
+	private static EventFilter compile(String configuration) throws Exception
+	{
+		Element root = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+				.parse(new ByteArrayInputStream(("<configuration>" + configuration + "</configuration>").getBytes("UTF-8")))
+				.getDocumentElement();
+		NodeList nodes = root.getElementsByTagName("Filter");
+		List<Element> filters = new ArrayList<Element>();
+		for (int i = 0; i < nodes.getLength(); i++)
+		{
+			filters.add((Element)nodes.item(i));
+		}
+		return EventFilter.compile(filters);
+	}
+
+	private static boolean matches(EventFilter filter, Object... fieldsAndValues) throws Exception
+	{
+		return filter.matches(TestEvents.SCHEMA, TestEvents.body(TestEvents.record(TestEvents.SCHEMA, fieldsAndValues)));
+	}
+
+	@Test
+	public void matchesEqualsAndIn() throws Exception
+	{
+		EventFilter filter = compile("<Filter><Equals field=\"device_type\">ciscoasa</Equals>"
+				+ "<In field=\"service\"><Value>53</Value><Value>123</Value></In></Filter>");
+		assertTrue(matches(filter, "device_type", "ciscoasa"));
+		assertFalse(matches(filter, "device_type", "ciscoasa2"));
+		assertTrue(matches(filter, "service", 53));
+		assertTrue(matches(filter, "service", 123));
+		assertFalse(matches(filter, "service", 80));
+		assertFalse(matches(filter));
+	}
+
+	@Test
+	public void matchesPrefixCidrAndRange() throws Exception
+	{
+		EventFilter filter = compile("<Filter><Prefix field=\"device_type\">win</Prefix></Filter>"
+				+ "<Filter><Cidr field=\"ip_src\"><Network>RFC1918</Network><Network>100.64.0.0/10</Network></Cidr>"
+				+ "<Range field=\"size\" min=\"10\" max=\"64\"/></Filter>");
+		assertTrue(matches(filter, "device_type", "winevent_nic"));
+		assertFalse(matches(filter, "device_type", "wi"));
+		assertTrue(matches(filter, "ip_src", "10.1.2.3"));
+		assertTrue(matches(filter, "ip_src", "100.64.0.1"));
+		assertFalse(matches(filter, "ip_src", "8.8.8.8"));
+		assertTrue(matches(filter, "size", 10L));
+		assertTrue(matches(filter, "size", 64L));
+		assertFalse(matches(filter, "size", 9L));
+		assertFalse(matches(filter, "size", 65L));
+	}
+
+	@Test
+	public void combinesWithAndOrNot() throws Exception
+	{
+		EventFilter filter = compile("<Filter><And>"
+				+ "<Equals field=\"device_type\">ciscoasa</Equals>"
+				+ "<Not><Cidr field=\"ip_dst\"><Network>RFC1918</Network></Cidr></Not>"
+				+ "<Or><Range field=\"packets\" max=\"1\"/><Equals field=\"service\">0</Equals></Or>"
+				+ "</And></Filter>");
+		assertTrue(matches(filter, "device_type", "ciscoasa", "ip_dst", "8.8.8.8", "packets", 1L));
+		assertTrue(matches(filter, "device_type", "ciscoasa", "ip_dst", "8.8.8.8", "packets", 5L, "service", 0));
+		assertFalse(matches(filter, "device_type", "ciscoasa", "ip_dst", "8.8.8.8", "packets", 5L, "service", 80));
+		assertFalse(matches(filter, "device_type", "ciscoasa", "ip_dst", "10.0.0.1", "packets", 1L));
+		assertFalse(matches(filter, "device_type", "checkpoint", "ip_dst", "8.8.8.8", "packets", 1L));
+	}
+
+	@Test
+	public void decodesOnlyTheReferencedFields() throws Exception
+	{
+		EventFilter filter = compile("<Filter><Equals field=\"ip_src\">1.2.3.4</Equals><Range field=\"size\" max=\"1\"/></Filter>");
+		assertEquals(2, filter.Projection().FieldNames().size());
+		Schema reader = filter.Projection().readerSchema(TestEvents.SCHEMA);
+		assertEquals(2, reader.getFields().size());
+	}
+
+	@Test
+	public void ignoresConditionsOnFieldsOfOtherSchemas() throws Exception
+	{
+		EventFilter filter = compile("<Filter><Equals field=\"alias_host\">ads.example.com</Equals>"
+				+ "<Equals field=\"device_type\">ciscoasa</Equals></Filter>");
+		assertTrue(matches(filter, "device_type", "ciscoasa"));
+		assertFalse(matches(filter, "device_type", "checkpoint"));
+	}
+
+	@Test
+	public void doesNotNegateConditionsOnMissingFields() throws Exception
+	{
+		// alias_host is not part of the Schema, device_type is not set
+		EventFilter filter = compile("<Filter><Not><Equals field=\"alias_host\">ads.example.com</Equals></Not>"
+				+ "<Not><Equals field=\"device_type\">ciscoasa</Equals></Not></Filter>");
+		assertFalse(matches(filter));
+		assertTrue(matches(filter, "device_type", "checkpoint"));
+		assertFalse(matches(filter, "device_type", "ciscoasa"));
+	}
+
+	@Test
+	public void combinesUnknownConditions() throws Exception
+	{
+		// A false operand decides And, a true one decides Or, whatever the unknown ones are
+		EventFilter filter = compile("<Filter><Not><And><Equals field=\"alias_host\">ads.example.com</Equals>"
+				+ "<Equals field=\"device_type\">ciscoasa</Equals></And></Not>"
+				+ "<Or><Equals field=\"alias_host\">ads.example.com</Equals><Range field=\"size\" max=\"1\"/></Or></Filter>");
+		assertTrue(matches(filter, "device_type", "checkpoint", "size", 100L));
+		assertFalse(matches(filter, "device_type", "ciscoasa", "size", 100L));
+		assertTrue(matches(filter, "device_type", "ciscoasa", "size", 1L));
+		assertFalse(matches(filter));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnknownExpressions() throws Exception
+	{
+		compile("<Filter><Like field=\"device_type\">cisco%</Like></Filter>");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsARangeWithoutBounds() throws Exception
+	{
+		compile("<Filter><Range field=\"size\"/></Filter>");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsAConditionWithoutField() throws Exception
+	{
+		compile("<Filter><Equals>ciscoasa</Equals></Filter>");
+	}
+}
@@ -0,0 +1,87 @@
+package com.rsa.flume.serialization;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.junit.Test;
+
+public class FlumeAvroEventDeserializerTest {
+
+	private static FlumeAvroEventDeserializer build(String encoder)
+	{
+		Context ctx = new Context();
+		ctx.put(FlumeAvroEventDeserializer.ENCODER, encoder);
+		FlumeAvroEventDeserializer serializer = new FlumeAvroEventDeserializer();
+		serializer.configure(ctx);
+		return serializer;
+	}
+
+	@Test
+	public void serializesABatchInTheOrderOfTheEvents() throws IOException
+	{
+		FlumeAvroEventDeserializer serializer = build(FlumeAvroEventDeserializer.ENCODER_STREAMING);
+
+		// More than one chunk, so the batch is split among the threads of the pool
+		List<Event> events = new ArrayList<Event>();
+		for (long sessionId = 0; sessionId < 10 * ParallelBatch.MIN_CHUNK; sessionId++)
+		{
+			events.add(TestEvents.event("ng_source", "dec-one", "time", 86400L + sessionId, "sessionid", sessionId));
+		}
+
+		List<XContentBuilder> builders = serializer.getContentBuilders(events);
+		assertEquals(events.size(), builders.size());
+		for (int i = 0; i < events.size(); i++)
+		{
+			assertEquals(serializer.getContentBuilder(events.get(i)).string(), builders.get(i).string());
+		}
+	}
+
+	@Test
+	public void returnsAnEmptyDocumentForAnEventFailingWithinTheFields() throws IOException
+	{
+		Event event = TestEvents.event("ng_source", "dec-one", "time", 86400L, "sessionid", 1L, "device_type", "ciscoasa",
+				"ip_src", "10.0.0.1", "ip_dst", "10.0.0.2", "size", 100L);
+
+		// The body ends within ip_dst, after the first fields have been written
+		byte[] body = event.getBody();
+		event.setBody(Arrays.copyOf(body, body.length - 8));
+
+		for (String encoder : new String[] { FlumeAvroEventDeserializer.ENCODER_GENERIC, FlumeAvroEventDeserializer.ENCODER_STREAMING })
+		{
+			assertEquals("{}", build(encoder).getContentBuilder(event).string());
+		}
+	}
+
+	@Test
+	public void returnsAnEmptyDocumentForAStampedEventWithATruncatedBody() throws IOException
+	{
+		Event event = TestEvents.event("ng_source", "dec-one", "time", 86400L, "sessionid", 1L, "device_type", "ciscoasa",
+				"ip_src", "10.0.0.1", "ip_dst", "10.0.0.2", "size", 100L);
+
+		// Decoded by the interceptor, so the streaming encoder doesn't read ng_source and time before writing the fields
+		event.getHeaders().put(EventHeaders.DECODER, "dec-one");
+		event.getHeaders().put(EventHeaders.TIMESTAMP, "86400000");
+		byte[] body = event.getBody();
+		event.setBody(Arrays.copyOf(body, body.length - 8));
+
+		for (String encoder : new String[] { FlumeAvroEventDeserializer.ENCODER_GENERIC, FlumeAvroEventDeserializer.ENCODER_STREAMING })
+		{
+			assertEquals("{}", build(encoder).getContentBuilder(event).string());
+		}
+
+		// A corrupt union index
+		body[0] = 0x7f;
+		event.setBody(body);
+		for (String encoder : new String[] { FlumeAvroEventDeserializer.ENCODER_GENERIC, FlumeAvroEventDeserializer.ENCODER_STREAMING })
+		{
+			assertEquals("{}", build(encoder).getContentBuilder(event).string());
+		}
+	}
+}
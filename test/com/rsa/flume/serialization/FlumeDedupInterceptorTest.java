@@ -0,0 +1,106 @@
+package com.rsa.flume.serialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.interceptor.Interceptor;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FlumeDedupInterceptorTest {
+
+	private Interceptor interceptor;
+
+	@Before
+	public void build()
+	{
+		Interceptor.Builder builder = new FlumeDedupInterceptor.FlumeDedupInterceptorBuilder();
+		builder.configure(new Context());
+		interceptor = builder.build();
+	}
+
+	/**
+	 * New events for the sessions, as the Spooling Directory source reads them again after a failed put
+	 */
+	private static List<Event> batch(long... sessionIds) throws IOException
+	{
+		List<Event> events = new ArrayList<Event>();
+		for (long sessionId : sessionIds)
+		{
+			events.add(TestEvents.event("ng_source", "dec-one", "sessionid", sessionId));
+		}
+		return events;
+	}
+
+	@Test
+	public void passesABatchDeliveredAgain() throws IOException
+	{
+		assertEquals(3, interceptor.intercept(batch(1, 2, 3)).size());
+		assertEquals(3, interceptor.intercept(batch(1, 2, 3)).size());
+		assertEquals(3, interceptor.intercept(batch(1, 2, 3)).size());
+	}
+
+	@Test
+	public void dropsTheSessionsOfAnAcceptedBatch() throws IOException
+	{
+		assertEquals(3, interceptor.intercept(batch(1, 2, 3)).size());
+		assertEquals(2, interceptor.intercept(batch(4, 5)).size());
+		assertEquals(0, interceptor.intercept(batch(1, 2, 3)).size());
+		assertEquals(1, interceptor.intercept(batch(2, 6)).size());
+	}
+
+	/**
+	 * The same sessions, exported again into another file
+	 */
+	private static List<Event> batch(String file, long... sessionIds) throws IOException
+	{
+		List<Event> events = batch(sessionIds);
+		for (Event event : events)
+		{
+			event.getHeaders().put(SchemaCache.FILE_HEADER, file);
+		}
+		return events;
+	}
+
+	@Test
+	public void dropsAFileExportedAgainRightAfterTheOriginal() throws IOException
+	{
+		assertEquals(3, interceptor.intercept(batch("/spool/dec-one_1.avro", 1, 2, 3)).size());
+		assertEquals(3, interceptor.intercept(batch("/spool/dec-one_1.avro", 1, 2, 3)).size());
+		assertEquals(0, interceptor.intercept(batch("/spool/dec-one_2.avro", 1, 2, 3)).size());
+		assertEquals(1, interceptor.intercept(batch("/spool/dec-one_3.avro", 3, 4)).size());
+	}
+
+	@Test
+	public void dropsDuplicatesWithinTheBatch() throws IOException
+	{
+		assertEquals(2, interceptor.intercept(batch(1, 1, 2)).size());
+		assertEquals(2, interceptor.intercept(batch(1, 1, 2)).size());
+		assertEquals(1, interceptor.intercept(batch(3, 3)).size());
+	}
+
+	@Test
+	public void passesSessionsWithoutKey() throws IOException
+	{
+		List<Event> events = new ArrayList<Event>();
+		events.add(TestEvents.event("ng_source", "dec-one"));
+		events.add(TestEvents.event("ng_source", "dec-one"));
+		assertEquals(2, interceptor.intercept(events).size());
+	}
+
+	@Test
+	public void dedupsSingleEvents() throws IOException
+	{
+		assertNotNull(interceptor.intercept(batch(7).get(0)));
+		assertNotNull(interceptor.intercept(batch(7).get(0)));
+		assertNotNull(interceptor.intercept(batch(8).get(0)));
+		assertNull(interceptor.intercept(batch(7).get(0)));
+	}
+}
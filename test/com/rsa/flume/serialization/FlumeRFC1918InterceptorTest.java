@@ -0,0 +1,141 @@
+package com.rsa.flume.serialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.flume.ChannelException;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.apache.flume.interceptor.Interceptor;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FlumeRFC1918InterceptorTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Interceptor interceptor;
+
+	@After
+	public void close()
+	{
+		if (interceptor != null)
+		{
+			interceptor.close();
+		}
+	}
+
+	private void build(long parkTimeout)
+	{
+		Context ctx = new Context();
+		ctx.put(FlumeRFC1918Interceptor.STAMP_HEADERS, "true");
+		ctx.put(FlumeRFC1918Interceptor.ASYNC_SCHEMA, "true");
+		ctx.put(FlumeRFC1918Interceptor.PARK_TIMEOUT, Long.toString(parkTimeout));
+		Interceptor.Builder builder = new FlumeRFC1918Interceptor.FlumeRFC1918InterceptorBuilder();
+		builder.configure(ctx);
+		interceptor = builder.build();
+		interceptor.initialize();
+	}
+
+	/**
+	 * An event referencing its schema by the hash of the file
+	 */
+	private static Event hashEvent(File file, String hash, long sessionId) throws IOException
+	{
+		byte[] body = TestEvents.body(TestEvents.record(TestEvents.SCHEMA, "ng_source", "dec-one", "time", 1000L, "sessionid", sessionId));
+		return EventBuilder.withBody(body, SchemaCacheTest.hashHeaders(hash, file));
+	}
+
+	private static Event literalEvent(long sessionId) throws IOException
+	{
+		return TestEvents.event("ng_source", "dec-one", "time", 1000L, "sessionid", sessionId);
+	}
+
+	/**
+	 * Writes the file after the delay on another thread, as the Warehouse Connector does
+	 */
+	private static void writeLater(final File file, final long delayMillis)
+	{
+		Thread writer = new Thread() {
+			@Override
+			public void run()
+			{
+				try
+				{
+					Thread.sleep(delayMillis);
+					SchemaCacheTest.writeAvroFile(file);
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	@Test
+	public void keepsTheOrderOfTheBatch() throws IOException
+	{
+		build(5000);
+		File file = new File(folder.getRoot(), "sessions.avro");
+		writeLater(file, 200);
+
+		List<Event> events = new ArrayList<Event>();
+		events.add(literalEvent(1L));
+		events.add(hashEvent(file, "order", 2L));
+		events.add(literalEvent(3L));
+		events.add(hashEvent(file, "order", 4L));
+		events.add(literalEvent(5L));
+
+		List<Event> results = interceptor.intercept(events);
+		assertEquals(events, results);
+		for (Event event : results)
+		{
+			// The parked events have been processed as well
+			assertEquals("dec-one", event.getHeaders().get(EventHeaders.DECODER));
+		}
+	}
+
+	@Test
+	public void deliversTheBatchAgainWhenTheSchemaIsLate() throws IOException
+	{
+		build(100);
+		File file = new File(folder.getRoot(), "sessions.avro");
+
+		List<Event> events = new ArrayList<Event>();
+		events.add(literalEvent(1L));
+		events.add(hashEvent(file, "late", 2L));
+		try
+		{
+			interceptor.intercept(events);
+			fail("The parked event has been committed without its schema");
+		} catch (ChannelException e) {
+			// The source rolls the batch back and reads it again
+		}
+
+		// The same batch, once the file is there. It is delivered again, until the schema has been read
+		SchemaCacheTest.writeAvroFile(file);
+		for (int attempt = 1; ; attempt++)
+		{
+			try
+			{
+				assertEquals(events, interceptor.intercept(new ArrayList<Event>(events)));
+				return;
+			} catch (ChannelException e) {
+				if (attempt == 20)
+				{
+					throw e;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,294 @@
+package com.rsa.flume.serialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.flume.ChannelException;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.interceptor.Interceptor;
+import org.apache.flume.serialization.AvroEventDeserializer;
+import org.apache.flume.serialization.DurablePositionTracker;
+import org.apache.flume.serialization.EventDeserializer;
+import org.apache.flume.serialization.ResettableFileInputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FlumeRollupInterceptorTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Interceptor build(long interval)
+	{
+		return build(interval, 0, 100000);
+	}
+
+	private Interceptor build(long interval, long lateness, int maxBuckets)
+	{
+		return build(folder.getRoot(), interval, lateness, maxBuckets);
+	}
+
+	private Interceptor build(File directory, long interval, long lateness, int maxBuckets)
+	{
+		Context ctx = new Context();
+		ctx.put(FlumeRollupInterceptor.MAX_BUCKETS, Integer.toString(maxBuckets));
+		ctx.put(FlumeRollupInterceptor.DIRECTORY, directory.getPath());
+		ctx.put(FlumeRollupInterceptor.INTERVAL, Long.toString(interval));
+		ctx.put(FlumeRollupInterceptor.LATENESS, Long.toString(lateness));
+		ctx.put(FlumeRollupInterceptor.DIMENSIONS, "device_type");
+		Interceptor.Builder builder = new FlumeRollupInterceptor.FlumeRollupInterceptorBuilder();
+		builder.configure(ctx);
+		Interceptor interceptor = builder.build();
+		interceptor.initialize();
+		return interceptor;
+	}
+
+	private static Event session(long time, String deviceType, long size) throws IOException
+	{
+		return TestEvents.event("ng_source", "dec-one", "time", time, "device_type", deviceType, "size", size, "packets", 1L);
+	}
+
+	/**
+	 * @return the summary files written so far, ignoring the files being written
+	 */
+	private List<File> summaryFiles()
+	{
+		List<File> files = new ArrayList<File>();
+		for (File file : folder.getRoot().listFiles())
+		{
+			if (file.isFile() && !file.getName().startsWith("."))
+			{
+				files.add(file);
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Reads the events of a file as the Spooling Directory source does, with fileHeader = true
+	 */
+	private List<Event> readAsSpoolingDirectorySource(File file, String schemaType) throws IOException
+	{
+		Context ctx = new Context();
+		ctx.put(AvroEventDeserializer.CONFIG_SCHEMA_TYPE_KEY, schemaType);
+		File meta = new File(folder.newFolder(), "meta");
+		EventDeserializer deserializer = new AvroEventDeserializer.Builder().build(ctx,
+				new ResettableFileInputStream(file, DurablePositionTracker.getInstance(meta, file.getPath())));
+		List<Event> events = deserializer.readEvents(100);
+		deserializer.close();
+		for (Event event : events)
+		{
+			event.getHeaders().put(SchemaCache.FILE_HEADER, file.getPath());
+		}
+		return events;
+	}
+
+	/**
+	 * @return the summaries written so far by device_type, ignoring the files being written
+	 */
+	private Map<String, GenericRecord> summaries() throws IOException
+	{
+		Map<String, GenericRecord> summaries = new HashMap<String, GenericRecord>();
+		for (File file : summaryFiles())
+		{
+			DataFileReader<GenericRecord> reader = new DataFileReader<GenericRecord>(file, new GenericDatumReader<GenericRecord>());
+			for (GenericRecord record : reader)
+			{
+				Object deviceType = record.get("device_type");
+				summaries.put(deviceType == null ? null : deviceType.toString(), record);
+			}
+			reader.close();
+		}
+		return summaries;
+	}
+
+	@Test
+	public void writesTheOpenBucketsOnClose() throws IOException
+	{
+		Interceptor interceptor = build(60);
+		List<Event> events = new ArrayList<Event>();
+		events.add(session(60L, "ciscoasa", 100L));
+		events.add(session(61L, "ciscoasa", 50L));
+		events.add(session(62L, null, 10L));
+		events.add(session(63L, "null", 20L));
+		assertTrue(interceptor.intercept(events).isEmpty());
+		assertTrue(summaries().isEmpty());
+
+		interceptor.close();
+		Map<String, GenericRecord> summaries = summaries();
+		assertEquals(3, summaries.size());
+		assertEquals(2L, summaries.get("ciscoasa").get("sessions"));
+		assertEquals(150L, summaries.get("ciscoasa").get("size"));
+		assertEquals(60L, summaries.get("ciscoasa").get("time"));
+
+		// A missing value is not the text "null"
+		assertEquals(10L, summaries.get(null).get("size"));
+		assertEquals(20L, summaries.get("null").get("size"));
+	}
+
+	@Test
+	public void aggregatesARedeliveredBatchOnce() throws IOException
+	{
+		Interceptor interceptor = build(60);
+		List<Event> events = new ArrayList<Event>();
+		events.add(session(60L, "ciscoasa", 100L));
+		events.add(session(61L, "ciscoasa", 50L));
+		interceptor.intercept(events);
+
+		// The source reads the same sessions again after a failed put
+		List<Event> again = new ArrayList<Event>();
+		again.add(session(60L, "ciscoasa", 100L));
+		again.add(session(61L, "ciscoasa", 50L));
+		interceptor.intercept(again);
+		interceptor.close();
+
+		assertEquals(2L, summaries().get("ciscoasa").get("sessions"));
+		assertEquals(150L, summaries().get("ciscoasa").get("size"));
+	}
+
+	@Test
+	public void flushesWithoutFurtherBatches() throws IOException, InterruptedException
+	{
+		Interceptor interceptor = build(1);
+		List<Event> events = new ArrayList<Event>();
+		events.add(session(60L, "ciscoasa", 100L));
+		interceptor.intercept(events);
+
+		// The interval is complete after being open for one second, the timer writes it
+		long deadline = System.currentTimeMillis() + 5000;
+		while (summaries().isEmpty() && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(100);
+		}
+		assertEquals(1L, summaries().get("ciscoasa").get("sessions"));
+		interceptor.close();
+	}
+
+	@Test
+	public void writesSummariesTheSerializerReadsBack() throws IOException
+	{
+		Interceptor interceptor = build(60);
+		List<Event> events = new ArrayList<Event>();
+		events.add(session(60L, "ciscoasa", 100L));
+		events.add(session(61L, "ciscoasa", 50L));
+		interceptor.intercept(events);
+		interceptor.close();
+		assertEquals(1, summaryFiles().size());
+
+		// A configuration, which includes all fields, instead of the one in /opt/flume/conf
+		File conf = folder.newFolder();
+		try (PrintWriter xml = new PrintWriter(new File(conf, Config.CONFIG_FILE), "UTF-8"))
+		{
+			xml.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+			xml.println("<configuration>");
+			xml.println("  <Include Decoder=\"*\" IncludeAllFields=\"1\"/>");
+			xml.println("  <KibanaVersion>5</KibanaVersion>");
+			xml.println("</configuration>");
+		}
+		Config config = Config.read(conf);
+
+		// The schema comes as literal, or is read from the file by its hash
+		for (String schemaType : new String[] { "LITERAL", "HASH" })
+		{
+			List<Event> summaries = readAsSpoolingDirectorySource(summaryFiles().get(0), schemaType);
+			assertEquals(1, summaries.size());
+			Schema schema = SchemaCache.getinstance().getSchema(summaries.get(0).getHeaders());
+			assertEquals("rollup", schema.getName());
+
+			String document = new FlumeAvroEventDeserializer().getDocument(summaries.get(0), config).string();
+			assertTrue(document, document.contains("\"sessions\":\"2\""));
+			assertTrue(document, document.contains("\"size\":\"150\""));
+			assertTrue(document, document.contains("\"@source\":\"dec-one\""));
+		}
+	}
+
+	@Test
+	public void writesTheOldestIntervalAsSoonAsMaxBucketsIsExceeded() throws IOException
+	{
+		Interceptor interceptor = build(60, 3600, 2);
+		List<Event> events = new ArrayList<Event>();
+		events.add(session(60L, "ciscoasa", 100L));
+		events.add(session(120L, "ciscoasa", 50L));
+
+		// The third bucket writes the first interval, before the rest of the batch is aggregated
+		events.add(session(180L, "ciscoasa", 10L));
+		events.add(session(61L, "ciscoasa", 20L));
+		interceptor.intercept(events);
+
+		// The late session of the written interval is a second summary, which has been written as well
+		List<Long> sizes = new ArrayList<Long>();
+		for (File file : summaryFiles())
+		{
+			DataFileReader<GenericRecord> reader = new DataFileReader<GenericRecord>(file, new GenericDatumReader<GenericRecord>());
+			for (GenericRecord record : reader)
+			{
+				assertEquals(60L, record.get("time"));
+				sizes.add((Long)record.get("size"));
+			}
+			reader.close();
+		}
+		Collections.sort(sizes);
+		assertEquals(Arrays.asList(20L, 100L), sizes);
+		interceptor.close();
+	}
+
+	@Test
+	public void refusesBatchesWhileTooManyBucketsCantBeWritten() throws IOException
+	{
+		// A file, so that the summaries can't be written into it
+		File directory = new File(folder.getRoot(), "summaries");
+		assertTrue(directory.createNewFile());
+		Interceptor interceptor = build(directory, 60, 3600, 2);
+
+		// The third bucket can't be written, the batch is aggregated nevertheless
+		interceptor.intercept(Arrays.asList(session(60L, "ciscoasa", 100L), session(120L, "ciscoasa", 50L),
+				session(180L, "ciscoasa", 10L)));
+
+		List<Event> batch = Arrays.asList(session(240L, "ciscoasa", 20L), session(241L, "ciscoasa", 5L));
+		try
+		{
+			interceptor.intercept(batch);
+			fail("The batch has been aggregated with too many buckets");
+		} catch (ChannelException e) {
+			// The source delivers the batch again
+		}
+
+		// Once the summaries can be written, the batch delivered again is aggregated
+		assertTrue(directory.delete());
+		assertTrue(directory.mkdir());
+		interceptor.intercept(batch);
+		interceptor.close();
+
+		long sessions = 0;
+		long size = 0;
+		for (File file : directory.listFiles())
+		{
+			DataFileReader<GenericRecord> reader = new DataFileReader<GenericRecord>(file, new GenericDatumReader<GenericRecord>());
+			for (GenericRecord record : reader)
+			{
+				sessions += (Long)record.get("sessions");
+				size += (Long)record.get("size");
+			}
+			reader.close();
+		}
+		assertEquals(5L, sessions);
+		assertEquals(185L, size);
+	}
+}
@@ -0,0 +1,87 @@
+package com.rsa.flume.serialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.interceptor.Interceptor;
+import org.junit.Test;
+
+public class FlumeSamplingInterceptorTest {
+
+	private static Interceptor build(String deviceSample)
+	{
+		Context ctx = new Context();
+		ctx.put(FlumeSamplingInterceptor.DEVICE_SAMPLE + "ciscoasa", deviceSample);
+		Interceptor.Builder builder = new FlumeSamplingInterceptor.FlumeSamplingInterceptorBuilder();
+		builder.configure(ctx);
+		return builder.build();
+	}
+
+	private static List<Event> sessions(int count) throws IOException
+	{
+		List<Event> events = new ArrayList<Event>();
+		for (long sessionId = 0; sessionId < count; sessionId++)
+		{
+			events.add(TestEvents.event("ng_source", "dec-one", "device_type", "ciscoasa", "sessionid", sessionId));
+		}
+		return events;
+	}
+
+	/**
+	 * @return the number of sessions the kept ones stand for
+	 */
+	private static long weight(List<Event> events)
+	{
+		long weight = 0;
+		for (Event event : events)
+		{
+			weight += Long.parseLong(event.getHeaders().get(EventHeaders.SAMPLE_RATE));
+		}
+		return weight;
+	}
+
+	@Test
+	public void marksTheSampleRate() throws IOException
+	{
+		List<Event> kept = build("4").intercept(sessions(8000));
+		assertTrue(kept.size() > 1800 && kept.size() < 2200);
+		assertEquals("4", kept.get(0).getHeaders().get(EventHeaders.SAMPLE_RATE));
+	}
+
+	@Test
+	public void nestsChainedSamples() throws IOException
+	{
+		// The second stage keeps the same sessions, the first one has kept
+		List<Event> first = build("2").intercept(sessions(8000));
+		List<Event> second = build("4").intercept(new ArrayList<Event>(first));
+		List<Event> direct = build("4").intercept(sessions(8000));
+		assertEquals(direct.size(), second.size());
+		assertEquals("4", second.get(0).getHeaders().get(EventHeaders.SAMPLE_RATE));
+		assertEquals(weight(direct), weight(second));
+	}
+
+	@Test
+	public void combinesRatesToTheirLeastCommonMultiple() throws IOException
+	{
+		List<Event> kept = build("3").intercept(build("2").intercept(sessions(12000)));
+		assertTrue(kept.size() > 1800 && kept.size() < 2200);
+		assertEquals("6", kept.get(0).getHeaders().get(EventHeaders.SAMPLE_RATE));
+		assertEquals(6, FlumeSamplingInterceptor.lcm(6, 3));
+		assertEquals(12, FlumeSamplingInterceptor.lcm(4, 6));
+	}
+
+	@Test
+	public void passesOtherDeviceTypes() throws IOException
+	{
+		Event event = TestEvents.event("ng_source", "dec-one", "device_type", "winevent", "sessionid", 1L);
+		assertEquals(event, build("1000").intercept(event));
+		assertNull(event.getHeaders().get(EventHeaders.SAMPLE_RATE));
+	}
+}
@@ -0,0 +1,40 @@
+package com.rsa.flume.serialization;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class GeoHashTest {
+
+	@Test
+	public void encodesKnownLocations()
+	{
+		assertEquals("u4pruydqqvj", GeoHash.encode(57.64911, 10.40744, 11));
+		assertEquals("ezs42", GeoHash.encode(42.6, -5.6, 5));
+		assertEquals("s000000", GeoHash.encode(0, 0, GeoHash.DEFAULT_PRECISION));
+	}
+
+	@Test
+	public void encodesTheCorners()
+	{
+		assertEquals("0", GeoHash.encode(-90, -180, 1));
+		assertEquals("z", GeoHash.encode(90, 180, 1));
+	}
+
+	@Test
+	public void limitsThePrecision()
+	{
+		assertEquals(GeoHash.MAX_PRECISION, GeoHash.encode(57.64911, 10.40744, 20).length());
+		assertEquals("u", GeoHash.encode(57.64911, 10.40744, 0));
+	}
+
+	@Test
+	public void sharesThePrefixWithLowerPrecisions()
+	{
+		String hash = GeoHash.encode(48.8583, 2.2945, GeoHash.MAX_PRECISION);
+		for (int precision = 1; precision < GeoHash.MAX_PRECISION; precision++)
+		{
+			assertEquals(hash.substring(0, precision), GeoHash.encode(48.8583, 2.2945, precision));
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package com.rsa.flume.serialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.flume.sink.elasticsearch.ElasticSearchEventSerializer;
+import org.junit.Test;
+
+public class RotatingBloomFilterTest {
+
+	private static byte[] key(int i)
+	{
+		return ("session-" + i).getBytes(ElasticSearchEventSerializer.charset);
+	}
+
+	@Test
+	public void recognisesKeysSeenBefore()
+	{
+		RotatingBloomFilter filter = new RotatingBloomFilter(1000, 0.001, 60000);
+		assertTrue(filter.add(key(1)));
+		assertTrue(filter.add(key(2)));
+		assertFalse(filter.add(key(1)));
+		assertFalse(filter.add(key(2)));
+		assertEquals(0, filter.Rotations());
+	}
+
+	@Test
+	public void looksUpWithoutAdding()
+	{
+		RotatingBloomFilter filter = new RotatingBloomFilter(1000, 0.001, 60000);
+		assertFalse(filter.contains(key(1)));
+		assertFalse(filter.contains(key(1)));
+		assertTrue(filter.add(key(1)));
+		assertTrue(filter.contains(key(1)));
+	}
+
+	@Test
+	public void forgetsKeysAfterTwoRotations()
+	{
+		RotatingBloomFilter filter = new RotatingBloomFilter(100, 0.001, 60000);
+		assertTrue(filter.add(key(0)));
+		for (int i = 1; i < 150; i++)
+		{
+			filter.add(key(i));
+		}
+		assertEquals(1, filter.Rotations());
+		for (int i = 150; i < 300; i++)
+		{
+			filter.add(key(i));
+		}
+		assertEquals(2, filter.Rotations());
+		assertTrue(filter.add(key(0)));
+	}
+
+	@Test
+	public void remembersKeysWhichKeepComing()
+	{
+		// Every add rotates the filters
+		RotatingBloomFilter filter = new RotatingBloomFilter(1000, 0.001, 0);
+		assertTrue(filter.add(key(1)));
+		for (int i = 0; i < 10; i++)
+		{
+			assertFalse(filter.add(key(1)));
+		}
+		assertTrue(filter.Rotations() >= 10);
+	}
+
+	@Test
+	public void estimatesTheFalsePositiveRate()
+	{
+		RotatingBloomFilter filter = new RotatingBloomFilter(1000, 0.01, 60000);
+		assertEquals(0.01, filter.FalsePositiveRate(), 0);
+		assertEquals(0, filter.CurrentFalsePositiveRate(), 1e-9);
+		for (int i = 0; i < 1000; i++)
+		{
+			filter.add(key(i));
+		}
+		assertTrue(filter.CurrentFalsePositiveRate() > 0.001 && filter.CurrentFalsePositiveRate() < 0.05);
+	}
+}
@@ -0,0 +1,131 @@
+package com.rsa.flume.serialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SchemaCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final SchemaCache cache = SchemaCache.getinstance();
+
+	static void writeAvroFile(File file) throws IOException
+	{
+		// Written under another name and renamed, as the Warehouse Connector does
+		File partial = new File(file.getPath() + ".tmp");
+		DataFileWriter<GenericRecord> writer = new DataFileWriter<GenericRecord>(new GenericDatumWriter<GenericRecord>(TestEvents.SCHEMA));
+		writer.create(TestEvents.SCHEMA, partial);
+		writer.append(TestEvents.record(TestEvents.SCHEMA, "sessionid", 1L));
+		writer.close();
+		assertTrue(partial.renameTo(file));
+	}
+
+	static Map<String, String> hashHeaders(String hash, File file)
+	{
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put(SchemaCache.SCHEMA_HASH_HEADER, hash + "-" + System.nanoTime());
+		headers.put(SchemaCache.FILE_HEADER, file.getPath());
+		return headers;
+	}
+
+	@Test
+	public void parsesALiteralOnce()
+	{
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put(SchemaCache.SCHEMA_LITERAL_HEADER, TestEvents.SCHEMA.toString());
+		Schema schema = cache.getSchema(headers);
+		assertEquals(TestEvents.SCHEMA, schema);
+		assertSame(schema, cache.getSchema(headers));
+
+		// The same schema with another text is the same instance
+		headers.put(SchemaCache.SCHEMA_LITERAL_HEADER, TestEvents.SCHEMA.toString(true));
+		assertSame(schema, cache.getSchema(headers));
+	}
+
+	@Test
+	public void readsTheSchemaOfAHashFromTheFile() throws IOException
+	{
+		File file = new File(folder.getRoot(), "sessions.avro");
+		writeAvroFile(file);
+		Map<String, String> headers = hashHeaders("file", file);
+		assertEquals(TestEvents.SCHEMA, cache.getSchema(headers));
+
+		// Found by the hash, after the file has gone
+		assertTrue(file.delete());
+		assertEquals(TestEvents.SCHEMA, cache.getSchema(headers));
+	}
+
+	@Test
+	public void readsTheCompletedFile() throws IOException
+	{
+		File file = new File(folder.getRoot(), "sessions.avro");
+		writeAvroFile(new File(file.getPath() + ".COMPLETED"));
+		assertEquals(TestEvents.SCHEMA, cache.getSchema(hashHeaders("completed", file)));
+	}
+
+	@Test
+	public void readsTheCompletedFileIfTheFileCantBeRead() throws IOException
+	{
+		// The file has been renamed and a new one is being written under its name
+		File file = new File(folder.getRoot(), "renamed.avro");
+		Files.write(file.toPath(), new byte[] { 'O', 'b' });
+		writeAvroFile(new File(file.getPath() + ".COMPLETED"));
+		assertEquals(TestEvents.SCHEMA, cache.getSchema(hashHeaders("renamed", file)));
+	}
+
+	@Test
+	public void waitsInTheBackgroundForAFileWrittenAfterItsFirstEvents() throws Exception
+	{
+		final File file = new File(folder.getRoot(), "late.avro");
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				try
+				{
+					Thread.sleep(300);
+					writeAvroFile(file);
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		};
+		writer.start();
+
+		// Waited for in the background only
+		assertEquals(TestEvents.SCHEMA, cache.getSchemaAsync(hashHeaders("late", file)).get());
+		writer.join();
+	}
+
+	@Test
+	public void remembersAMissingFileBriefly() throws Exception
+	{
+		// Not waited for on the event path
+		Map<String, String> headers = hashHeaders("missing", new File(folder.getRoot(), "missing.avro"));
+		long start = System.nanoTime();
+		assertNull(cache.getSchema(headers));
+		assertTrue(System.nanoTime() - start < 100000000L);
+
+		// Not read again
+		start = System.nanoTime();
+		assertNull(cache.getSchema(headers));
+		assertNull(cache.getSchemaAsync(headers).get());
+		assertTrue(System.nanoTime() - start < 100000000L);
+	}
+}
@@ -0,0 +1,214 @@
+package com.rsa.flume.serialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The streaming encoder must write the same documents as the generic one
+ */
+public class StreamingEncoderTest {
+
+	// A field for each Action and Value Type of the Field Plan
+	private static final Schema SCHEMA = new Schema.Parser().parse("{\"type\":\"record\",\"name\":\"nw\",\"fields\":["
+			+ "{\"name\":\"time\",\"type\":[\"null\",\"long\"]},"
+			+ "{\"name\":\"event_time\",\"type\":[\"null\",\"long\"]},"
+			+ "{\"name\":\"ng_source\",\"type\":[\"null\",\"string\"]},"
+			+ "{\"name\":\"sessionid\",\"type\":[\"null\",\"long\"]},"
+			+ "{\"name\":\"device_type\",\"type\":[\"null\",\"string\"]},"
+			+ "{\"name\":\"country_src\",\"type\":[\"null\",\"string\"]},"
+			+ "{\"name\":\"country_dst\",\"type\":[\"null\",\"string\"]},"
+			+ "{\"name\":\"severity\",\"type\":[\"null\",\"string\"]},"
+			+ "{\"name\":\"latdec_src\",\"type\":[\"null\",\"double\"]},"
+			+ "{\"name\":\"longdec_src\",\"type\":[\"null\",\"double\"]},"
+			+ "{\"name\":\"latdec_dst\",\"type\":[\"null\",\"string\"]},"
+			+ "{\"name\":\"longdec_dst\",\"type\":[\"null\",\"float\"]},"
+			+ "{\"name\":\"alias_host\",\"type\":[\"null\",\"string\"]},"
+			+ "{\"name\":\"user_agent\",\"type\":[\"null\",\"string\"]},"
+			+ "{\"name\":\"medium\",\"type\":[\"null\",\"int\"]},"
+			+ "{\"name\":\"service\",\"type\":[\"null\",\"int\"]},"
+			+ "{\"name\":\"size\",\"type\":[\"null\",\"long\"]},"
+			+ "{\"name\":\"packets\",\"type\":[\"null\",\"long\"]},"
+			+ "{\"name\":\"ratio\",\"type\":[\"null\",\"float\"]},"
+			+ "{\"name\":\"entropy\",\"type\":[\"null\",\"double\"]},"
+			+ "{\"name\":\"encrypted\",\"type\":[\"null\",\"boolean\"]},"
+			+ "{\"name\":\"direction\",\"type\":[\"null\",{\"type\":\"enum\",\"name\":\"direction\",\"symbols\":[\"inbound\",\"outbound\"]}]},"
+			+ "{\"name\":\"tags\",\"type\":[\"null\",{\"type\":\"array\",\"items\":\"string\"}]}]}");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final FlumeAvroEventDeserializer generic = build(FlumeAvroEventDeserializer.ENCODER_GENERIC);
+	private final FlumeAvroEventDeserializer streaming = build(FlumeAvroEventDeserializer.ENCODER_STREAMING);
+
+	private static FlumeAvroEventDeserializer build(String encoder)
+	{
+		Context ctx = new Context();
+		ctx.put(FlumeAvroEventDeserializer.ENCODER, encoder);
+		FlumeAvroEventDeserializer serializer = new FlumeAvroEventDeserializer();
+		serializer.configure(ctx);
+		return serializer;
+	}
+
+	/**
+	 * Writes a configuration with Country Mapping, truncation and time correction and reads it
+	 */
+	private Config config(boolean typed) throws IOException
+	{
+		File directory = folder.newFolder();
+		try (PrintWriter xml = new PrintWriter(new File(directory, Config.CONFIG_FILE), "UTF-8"))
+		{
+			xml.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+			xml.println("<configuration>");
+			xml.println("  <Include Decoder=\"*\" IncludeAllFields=\"1\"/>");
+			xml.println("  <Exclude Decoder=\"*\"><Field>sessionid</Field></Exclude>");
+			xml.println("  <TimeCorrection><Device name=\"ciscoasa\" correction=\"-2\"/></TimeCorrection>");
+			xml.println("  <Truncate><Field name=\"country_dst\" length=\"4\"/><Field name=\"alias_host\" length=\"5\"/>"
+					+ "<Field name=\"packets\" length=\"2\"/></Truncate>");
+			if (typed)
+			{
+				xml.println("  <ValueEncoding>typed</ValueEncoding>");
+				xml.println("  <GeoHash precision=\"7\"/>");
+			}
+			xml.println("  <KibanaVersion>" + (typed ? 3 : 5) + "</KibanaVersion>");
+			xml.println("</configuration>");
+		}
+		try (PrintWriter csv = new PrintWriter(new File(directory, Config.COUNTRY_MAP_FILE), "UTF-8"))
+		{
+			csv.println("United States;USA");
+			csv.println("Germany;Deutschland");
+			csv.println("Austria;Österreich");
+		}
+		return Config.read(directory);
+	}
+
+	private static GenericRecord record(Object... fieldsAndValues)
+	{
+		GenericRecord record = TestEvents.record(SCHEMA, "ng_source", "dec-one", "time", 86400L);
+		for (int i = 0; i < fieldsAndValues.length; i += 2)
+		{
+			record.put((String)fieldsAndValues[i], fieldsAndValues[i + 1]);
+		}
+		return record;
+	}
+
+	private static List<Event> events() throws IOException
+	{
+		Schema directionSchema = SCHEMA.getField("direction").schema().getTypes().get(1);
+		Schema tagsSchema = SCHEMA.getField("tags").schema().getTypes().get(1);
+
+		List<GenericRecord> records = new ArrayList<GenericRecord>();
+		records.add(record("event_time", 90000L, "sessionid", 1L, "device_type", "ciscoasa",
+				"country_src", "United States", "country_dst", "Germany", "severity", "5",
+				"latdec_src", 48.2, "longdec_src", 16.37, "latdec_dst", "37.77", "longdec_dst", -122.42f,
+				"alias_host", "host.example.com", "user_agent", "{\"name\":\"curl\",\"version\":7}",
+				"medium", 1, "service", 80, "size", 1234567890123L, "packets", 12345L,
+				"ratio", 0.5f, "entropy", 7.25, "encrypted", true,
+				"direction", new GenericData.EnumSymbol(directionSchema, "outbound"),
+				"tags", new GenericData.Array<String>(tagsSchema, Arrays.asList("a", "b"))));
+
+		// Truncation within and after multi-byte characters, mapped to multi-byte characters
+		records.add(record("device_type", "netscreen", "country_src", "Austria", "country_dst", "Austria",
+				"severity", "kritisch", "alias_host", "hößtname.example", "user_agent", "Mozilla/5.0 (Ünïcode)",
+				"packets", -7L, "encrypted", false));
+		records.add(record("country_dst", "Deutschländ", "alias_host", "hostnämé", "severity", "",
+				"latdec_src", 95.0, "longdec_src", 200.0, "latdec_dst", "north", "longdec_dst", 360f));
+
+		// Non ASCII digits are numeric as well
+		records.add(record("severity", "٣", "alias_host", "٣٤٥٦٧٨"));
+
+		// Values, which start like JSON
+		records.add(record("user_agent", "{not json", "alias_host", "{\"a\":1}", "severity", "{\"level\":3}",
+				"device_type", "{}"));
+		records.add(record("user_agent", "[1,2]", "country_src", "{\"name\":\"Germany\"}"));
+
+		// Null union fields, also for the locations, the time and the event time
+		records.add(record());
+		records.add(record("time", null, "event_time", 86500L, "latdec_src", 10.0, "longdec_dst", 20f));
+
+		List<Event> events = new ArrayList<Event>();
+		for (GenericRecord record : records)
+		{
+			events.add(TestEvents.event(record));
+
+			// Decoded by the interceptor already, so that the streaming encoder decodes the body only once
+			Event stamped = TestEvents.event(record);
+			stamped.getHeaders().put(EventHeaders.DECODER, "dec-one");
+			stamped.getHeaders().put(EventHeaders.TIMESTAMP, "86400000");
+			events.add(stamped);
+		}
+		return events;
+	}
+
+	private void assertSameDocuments(Config config) throws IOException
+	{
+		for (Event event : events())
+		{
+			String expected = generic.getDocument(event, config).string();
+			assertEquals(expected, streaming.getDocument(event, config).string());
+
+			// Again, now that the values are cached
+			assertEquals(expected, streaming.getDocument(event, config).string());
+			assertEquals(expected, generic.getDocument(event, config).string());
+		}
+	}
+
+	@Test
+	public void planCoversAllActionsAndValueTypes() throws IOException
+	{
+		Set<FieldPlan.Action> actions = EnumSet.noneOf(FieldPlan.Action.class);
+		Set<FieldPlan.ValueType> types = EnumSet.noneOf(FieldPlan.ValueType.class);
+		for (boolean typed : new boolean[] { false, true })
+		{
+			FieldPlan plan = config(typed).FieldPlan(SCHEMA, "dec-one");
+			for (int i = 0; i < plan.size(); i++)
+			{
+				actions.add(plan.step(i).action);
+				types.add(plan.step(i).type);
+			}
+		}
+		assertEquals(EnumSet.allOf(FieldPlan.Action.class), actions);
+		assertEquals(EnumSet.allOf(FieldPlan.ValueType.class), types);
+	}
+
+	@Test
+	public void writesTheSameDocumentsAsTheGenericEncoder() throws IOException
+	{
+		Config config = config(false);
+		assertSameDocuments(config);
+
+		// The configuration has been applied
+		String document = generic.getDocument(events().get(0), config).string();
+		assertTrue(document, document.contains("\"country_dst\":\"Deut\""));
+		assertTrue(document, document.contains("\"severity_num\":\"5\""));
+		assertTrue(document, !document.contains("sessionid"));
+	}
+
+	@Test
+	public void writesTheSameTypedDocumentsAsTheGenericEncoder() throws IOException
+	{
+		Config config = config(true);
+		assertSameDocuments(config);
+
+		String document = generic.getDocument(events().get(0), config).string();
+		assertTrue(document, document.contains("\"size\":1234567890123"));
+		assertTrue(document, document.contains("\"geohash_src\""));
+	}
+}
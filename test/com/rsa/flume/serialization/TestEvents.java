@@ -0,0 +1,73 @@
+package com.rsa.flume.serialization;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+
+/**
+ * Builds sessions as the Spooling Directory source delivers them: the binary record as body
+ * and the schema literal as header.
+ */
+final class TestEvents {
+
+	static final Schema SCHEMA = new Schema.Parser().parse("{\"type\":\"record\",\"name\":\"nw\",\"fields\":["
+			+ "{\"name\":\"time\",\"type\":[\"null\",\"long\"]},"
+			+ "{\"name\":\"ng_source\",\"type\":[\"null\",\"string\"]},"
+			+ "{\"name\":\"sessionid\",\"type\":[\"null\",\"long\"]},"
+			+ "{\"name\":\"device_type\",\"type\":[\"null\",\"string\"]},"
+			+ "{\"name\":\"medium\",\"type\":[\"null\",\"int\"]},"
+			+ "{\"name\":\"ip_src\",\"type\":[\"null\",\"string\"]},"
+			+ "{\"name\":\"ip_dst\",\"type\":[\"null\",\"string\"]},"
+			+ "{\"name\":\"service\",\"type\":[\"null\",\"int\"]},"
+			+ "{\"name\":\"size\",\"type\":[\"null\",\"long\"]},"
+			+ "{\"name\":\"packets\",\"type\":[\"null\",\"long\"]}]}");
+
+	private TestEvents()
+	{
+	}
+
+	/**
+	 * @param fieldsAndValues alternating field names and values, the other fields are null
+	 * @return
+	 */
+	static GenericRecord record(Schema schema, Object... fieldsAndValues)
+	{
+		GenericRecord record = new GenericData.Record(schema);
+		for (int i = 0; i < fieldsAndValues.length; i += 2)
+		{
+			record.put((String)fieldsAndValues[i], fieldsAndValues[i + 1]);
+		}
+		return record;
+	}
+
+	static byte[] body(GenericRecord record) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+		new GenericDatumWriter<GenericRecord>(record.getSchema()).write(record, encoder);
+		encoder.flush();
+		return out.toByteArray();
+	}
+
+	static Event event(GenericRecord record) throws IOException
+	{
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put(SchemaCache.SCHEMA_LITERAL_HEADER, record.getSchema().toString());
+		return EventBuilder.withBody(body(record), headers);
+	}
+
+	static Event event(Object... fieldsAndValues) throws IOException
+	{
+		return event(record(SCHEMA, fieldsAndValues));
+	}
+}
@@ -0,0 +1,52 @@
+package com.rsa.flume.serialization;
+
+import static org.junit.Assert.assertEquals;
+
+import java.text.SimpleDateFormat;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class TimestampFormatterTest {
+
+	private static String expected(long millis)
+	{
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(millis);
+	}
+
+	@Test
+	public void formatsLikeSimpleDateFormat()
+	{
+		Random random = new Random(7);
+		for (int i = 0; i < 10000; i++)
+		{
+			// 2000 to 2033
+			long millis = 946684800000L + (long)(random.nextDouble() * 1050000000000L);
+			assertEquals(expected(millis), TimestampFormatter.format(millis));
+		}
+	}
+
+	@Test
+	public void formatsBoundaries()
+	{
+		long[] values = {
+			0L, 951782400000L, 951868799999L, 1104537599999L, 1104537600000L, 4102444800000L
+		};
+		for (long millis : values)
+		{
+			assertEquals(expected(millis), TimestampFormatter.format(millis));
+		}
+	}
+
+	@Test
+	public void repeatsTheCachedSecond()
+	{
+		assertEquals("2017-07-14T02:40:00.000+0000", TimestampFormatter.format(1500000000000L));
+		assertEquals("2017-07-14T02:40:00.000+0000", TimestampFormatter.format(1500000000000L));
+		assertEquals("2017-07-14T02:40:00.999+0000", TimestampFormatter.format(1500000000999L));
+		assertEquals("2017-07-14T02:40:01.000+0000", TimestampFormatter.format(1500000001000L));
+	}
+}
@@ -0,0 +1,58 @@
+package com.rsa.flume.serialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+	@Test
+	public void allowsABurstUpToTheCapacity()
+	{
+		// One token per 1000 seconds, so no token is added during the test
+		TokenBucket bucket = new TokenBucket(0.001, 5);
+		for (int i = 0; i < 5; i++)
+		{
+			assertTrue(bucket.tryAcquire());
+		}
+		assertFalse(bucket.tryAcquire());
+		assertFalse(bucket.tryAcquire());
+	}
+
+	@Test
+	public void allowsAtLeastOneEvent()
+	{
+		TokenBucket bucket = new TokenBucket(0.001, 0.1);
+		assertTrue(bucket.tryAcquire());
+		assertFalse(bucket.tryAcquire());
+	}
+
+	@Test
+	public void refillsWithTheRate() throws InterruptedException
+	{
+		TokenBucket bucket = new TokenBucket(100, 1);
+		assertTrue(bucket.tryAcquire());
+		Thread.sleep(50);
+		assertTrue(bucket.tryAcquire());
+		assertEquals(100, bucket.Rate(), 0);
+	}
+
+	@Test
+	public void doesNotSaveMoreThanTheCapacity() throws InterruptedException
+	{
+		TokenBucket bucket = new TokenBucket(1000, 2);
+		Thread.sleep(50);
+		int allowed = 0;
+		for (int i = 0; i < 10; i++)
+		{
+			if (bucket.tryAcquire())
+			{
+				allowed++;
+			}
+		}
+		// The burst plus what has been added while acquiring
+		assertTrue(allowed >= 2 && allowed < 10);
+	}
+}
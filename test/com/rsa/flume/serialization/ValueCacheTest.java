@@ -0,0 +1,144 @@
+package com.rsa.flume.serialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public class ValueCacheTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static ValueCache.Value lookup(ValueCache cache, String text)
+	{
+		byte[] raw = text.getBytes(UTF8);
+		ValueCache.Value value = cache.get(raw, raw.length);
+		if (value == null)
+		{
+			value = cache.put(raw, raw.length, new ValueCache.Value(null, text, raw, false));
+		}
+		return value;
+	}
+
+	@Test
+	public void returnsTheCachedValue()
+	{
+		ValueCache cache = new ValueCache("test_repeated", 16);
+		byte[] raw = "ciscoasa".getBytes(UTF8);
+		assertNull(cache.get(raw, raw.length));
+		ValueCache.Value value = lookup(cache, "ciscoasa");
+		assertSame(value, cache.get(raw, raw.length));
+
+		// The key is compared, not only the hash
+		byte[] longer = "ciscoasa2".getBytes(UTF8);
+		assertNull(cache.get(longer, raw.length + 1));
+	}
+
+	@Test
+	public void publishesTheHitsPerField()
+	{
+		ValueCache cache = new ValueCache("test_published", 16);
+		for (int i = 0; i < 8192; i++)
+		{
+			lookup(cache, "ciscoasa");
+		}
+		ValueCacheCounter counter = ValueCacheCounter.forField("test_published");
+		assertEquals(8192, counter.getLookups());
+		assertEquals(8191, counter.getHits());
+		assertFalse(counter.isDisabled());
+	}
+
+	@Test
+	public void countsTheLookupsOfAllThreads() throws InterruptedException
+	{
+		final ValueCache cache = new ValueCache("test_threads", 16);
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++)
+		{
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run()
+				{
+					for (int i = 0; i < 8192; i++)
+					{
+						lookup(cache, "ciscoasa");
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+		assertEquals(4 * 8192, cache.Lookups());
+		assertTrue(cache.Hits() >= 4 * 8191);
+		assertTrue(cache.Enabled());
+		assertEquals(4 * 8192, ValueCacheCounter.forField("test_threads").getLookups());
+	}
+
+	@Test
+	public void switchesOffForDistinctValues()
+	{
+		ValueCache cache = new ValueCache("test_distinct", 16);
+		for (int i = 0; i < 4096; i++)
+		{
+			assertNotNull(lookup(cache, "10.0." + (i / 256) + "." + (i % 256)));
+		}
+		assertFalse(cache.Enabled());
+		assertTrue(ValueCacheCounter.forField("test_distinct").isDisabled());
+
+		// A cache of the next configuration snapshot starts again
+		new ValueCache("test_distinct", 16);
+		assertFalse(ValueCacheCounter.forField("test_distinct").isDisabled());
+		assertEquals(4096, ValueCacheCounter.forField("test_distinct").getLookups());
+	}
+
+	@Test
+	public void probesAgainAfterABackOff()
+	{
+		ValueCache cache = new ValueCache("test_probed", 16);
+		for (int i = 0; i < ValueCache.WINDOW; i++)
+		{
+			lookup(cache, "10.0." + (i / 256) + "." + (i % 256));
+		}
+		assertFalse(cache.Enabled());
+
+		// The values still don't repeat during the first probe, so the back-off is doubled
+		for (int i = 0; i < ValueCache.MIN_BACKOFF; i++)
+		{
+			lookup(cache, "ciscoasa");
+		}
+		assertTrue(cache.Enabled());
+		for (int i = 0; i < ValueCache.WINDOW; i++)
+		{
+			lookup(cache, "10.1." + (i / 256) + "." + (i % 256));
+		}
+		assertFalse(cache.Enabled());
+		for (int i = 0; i < ValueCache.MIN_BACKOFF; i++)
+		{
+			lookup(cache, "ciscoasa");
+		}
+		assertFalse(cache.Enabled());
+
+		// Now they repeat, the cache stays on
+		for (int i = 0; i < ValueCache.MIN_BACKOFF; i++)
+		{
+			lookup(cache, "ciscoasa");
+		}
+		assertTrue(cache.Enabled());
+		for (int i = 0; i < ValueCache.WINDOW; i++)
+		{
+			lookup(cache, "ciscoasa");
+		}
+		assertTrue(cache.Enabled());
+		assertFalse(ValueCacheCounter.forField("test_probed").isDisabled());
+		assertEquals(3 * ValueCache.WINDOW, ValueCacheCounter.forField("test_probed").getLookups());
+	}
+}